@@ -0,0 +1,450 @@
+/*
+ * Copyright 2020 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.detection;
+
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.os.Environment;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.tensorflow.lite.examples.detection.env.ArgbTensorWriter;
+import org.tensorflow.lite.examples.detection.env.CenterCropTensorWriter;
+import org.tensorflow.lite.examples.detection.env.ImageUtils;
+import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.env.ParallelImageConverter;
+import org.tensorflow.lite.examples.detection.env.YuvFrame;
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.examples.detection.tflite.Classifier2;
+import org.tensorflow.lite.examples.detection.tflite.DetectionResult;
+import org.tensorflow.lite.examples.detection.tflite.TFLiteObjectDetectionAPIModel;
+import org.tensorflow.lite.examples.detection.tflite.TopKSelector;
+import org.tensorflow.lite.examples.detection.tracking.OpticalFlowTracker;
+import org.tensorflow.lite.support.common.ops.NormalizeOp;
+import org.tensorflow.lite.support.image.ImageProcessor;
+import org.tensorflow.lite.support.image.TensorImage;
+import org.tensorflow.lite.support.image.ops.ResizeOp;
+import org.tensorflow.lite.support.image.ops.ResizeWithCropOrPadOp;
+import org.tensorflow.lite.support.image.ops.Rot90Op;
+import org.tensorflow.lite.support.label.TensorLabel;
+import org.tensorflow.lite.support.tensorbuffer.TensorBuffer;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * On-device timings of the frame pipeline stages. Results are written to logcat under the
+ * "tensorflow" tag; each benchmark also checks that the optimized path matches the baseline.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PipelineBenchmark {
+    private static final Logger LOGGER = new Logger();
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final int WARMUP_RUNS = 10;
+    private static final int RUNS = 50;
+    private static final int DETECTOR_INPUT_SIZE = 512;
+    private static final int CLASSIFIER_INPUT_SIZE = 224;
+    private static final float CLASSIFIER_MEAN = 127.5f;
+    private static final float CLASSIFIER_STD = 127.5f;
+    private static final float IMAGE_MEAN = 128.0f;
+    private static final float IMAGE_STD = 128.0f;
+    private static final String FLOAT_DETECTOR = "face_detect.tflite";
+    private static final String QUANTIZED_DETECTOR = "face_detect_quant.tflite";
+    private static final String DETECTOR_LABELS = "file:///android_asset/face_label.txt";
+    // Written by DetectorActivity with RECORD_FRAMES enabled.
+    private static final String RECORDED_FRAMES = "tensorflow/frames.nv21";
+
+    private interface Body {
+        void run();
+    }
+
+    // Median wall time of a run, in microseconds.
+    private static long medianMicros(final Body body) {
+        for (int i = 0; i < WARMUP_RUNS; ++i) {
+            body.run();
+        }
+        final long[] times = new long[RUNS];
+        for (int i = 0; i < RUNS; ++i) {
+            final long start = System.nanoTime();
+            body.run();
+            times[i] = (System.nanoTime() - start) / 1000;
+        }
+        Arrays.sort(times);
+        return times[RUNS / 2];
+    }
+
+    private static byte[] randomBytes(final int size) {
+        final byte[] bytes = new byte[size];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void yuvConversionWorkers() {
+        final byte[] input = randomBytes(ImageUtils.getYUVByteSize(WIDTH, HEIGHT));
+        final int[] expected = new int[WIDTH * HEIGHT];
+        final long baseline =
+                medianMicros(() -> ImageUtils.convertYUV420SPToARGB8888(input, WIDTH, HEIGHT, expected));
+        LOGGER.i("YUV420SP %dx%d single-threaded: %d us", WIDTH, HEIGHT, baseline);
+
+        for (final int workers : new int[]{2, 4, 8}) {
+            final ParallelImageConverter converter = new ParallelImageConverter(workers);
+            final int[] actual = new int[WIDTH * HEIGHT];
+            final long time =
+                    medianMicros(() -> converter.convertYUV420SPToARGB8888(input, WIDTH, HEIGHT, actual));
+            converter.close();
+            LOGGER.i("YUV420SP %dx%d on %d workers: %d us (%.2fx)",
+                    WIDTH, HEIGHT, workers, time, baseline / (float) time);
+            assertThat(actual).isEqualTo(expected);
+        }
+    }
+
+    // The per-channel put loop recognizeImage used before ArgbTensorWriter.
+    private static void putPixels(final int[] pixels, final boolean quantized, final ByteBuffer out) {
+        out.rewind();
+        for (final int pixelValue : pixels) {
+            if (quantized) {
+                out.put((byte) ((pixelValue >> 16) & 0xFF));
+                out.put((byte) ((pixelValue >> 8) & 0xFF));
+                out.put((byte) (pixelValue & 0xFF));
+            } else {
+                out.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+                out.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+                out.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+            }
+        }
+    }
+
+    @Test
+    public void detectorPreprocessing() {
+        final int numPixels = DETECTOR_INPUT_SIZE * DETECTOR_INPUT_SIZE;
+        final int[] pixels = new int[numPixels];
+        final Random random = new Random(42);
+        for (int i = 0; i < numPixels; ++i) {
+            pixels[i] = random.nextInt();
+        }
+
+        for (final boolean quantized : new boolean[]{false, true}) {
+            final int size = numPixels * 3 * (quantized ? 1 : 4);
+            final ByteBuffer expected = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+            final ByteBuffer actual = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+            final ArgbTensorWriter writer =
+                    new ArgbTensorWriter(numPixels, quantized, IMAGE_MEAN, IMAGE_STD);
+
+            final long baseline = medianMicros(() -> putPixels(pixels, quantized, expected));
+            final long time = medianMicros(() -> writer.write(pixels, actual));
+            LOGGER.i("%s preprocessing %dx%d: per-channel puts %d us, bulk put %d us (%.2fx)",
+                    quantized ? "Quantized" : "Float", DETECTOR_INPUT_SIZE, DETECTOR_INPUT_SIZE,
+                    baseline, time, baseline / (float) time);
+            expected.rewind();
+            actual.rewind();
+            assertThat(actual.equals(expected)).isTrue();
+        }
+    }
+
+    // Loads the WIDTH x HEIGHT NV21 frames recorded by DetectorActivity.
+    private static List<byte[]> loadRecordedFrames() throws IOException {
+        final File file = new File(Environment.getExternalStorageDirectory(), RECORDED_FRAMES);
+        final List<byte[]> frames = new ArrayList<>();
+        if (!file.exists()) {
+            return frames;
+        }
+        final int frameSize = ImageUtils.getYUVByteSize(WIDTH, HEIGHT);
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            for (long remaining = file.length(); remaining >= frameSize; remaining -= frameSize) {
+                final byte[] frame = new byte[frameSize];
+                in.readFully(frame);
+                frames.add(frame);
+            }
+        }
+        return frames;
+    }
+
+    private static boolean hasAsset(final AssetManager assets, final String name) {
+        try {
+            assets.open(name).close();
+            return true;
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+
+    // Median detection latency over the recorded frames, in microseconds. Also records the best
+    // score per frame in bestScores.
+    private static long detectorMicros(
+            final TFLiteObjectDetectionAPIModel detector,
+            final List<byte[]> frames,
+            final float[] bestScores) {
+        final YuvFrame frame = new YuvFrame(new ParallelImageConverter(1));
+        final DetectionResult result = new DetectionResult(detector.getMaxDetections());
+        final int inputSize = detector.getInputSize();
+        final Matrix cropToFrame = new Matrix();
+        ImageUtils.getTransformationMatrix(WIDTH, HEIGHT, inputSize, inputSize, 0, false)
+                .invert(cropToFrame);
+
+        for (int i = 0; i < Math.min(WARMUP_RUNS, frames.size()); ++i) {
+            frame.setYUV420SP(frames.get(i), WIDTH, HEIGHT);
+            detector.sampleFrame(frame, cropToFrame);
+            detector.recognizeSampledFrame(result);
+            frame.release();
+        }
+        final long[] times = new long[frames.size()];
+        for (int i = 0; i < frames.size(); ++i) {
+            frame.setYUV420SP(frames.get(i), WIDTH, HEIGHT);
+            final long start = System.nanoTime();
+            detector.sampleFrame(frame, cropToFrame);
+            detector.recognizeSampledFrame(result);
+            times[i] = (System.nanoTime() - start) / 1000;
+            frame.release();
+            bestScores[i] = result.getCount() > 0 ? result.getScore(0) : 0f;
+        }
+        Arrays.sort(times);
+        return times[times.length / 2];
+    }
+
+    @Test
+    public void floatVsQuantizedDetector() throws IOException {
+        final AssetManager assets =
+                InstrumentationRegistry.getInstrumentation().getTargetContext().getAssets();
+        assumeTrue(hasAsset(assets, FLOAT_DETECTOR) && hasAsset(assets, QUANTIZED_DETECTOR));
+        final List<byte[]> frames = loadRecordedFrames();
+        assumeTrue(!frames.isEmpty());
+
+        final TFLiteObjectDetectionAPIModel floatDetector =
+                TFLiteObjectDetectionAPIModel.create(
+                        assets, FLOAT_DETECTOR, DETECTOR_LABELS, DETECTOR_INPUT_SIZE, false);
+        final TFLiteObjectDetectionAPIModel quantizedDetector =
+                TFLiteObjectDetectionAPIModel.create(
+                        assets, QUANTIZED_DETECTOR, DETECTOR_LABELS, DETECTOR_INPUT_SIZE, true);
+        assertThat(quantizedDetector.isQuantized()).isTrue();
+
+        final float[] floatScores = new float[frames.size()];
+        final float[] quantizedScores = new float[frames.size()];
+        final long floatTime = detectorMicros(floatDetector, frames, floatScores);
+        final long quantizedTime = detectorMicros(quantizedDetector, frames, quantizedScores);
+        floatDetector.close();
+        quantizedDetector.close();
+
+        int agreements = 0;
+        for (int i = 0; i < frames.size(); ++i) {
+            if ((floatScores[i] >= 0.5f) == (quantizedScores[i] >= 0.5f)) {
+                ++agreements;
+            }
+        }
+        LOGGER.i("Detector over %d recorded frames: float %d us, quantized %d us (%.2fx), "
+                        + "face found by both or neither on %d frames",
+                frames.size(), floatTime, quantizedTime, floatTime / (float) quantizedTime, agreements);
+    }
+
+    // The TensorLabel map and PriorityQueue top-k Classifier2 used before TopKSelector.
+    private static List<Classifier2.Recognition> mapTopK(
+            final List<String> labels, final TensorBuffer output, final int k) {
+        final Map<String, Float> labeledProbability =
+                new TensorLabel(labels, output).getMapWithFloatValue();
+        final PriorityQueue<Classifier2.Recognition> pq =
+                new PriorityQueue<>(
+                        k, (lhs, rhs) -> Float.compare(rhs.getConfidence(), lhs.getConfidence()));
+        for (final Map.Entry<String, Float> entry : labeledProbability.entrySet()) {
+            pq.add(new Classifier2.Recognition("" + entry.getKey(), entry.getKey(), entry.getValue(), null));
+        }
+        final List<Classifier2.Recognition> recognitions = new ArrayList<>();
+        for (int i = Math.min(pq.size(), k); i > 0; --i) {
+            recognitions.add(pq.poll());
+        }
+        return recognitions;
+    }
+
+    @Test
+    public void classifierTopK() {
+        final int k = 3;
+        // The expression classifier, and an ImageNet sized output for scale.
+        for (final int numClasses : new int[]{3, 1001}) {
+            final List<String> labels = new ArrayList<>();
+            final float[] probabilities = new float[numClasses];
+            final Random random = new Random(42);
+            for (int i = 0; i < numClasses; ++i) {
+                labels.add("class" + i);
+                probabilities[i] = random.nextFloat();
+            }
+            final TensorBuffer output =
+                    TensorBuffer.createFixedSize(new int[]{1, numClasses}, DataType.FLOAT32);
+            output.loadArray(probabilities);
+            final TopKSelector selector = new TopKSelector(k);
+
+            final long baseline = medianMicros(() -> mapTopK(labels, output, k));
+            final long time = medianMicros(() -> selector.selectFloats(output.getBuffer(), numClasses));
+            LOGGER.i("Top %d of %d classes: TensorLabel map %d us, primitive %d us (%.2fx)",
+                    k, numClasses, baseline, time, baseline / (float) Math.max(time, 1));
+
+            final List<Classifier2.Recognition> expected = mapTopK(labels, output, k);
+            assertThat(selector.selectFloats(output.getBuffer(), numClasses)).isEqualTo(k);
+            for (int i = 0; i < k; ++i) {
+                assertThat(labels.get(selector.getIndex(i))).isEqualTo(expected.get(i).getTitle());
+                assertThat(selector.getScore(i)).isEqualTo(expected.get(i).getConfidence());
+            }
+        }
+    }
+
+    // The op chain Classifier2.loadImage ran before CenterCropTensorWriter, built per frame.
+    private static ByteBuffer processWithOps(final Bitmap bitmap, final int rotation) {
+        final TensorImage image = new TensorImage(DataType.FLOAT32);
+        image.load(bitmap);
+        final int cropSize = Math.min(bitmap.getWidth(), bitmap.getHeight());
+        final ImageProcessor imageProcessor =
+                new ImageProcessor.Builder()
+                        .add(new ResizeWithCropOrPadOp(cropSize, cropSize))
+                        .add(new ResizeOp(CLASSIFIER_INPUT_SIZE, CLASSIFIER_INPUT_SIZE,
+                                ResizeOp.ResizeMethod.NEAREST_NEIGHBOR))
+                        .add(new Rot90Op(rotation / 90))
+                        .add(new NormalizeOp(CLASSIFIER_MEAN, CLASSIFIER_STD))
+                        .build();
+        return imageProcessor.process(image).getBuffer();
+    }
+
+    @Test
+    public void classifierPreprocessing() {
+        final int[] pixels = new int[WIDTH * HEIGHT];
+        final Random random = new Random(42);
+        for (int i = 0; i < pixels.length; ++i) {
+            pixels[i] = 0xff000000 | random.nextInt();
+        }
+        final Bitmap bitmap = Bitmap.createBitmap(pixels, WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        final CenterCropTensorWriter writer =
+                new CenterCropTensorWriter(
+                        CLASSIFIER_INPUT_SIZE, CLASSIFIER_INPUT_SIZE, false, CLASSIFIER_MEAN, CLASSIFIER_STD);
+        final ByteBuffer actual =
+                ByteBuffer.allocateDirect(CLASSIFIER_INPUT_SIZE * CLASSIFIER_INPUT_SIZE * 3 * 4)
+                        .order(ByteOrder.nativeOrder());
+        final int[] bitmapPixels = new int[WIDTH * HEIGHT];
+
+        for (final int rotation : new int[]{0, 90, 180, 270}) {
+            final long baseline = medianMicros(() -> processWithOps(bitmap, rotation));
+            final long time =
+                    medianMicros(() -> {
+                        bitmap.getPixels(bitmapPixels, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+                        writer.writeArgb(bitmapPixels, WIDTH, HEIGHT, WIDTH, rotation, actual);
+                    });
+            LOGGER.i("Classifier preprocessing %dx%d rotated %d: op chain %d us, fused %d us (%.2fx)",
+                    WIDTH, HEIGHT, rotation, baseline, time, baseline / (float) time);
+
+            final ByteBuffer expected = processWithOps(bitmap, rotation);
+            expected.rewind();
+            actual.rewind();
+            assertThat(actual.equals(expected)).isTrue();
+        }
+    }
+
+    @Test
+    public void classifierBatch() throws IOException {
+        final Classifier2 classifier =
+                Classifier2.create(
+                        InstrumentationRegistry.getInstrumentation().getTargetContext(),
+                        Classifier2.Model.FLOAT_MOBILENET,
+                        Classifier2.Device.CPU,
+                        1);
+        final ByteBuffer luminance = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+        luminance.put(randomBytes(WIDTH * HEIGHT));
+        // Four faces of different sizes, one of them partly out of the frame.
+        final int[] regions = {0, 0, 200, 300, 100, 240, 500, 400, 160, 120, 60, 96};
+        final int count = regions.length / 3;
+
+        final long single =
+                medianMicros(() -> {
+                    for (int i = 0; i < count; ++i) {
+                        classifier.recognizeLuminance(luminance, WIDTH, HEIGHT, WIDTH,
+                                regions[3 * i], regions[3 * i + 1], regions[3 * i + 2], 90);
+                    }
+                });
+        final long batched =
+                medianMicros(() ->
+                        classifier.recognizeLuminance(luminance, WIDTH, HEIGHT, WIDTH, regions, count, 90));
+        LOGGER.i("Classifying %d faces: one by one %d us, batched %d us (%.2fx)",
+                count, single, batched, single / (float) batched);
+
+        final List<List<Classifier2.Recognition>> actual =
+                classifier.recognizeLuminance(luminance, WIDTH, HEIGHT, WIDTH, regions, count, 90);
+        assertThat(actual).hasSize(count);
+        for (int i = 0; i < count; ++i) {
+            final List<Classifier2.Recognition> results = actual.get(i);
+            final List<Classifier2.Recognition> expected =
+                    classifier.recognizeLuminance(luminance, WIDTH, HEIGHT, WIDTH,
+                            regions[3 * i], regions[3 * i + 1], regions[3 * i + 2], 90);
+            assertThat(results).hasSize(expected.size());
+            for (int j = 0; j < expected.size(); ++j) {
+                assertThat(results.get(j).getTitle()).isEqualTo(expected.get(j).getTitle());
+                assertThat(results.get(j).getConfidence())
+                        .isWithin(1e-5f).of(expected.get(j).getConfidence());
+            }
+        }
+        classifier.close();
+    }
+
+    // Smooth texture at the size of the downscaled luminance plane, shifted by (shift, shift).
+    private static byte[] flowImage(final int shift) {
+        final byte[] image = new byte[WIDTH / 2 * HEIGHT / 2];
+        for (int y = 0, k = 0; y < HEIGHT / 2; ++y) {
+            for (int x = 0; x < WIDTH / 2; ++x, ++k) {
+                final double u = x - shift;
+                final double v = y - shift;
+                image[k] = (byte) Math.round(
+                        128 + 50 * Math.sin(u * 0.31) * Math.cos(v * 0.23) + 30 * Math.sin((u + 2 * v) * 0.13));
+            }
+        }
+        return image;
+    }
+
+    @Test
+    public void opticalFlowTracking() {
+        final OpticalFlowTracker tracker = new OpticalFlowTracker();
+        final byte[][] images = {flowImage(0), flowImage(2)};
+        final float[] face = {100, 60, 220, 180};
+
+        final long time =
+                medianMicros(() -> {
+                    tracker.reset(images[0], WIDTH / 2, HEIGHT / 2, face, 1);
+                    tracker.track(images[1], WIDTH / 2, HEIGHT / 2);
+                });
+        // Includes picking the points, which happens once per detector run.
+        LOGGER.i("Tracking one %.0fx%.0f face by optical flow: %d us", face[2] - face[0], face[3] - face[1], time);
+
+        tracker.reset(images[0], WIDTH / 2, HEIGHT / 2, face, 1);
+        assertThat(tracker.track(images[1], WIDTH / 2, HEIGHT / 2)).isTrue();
+        final float[] tracked = new float[4];
+        tracker.getLocation(0, tracked);
+        assertThat(tracked[0]).isWithin(0.5f).of(face[0] + 2);
+        assertThat(tracked[1]).isWithin(0.5f).of(face[1] + 2);
+    }
+}
@@ -77,8 +77,9 @@ import com.google.firebase.firestore.FirebaseFirestoreException;
 import com.google.firebase.iid.FirebaseInstanceId;
 
 import org.json.JSONObject;
-import org.tensorflow.lite.examples.detection.env.ImageUtils;
 import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.env.ParallelImageConverter;
+import org.tensorflow.lite.examples.detection.env.YuvFrame;
 import org.tensorflow.lite.examples.detection.tflite.Classifier2;
 
 import java.io.OutputStream;
@@ -117,13 +118,13 @@ public abstract class CameraActivity extends AppCompatActivity
             recognitionValueTextView,
             recognition1ValueTextView,
             recognition2ValueTextView;
-    protected LinearLayout ll_result, ll_email, ll_noise, ll_chk_noise;
+    protected LinearLayout ll_result, ll_email, ll_noise, ll_chk_noise, ll_quantized;
     protected RelativeLayout rl_signIn;
     protected SignInButton btn_signIn;
     protected ImageButton btn_logout;
     protected TextView tv_email;
     protected TextView inferenceTimeTextView, dbTextView;
-    protected CheckBox cb_noise;
+    protected CheckBox cb_noise, cb_quantized;
     protected ImageView bottomSheetArrowImageView;
     protected String token = null;
     protected boolean noise = false;
@@ -131,12 +132,10 @@ public abstract class CameraActivity extends AppCompatActivity
     private Handler handler;
     private HandlerThread handlerThread;
     private boolean useCamera2API;
-    private boolean isProcessingFrame = false;
-    private byte[][] yuvBytes = new byte[3][];
-    private int[] rgbBytes = null;
-    private int yRowStride;
+    private volatile boolean isProcessingFrame = false;
+    private YuvFrame yuvFrame;
     private Runnable postInferenceCallback;
-    private Runnable imageConverter;
+    private ParallelImageConverter parallelConverter;
     private LinearLayout bottomSheetLayout;
     private LinearLayout gestureLayout;
     private BottomSheetBehavior<LinearLayout> sheetBehavior;
@@ -164,6 +163,8 @@ public abstract class CameraActivity extends AppCompatActivity
         SERVER_KEY = getString(R.string.server_key);
         sensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
         lightSensor = sensorManager.getDefaultSensor(Sensor.TYPE_LIGHT);
+        parallelConverter = new ParallelImageConverter(getNumConversionThreads());
+        yuvFrame = new YuvFrame(parallelConverter);
 
         if (hasPermission()) {
             setFragment();
@@ -239,6 +240,8 @@ public abstract class CameraActivity extends AppCompatActivity
         ll_noise = findViewById(R.id.ll_noise);
         ll_chk_noise = findViewById(R.id.ll_chk_noise);
         cb_noise = findViewById(R.id.cb_noise);
+        ll_quantized = findViewById(R.id.ll_quantized);
+        cb_quantized = findViewById(R.id.cb_quantized);
 
         mAuth = FirebaseAuth.getInstance();
         db = FirebaseFirestore.getInstance();
@@ -267,6 +270,8 @@ public abstract class CameraActivity extends AppCompatActivity
 
         ll_chk_noise.setOnClickListener(view -> chkNoise());
 
+        ll_quantized.setOnClickListener(view -> chkQuantized());
+
         inferenceTimeTextView = findViewById(R.id.inference_info);
         dbTextView = findViewById(R.id.db_info);
     }
@@ -296,6 +301,18 @@ public abstract class CameraActivity extends AppCompatActivity
         cb_noise.setChecked(noise);
     }
 
+    protected void chkQuantized() {
+        cb_quantized.setChecked(!cb_quantized.isChecked());
+        setUseQuantizedDetector(cb_quantized.isChecked());
+    }
+
+    /**
+     * Switches between the float and the uint8 quantized face detector. Does nothing unless the
+     * activity runs a detector.
+     */
+    protected void setUseQuantizedDetector(final boolean quantized) {
+    }
+
     protected void getToken() {
         FirebaseInstanceId.getInstance().getInstanceId().addOnCompleteListener(task -> {
             if (!task.isSuccessful()) {
@@ -458,17 +475,20 @@ public abstract class CameraActivity extends AppCompatActivity
         }
     }
 
-    protected int[] getRgbBytes() {
-        imageConverter.run();
-        return rgbBytes;
-    }
-
-    protected int getLuminanceStride() {
-        return yRowStride;
+    /**
+     * Returns the frame being processed. Its planes and derived images can be read until
+     * readyForNextImage(); later reads throw an IllegalStateException.
+     */
+    protected YuvFrame getYuvFrame() {
+        return yuvFrame;
     }
 
-    protected byte[] getLuminance() {
-        return yuvBytes[0];
+    /**
+     * Creates a frame sharing the ARGB converter of the camera frames, e.g. to hold a copy of a
+     * camera frame that outlives readyForNextImage().
+     */
+    protected YuvFrame newYuvFrame() {
+        return new YuvFrame(parallelConverter);
     }
 
     /**
@@ -483,11 +503,10 @@ public abstract class CameraActivity extends AppCompatActivity
 
         try {
             // Initialize the storage bitmaps once when the resolution is known.
-            if (rgbBytes == null) {
+            if (previewWidth == 0 || previewHeight == 0) {
                 Camera.Size previewSize = camera.getParameters().getPreviewSize();
                 previewHeight = previewSize.height;
                 previewWidth = previewSize.width;
-                rgbBytes = new int[previewWidth * previewHeight];
                 onPreviewSizeChosen(new Size(previewSize.width, previewSize.height), 90);
             }
         } catch (final Exception e) {
@@ -496,10 +515,7 @@ public abstract class CameraActivity extends AppCompatActivity
         }
 
         isProcessingFrame = true;
-        yuvBytes[0] = bytes;
-        yRowStride = previewWidth;
-
-        imageConverter = () -> ImageUtils.convertYUV420SPToARGB8888(bytes, previewWidth, previewHeight, rgbBytes);
+        yuvFrame.setYUV420SP(bytes, previewWidth, previewHeight);
 
         postInferenceCallback = () -> {
             camera.addCallbackBuffer(bytes);
@@ -517,9 +533,6 @@ public abstract class CameraActivity extends AppCompatActivity
         if (previewWidth == 0 || previewHeight == 0) {
             return;
         }
-        if (rgbBytes == null) {
-            rgbBytes = new int[previewWidth * previewHeight];
-        }
         try {
             final Image image = reader.acquireLatestImage();
 
@@ -533,22 +546,24 @@ public abstract class CameraActivity extends AppCompatActivity
             }
             isProcessingFrame = true;
             Trace.beginSection("imageAvailable");
+            // The planes are read in place; the image is only closed once the frame has been
+            // processed, see postInferenceCallback.
             final Plane[] planes = image.getPlanes();
-            fillBytes(planes, yuvBytes);
-            yRowStride = planes[0].getRowStride();
+            final ByteBuffer yBuffer = planes[0].getBuffer();
+            final ByteBuffer uBuffer = planes[1].getBuffer();
+            final ByteBuffer vBuffer = planes[2].getBuffer();
+            final int yRowStride = planes[0].getRowStride();
             final int uvRowStride = planes[1].getRowStride();
             final int uvPixelStride = planes[1].getPixelStride();
-
-            imageConverter = () -> ImageUtils.convertYUV420ToARGB8888(
-                    yuvBytes[0],
-                    yuvBytes[1],
-                    yuvBytes[2],
+            yuvFrame.setYUV420(
+                    yBuffer,
+                    uBuffer,
+                    vBuffer,
                     previewWidth,
                     previewHeight,
                     yRowStride,
                     uvRowStride,
-                    uvPixelStride,
-                    rgbBytes);
+                    uvPixelStride);
 
             postInferenceCallback = () -> {
                 image.close();
@@ -608,6 +623,7 @@ public abstract class CameraActivity extends AppCompatActivity
     public synchronized void onDestroy() {
         LOGGER.d("onDestroy " + this);
         super.onDestroy();
+        parallelConverter.close();
     }
 
     protected synchronized void runInBackground(final Runnable r) {
@@ -722,25 +738,28 @@ public abstract class CameraActivity extends AppCompatActivity
         getFragmentManager().beginTransaction().replace(R.id.container, fragment).commit();
     }
 
-    protected void fillBytes(final Plane[] planes, final byte[][] yuvBytes) {
-        // Because of the variable row stride it's not possible to know in
-        // advance the actual necessary dimensions of the yuv planes.
-        for (int i = 0; i < planes.length; ++i) {
-            final ByteBuffer buffer = planes[i].getBuffer();
-            if (yuvBytes[i] == null) {
-                LOGGER.d("Initializing buffer %d at size %d", i, buffer.capacity());
-                yuvBytes[i] = new byte[buffer.capacity()];
-            }
-            buffer.get(yuvBytes[i]);
-        }
+    /**
+     * Number of threads the YUV to ARGB conversion of a frame is split across. Override to pin a
+     * device to a specific mode; 1 selects the single-threaded path.
+     */
+    protected int getNumConversionThreads() {
+        return ParallelImageConverter.getDefaultNumThreads();
     }
 
     public boolean isDebug() {
         return debug;
     }
 
+    /**
+     * Shows or hides the debug overlay with the pipeline latency statistics.
+     */
+    protected void toggleDebug() {
+        debug = !debug;
+    }
+
     protected void readyForNextImage() {
         if (postInferenceCallback != null) {
+            yuvFrame.release();
             postInferenceCallback.run();
         }
     }
@@ -770,9 +789,8 @@ public abstract class CameraActivity extends AppCompatActivity
                 else if (title != null)
                     recognitionTextView.setText("Not Crying");
 
-                if (recognition.getConfidence() != null)
-                    recognitionValueTextView.setText(
-                            String.format("%.2f", (100 * recognition.getConfidence())) + "%");
+                recognitionValueTextView.setText(
+                        String.format("%.2f", (100 * recognition.getConfidence())) + "%");
             }
 
             Classifier2.Recognition recognition1 = results.get(1);
@@ -783,15 +801,13 @@ public abstract class CameraActivity extends AppCompatActivity
                     recognition1TextView.setText(recognition1.getTitle());
                 else if (title != null && recognition.getTitle().contains("Crying")) {
                     recognition1TextView.setText("Not Crying");
-                    if (recognition1.getConfidence() != null)
-                        recognition1ValueTextView.setText(
-                                String.format("%.2f", (100 * recognition1.getConfidence())) + "%");
+                    recognition1ValueTextView.setText(
+                            String.format("%.2f", (100 * recognition1.getConfidence())) + "%");
                 } else {
                     title = recognition2.getTitle();
                     recognition1TextView.setText(title);
-                    if (recognition2.getConfidence() != null)
-                        recognition1ValueTextView.setText(
-                                String.format("%.2f", (100 * recognition2.getConfidence())) + "%");
+                    recognition1ValueTextView.setText(
+                            String.format("%.2f", (100 * recognition2.getConfidence())) + "%");
                 }
             }
         }
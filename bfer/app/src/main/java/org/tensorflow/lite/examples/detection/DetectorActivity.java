@@ -18,16 +18,12 @@ package org.tensorflow.lite.examples.detection;
 
 import android.Manifest;
 import android.annotation.SuppressLint;
+import android.content.Context;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
 import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.ColorMatrix;
-import android.graphics.ColorMatrixColorFilter;
 import android.graphics.Matrix;
-import android.graphics.Paint;
-import android.graphics.Paint.Style;
 import android.graphics.RectF;
 import android.graphics.Typeface;
 import android.hardware.Sensor;
@@ -37,9 +33,11 @@ import android.media.AudioRecord;
 import android.media.ImageReader.OnImageAvailableListener;
 import android.media.MediaRecorder;
 import android.net.Uri;
+import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
 import android.os.SystemClock;
+import android.os.Trace;
 import android.util.Size;
 import android.util.TypedValue;
 import android.widget.Toast;
@@ -55,10 +53,22 @@ import org.tensorflow.lite.examples.detection.customview.OverlayView;
 import org.tensorflow.lite.examples.detection.env.BorderedText;
 import org.tensorflow.lite.examples.detection.env.ImageUtils;
 import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.env.MotionGate;
+import org.tensorflow.lite.examples.detection.env.PipelineStage;
+import org.tensorflow.lite.examples.detection.env.YuvFrame;
 import org.tensorflow.lite.examples.detection.tflite.Classifier;
 import org.tensorflow.lite.examples.detection.tflite.Classifier2;
+import org.tensorflow.lite.examples.detection.tflite.ClassifierCascade;
+import org.tensorflow.lite.examples.detection.tflite.DetectionResult;
+import org.tensorflow.lite.examples.detection.tflite.ExpressionClassifier;
+import org.tensorflow.lite.examples.detection.tflite.ExpressionSmoother;
+import org.tensorflow.lite.examples.detection.tflite.InputSizeController;
+import org.tensorflow.lite.examples.detection.tflite.InterpreterTuner;
+import org.tensorflow.lite.examples.detection.tflite.ModelRegistry;
 import org.tensorflow.lite.examples.detection.tflite.TFLiteObjectDetectionAPIModel;
 import org.tensorflow.lite.examples.detection.tracking.MultiBoxTracker;
+import org.tensorflow.lite.examples.detection.tracking.OpticalFlowTracker;
+import org.tensorflow.lite.examples.detection.tracking.SortTracker;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -66,8 +76,16 @@ import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Vector;
 
 /**
  * An activity that uses a TensorFlowMultiBoxDetector and ObjectTracker to detect and then track
@@ -79,16 +97,39 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
     private static final Logger LOGGER = new Logger();
     // Configuration values for the prepackaged SSD model.
     private static final int TF_OD_API_INPUT_SIZE = 512;
+    // Input sizes the detector may step down to when faces are large and confidently detected.
+    private static final int[] TF_OD_API_INPUT_SIZES = {TF_OD_API_INPUT_SIZE, 384, 320, 256};
     private static final boolean TF_OD_API_IS_QUANTIZED = false;
     private static final String TF_OD_API_MODEL_FILE = "face_detect.tflite";
+    private static final String TF_OD_API_QUANTIZED_MODEL_FILE = "face_detect_quant.tflite";
     private static final String TF_OD_API_LABELS_FILE = "file:///android_asset/face_label.txt";
+    // Registry name of the expression classifier.
+    private static final String CLASSIFIER_MODEL = "expression_classifier";
+    // Classifies faces with the small quantized model first, and with the float model only when
+    // the best expression beats the runner-up by less than CLASSIFIER_CASCADE_MARGIN.
+    private static final boolean USE_CLASSIFIER_CASCADE = true;
+    private static final float CLASSIFIER_CASCADE_MARGIN = 0.3f;
     // Minimum detection confidence to track a detection.
     private static final float MINIMUM_CONFIDENCE_TF_OD_API = 0.5f;
+    // Margin added around the face box on every side before classifying it, relative to the
+    // longer side of the box, so that the whole face and some context is kept.
+    private static final float FACE_CROP_PADDING = 0.2f;
+    // Mean absolute luminance difference to the last processed frame, in 0..255, from which a frame
+    // is run through the models; stiller frames reuse the last results.
+    private static final float MOTION_GATE_THRESHOLD = 3.0f;
+    // Longest time the models may be skipped on a still scene.
+    private static final long MOTION_GATE_REFRESH_MS = 5000;
+    // The detector runs on every Nth processed frame; the faces are moved along by optical flow on
+    // the frames in between, or the detector runs early when the flow loses them.
+    private static final int DETECTION_INTERVAL = 5;
     private static final float MINIMUM_LIGHT_SENSOR_VALUE = 20.0f;
     private static final float MINIMUM_DB = 70.0f;
     private static final boolean MAINTAIN_ASPECT = false;
     private static final Size DESIRED_PREVIEW_SIZE = new Size(640, 480);
     private static final boolean SAVE_PREVIEW_BITMAP = false;
+    // Appends every processed frame as NV21 to RECORDED_FRAMES_FILE, for replaying in benchmarks.
+    private static final boolean RECORD_FRAMES = false;
+    private static final String RECORDED_FRAMES_FILE = "frames.nv21";
     private static final float TEXT_SIZE_DIP = 10;
     public static double REFERENCE = 0.00002;
     public Handler handlerc = null;
@@ -99,15 +140,56 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
     private int not_count = 0;
     private String detect_image = "/detect.jpg";
     private Integer sensorOrientation;
-    private Classifier detector;
-    private Classifier2 classifier;
+    private TFLiteObjectDetectionAPIModel detector;
+    // Refilled by the detector for every frame.
+    private DetectionResult detections;
+    private InputSizeController inputSizeController;
+    // Detector variant picked in the bottom sheet through setUseQuantizedDetector(), applied
+    // between frames.
+    private volatile boolean useQuantizedDetector = TF_OD_API_IS_QUANTIZED;
+    private volatile boolean detectorSwitchPending = false;
+    // Variant of the detector in use, to fall back to when a switch fails.
+    private boolean detectorQuantized = TF_OD_API_IS_QUANTIZED;
+    private boolean detectorFailed = false;
+    private boolean classifierFailed = false;
+    private ExpressionClassifier classifier;
     private long lastProcessingTimeMs;
+    // Smoothed expression of every live face track, by track id.
+    private final Map<Integer, ExpressionSmoother> faceSmoothers = new HashMap<>();
+    // Regions and indices of the faces of a frame that need classifying.
+    private int[] classifyRegions = new int[0];
+    private int[] classifyFaces = new int[0];
+    // Results of the last classified frame, reused for frames the motion gate skips.
+    // Moves the faces of the last detection along between detector runs, on the downscaled
+    // luminance plane.
+    private final OpticalFlowTracker flowTracker = new OpticalFlowTracker();
+    // Faces of the last detection, with the labels and scores the tracked faces keep.
+    private final List<Classifier.Recognition> lastDetections = new ArrayList<>();
+    private float[] flowBoxes = new float[0];
+    private int framesSinceDetection = 0;
+    // Gives the faces stable ids across frames.
+    private final SortTracker sortTracker = new SortTracker();
+    private float[] faceBoxes = new float[0];
+    private final float[] trackedBox = new float[4];
+    private final MotionGate motionGate = new MotionGate(MOTION_GATE_THRESHOLD, MOTION_GATE_REFRESH_MS);
+    // Frames are passed on from stage to stage and return here once decided or dropped.
+    private final ArrayDeque<PipelineFrame> framePool = new ArrayDeque<>();
+    // Each stage works on the latest frame handed to it, see PipelineStage.
+    private final PipelineStage<PipelineFrame> convertStage =
+            new PipelineStage<>("convert", this::convertFrame, frame -> {
+                readyForNextImage();
+                recycleFrame(frame);
+            });
+    private final PipelineStage<PipelineFrame> detectStage =
+            new PipelineStage<>("detect", this::detectFrame, this::recycleFrame);
+    private final PipelineStage<PipelineFrame> classifyStage =
+            new PipelineStage<>("classify", this::classifyFrame, this::recycleFrame);
+    private final PipelineStage<PipelineFrame> decideStage =
+            new PipelineStage<>("decide", this::decideFrame, this::recycleFrame);
     private Bitmap rgbFrameBitmap = null;
     private Bitmap croppedBitmap = null;
-    private Bitmap cropCopyBitmap = null;
     private Bitmap storageBitmap = null;
     private Uri storageUri = null;
-    private boolean computingDetection = false;
     private long timestamp = 0;
     private Matrix frameToCropTransform;
     private Matrix cropToFrameTransform;
@@ -115,11 +197,23 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
     private BorderedText borderedText;
     private float sensorValue;
 
+    @Override
+    protected void onCreate(final Bundle savedInstanceState) {
+        // Started before the camera is set up, so that the models are usually warmed up by the time
+        // it delivers its first frame. Not from the application: an FCM push starts the process too.
+        loadModels(this, useQuantizedDetector);
+        super.onCreate(savedInstanceState);
+    }
+
     @SuppressLint("HandlerLeak")
     @Override
     public synchronized void onResume() {
         LOGGER.d("onResume " + this);
         super.onResume();
+        convertStage.start();
+        detectStage.start();
+        classifyStage.start();
+        decideStage.start();
         handlerc = new Handler() {
             public void handleMessage(Message msg) {
                 super.handleMessage(msg);
@@ -151,6 +245,15 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
     @Override
     public synchronized void onPause() {
         LOGGER.d("onPause " + this);
+        // Upstream stages first, so that no frame is handed to a stage that is already stopped.
+        // Only the convert worker is waited for, as it reads the camera buffers and is quick; the
+        // others finish their current frame on their own threads, e.g. a decide worker recording
+        // audio, instead of holding up the UI thread.
+        convertStage.stop();
+        detectStage.stop();
+        classifyStage.stop();
+        decideStage.stop();
+        convertStage.awaitStopped();
         super.onPause();
         handlerc.removeMessages(0);
         noiseHandler.removeMessages(0);
@@ -166,41 +269,211 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
         tracker = new MultiBoxTracker(this);
 
-        int cropSize = TF_OD_API_INPUT_SIZE;
+        // Usually already loaded since onCreate; frames are dropped until the models are ready.
+        loadModels(this, useQuantizedDetector);
+
+        previewWidth = size.getWidth();
+        previewHeight = size.getHeight();
+
+        sensorOrientation = rotation - getScreenOrientation();
+        LOGGER.i("Camera orientation relative to screen canvas: %d", sensorOrientation);
+
+        LOGGER.i("Initializing at size %dx%d", previewWidth, previewHeight);
+        rgbFrameBitmap = Bitmap.createBitmap(previewWidth, previewHeight, Config.ARGB_8888);
+        setCropSize(TF_OD_API_INPUT_SIZE);
+
+        trackingOverlay = findViewById(R.id.tracking_overlay);
+        // A long press on the preview toggles the latency statistics.
+        trackingOverlay.setOnLongClickListener(view -> {
+            toggleDebug();
+            trackingOverlay.postInvalidate();
+            return true;
+        });
+        trackingOverlay.addCallback(
+                canvas -> {
+                    tracker.draw(canvas);
+                    if (isDebug()) {
+                        tracker.drawDebug(canvas);
+                        drawStats(canvas);
+                    }
+                });
+
+        tracker.setFrameConfiguration(previewWidth, previewHeight, sensorOrientation);
+    }
+
+    // Draws the latency statistics of the models in the bottom left corner of the overlay.
+    private void drawStats(final Canvas canvas) {
+        final Vector<String> lines = new Vector<>();
+        final TFLiteObjectDetectionAPIModel currentDetector = detector;
+        if (currentDetector != null) {
+            addStatLines(lines, currentDetector.getStatString());
+        }
+        final ExpressionClassifier currentClassifier = classifier;
+        if (currentClassifier != null) {
+            addStatLines(lines, currentClassifier.getStatString());
+        }
+        lines.add(motionGate.getStatString());
+        lines.add("Frame: " + previewWidth + "x" + previewHeight);
+        lines.add("Inference time: " + lastProcessingTimeMs + "ms");
+        lines.add(String.format(
+                "Dropped: convert %d, detect %d, classify %d, decide %d",
+                convertStage.getDroppedCount(),
+                detectStage.getDroppedCount(),
+                classifyStage.getDroppedCount(),
+                decideStage.getDroppedCount()));
+        borderedText.drawLines(canvas, 10, canvas.getHeight() - 10, lines);
+    }
+
+    private static void addStatLines(final Vector<String> lines, final String statString) {
+        if (!statString.isEmpty()) {
+            Collections.addAll(lines, statString.split("\n"));
+        }
+    }
 
+    private static String getDetectorModelFile(final boolean quantized) {
+        return quantized ? TF_OD_API_QUANTIZED_MODEL_FILE : TF_OD_API_MODEL_FILE;
+    }
+
+    /**
+     * Starts loading and warming up the face detector and the expression classifier in the
+     * background, unless they are already loaded. The models are kept in the ModelRegistry for the
+     * lifetime of the process.
+     *
+     * @param quantized Whether to load the quantized detector rather than the float one.
+     */
+    static void loadModels(final Context context, final boolean quantized) {
+        final Context appContext = context.getApplicationContext();
+        final ModelRegistry registry = ModelRegistry.getInstance();
+        // The thread count and delegate of each model are benchmarked on first launch.
+        final InterpreterTuner tuner = InterpreterTuner.create(appContext);
+        registry.load(
+                getDetectorModelFile(quantized),
+                () -> {
+                    final TFLiteObjectDetectionAPIModel model =
+                            TFLiteObjectDetectionAPIModel.createTuned(
+                                    appContext.getAssets(),
+                                    getDetectorModelFile(quantized),
+                                    TF_OD_API_LABELS_FILE,
+                                    TF_OD_API_INPUT_SIZE,
+                                    quantized,
+                                    tuner);
+                    model.setMinimumConfidence(MINIMUM_CONFIDENCE_TF_OD_API);
+                    model.warmUp();
+                    return model;
+                });
+        registry.load(
+                CLASSIFIER_MODEL,
+                () -> {
+                    final ExpressionClassifier model = createClassifier(appContext, tuner);
+                    model.warmUp();
+                    return model;
+                });
+    }
+
+    // Creates the expression classifier, a cascade when enabled and its small model is available.
+    private static ExpressionClassifier createClassifier(
+            final Context context, final InterpreterTuner tuner) throws IOException {
+        final Classifier2 full =
+                Classifier2.createTuned(context, Classifier2.Model.FLOAT_MOBILENET, tuner);
+        if (!USE_CLASSIFIER_CASCADE) {
+            return full;
+        }
+        final Classifier2 small;
         try {
-            detector =
-                    TFLiteObjectDetectionAPIModel.create(
-                            getAssets(),
-                            TF_OD_API_MODEL_FILE,
-                            TF_OD_API_LABELS_FILE,
-                            TF_OD_API_INPUT_SIZE,
-                            TF_OD_API_IS_QUANTIZED);
-            cropSize = TF_OD_API_INPUT_SIZE;
+            small = Classifier2.createTuned(context, Classifier2.Model.QUANTIZED_MOBILENET, tuner);
         } catch (final IOException e) {
-            e.printStackTrace();
-            LOGGER.e(e, "Exception initializing classifier!");
-            Toast toast =
+            LOGGER.w(e, "Small expression model unavailable, classifying with the full model only.");
+            return full;
+        }
+        return new ClassifierCascade(small, full, CLASSIFIER_CASCADE_MARGIN);
+    }
+
+    // Takes the requested detector from the registry once it is loaded. Returns whether it is.
+    private boolean takeDetectorIfReady() {
+        final TFLiteObjectDetectionAPIModel readyDetector;
+        try {
+            readyDetector =
+                    ModelRegistry.getInstance().getIfReady(getDetectorModelFile(useQuantizedDetector));
+        } catch (final IllegalStateException e) {
+            if (detectorSwitchPending) {
+                // A failed switch falls back to the previous detector rather than stop monitoring.
+                LOGGER.e(e, "Exception initializing the %s detector, keeping the %s one",
+                        useQuantizedDetector ? "quantized" : "float", detectorQuantized ? "quantized" : "float");
+                final boolean quantized = detectorQuantized;
+                useQuantizedDetector = quantized;
+                detectorSwitchPending = false;
+                runOnUiThread(() -> {
+                    cb_quantized.setChecked(quantized);
                     Toast.makeText(
-                            getApplicationContext(), "Classifier could not be initialized", Toast.LENGTH_SHORT);
-            toast.show();
-            finish();
+                            getApplicationContext(), R.string.tfe_od_detector_switch_error, Toast.LENGTH_SHORT)
+                            .show();
+                });
+                return false;
+            }
+            if (!detectorFailed) {
+                detectorFailed = true;
+                LOGGER.e(e, "Exception initializing detector!");
+                runOnUiThread(() -> {
+                    Toast toast =
+                            Toast.makeText(
+                                    getApplicationContext(), "Detector could not be initialized", Toast.LENGTH_SHORT);
+                    toast.show();
+                    finish();
+                });
+            }
+            return false;
         }
+        if (readyDetector == null) {
+            return false;
+        }
+        detector = readyDetector;
+        detectorQuantized = useQuantizedDetector;
+        // The detector outlives activities; start over at full resolution.
+        detector.setInputSize(TF_OD_API_INPUT_SIZE);
+        detections = new DetectionResult(detector.getMaxDetections());
+        inputSizeController = new InputSizeController(TF_OD_API_INPUT_SIZES);
+        setCropSize(TF_OD_API_INPUT_SIZE);
+        LOGGER.i("Using the %s detector", useQuantizedDetector ? "quantized" : "float");
+        return true;
+    }
 
-        recreateClassifier();
-        if (classifier == null) {
-            LOGGER.e("No classifier on preview!");
+    // Takes the classifier from the registry once it is loaded.
+    private void takeClassifierIfReady() {
+        if (classifier != null || classifierFailed) {
             return;
         }
+        try {
+            classifier = ModelRegistry.getInstance().getIfReady(CLASSIFIER_MODEL);
+        } catch (final IllegalStateException e) {
+            classifierFailed = true;
+            LOGGER.e(e, "Failed to create classifier.");
+        }
+    }
 
-        previewWidth = size.getWidth();
-        previewHeight = size.getHeight();
+    /**
+     * Switches between the float and the uint8 quantized face detector, see the checkbox in the
+     * bottom sheet. The switch takes effect between two frames on the detect stage, once the
+     * requested detector is loaded.
+     */
+    @Override
+    public void setUseQuantizedDetector(final boolean quantized) {
+        if (quantized != useQuantizedDetector) {
+            useQuantizedDetector = quantized;
+            detectorSwitchPending = true;
+            loadModels(this, quantized);
+        }
+    }
 
-        sensorOrientation = rotation - getScreenOrientation();
-        LOGGER.i("Camera orientation relative to screen canvas: %d", sensorOrientation);
+    // Replaces the detector if a switch was requested and the new one is loaded. Runs on the
+    // detect stage between two frames, like adaptInputSize().
+    private void switchDetectorIfPending() {
+        if (detectorSwitchPending && takeDetectorIfReady()) {
+            detectorSwitchPending = false;
+        }
+    }
 
-        LOGGER.i("Initializing at size %dx%d", previewWidth, previewHeight);
-        rgbFrameBitmap = Bitmap.createBitmap(previewWidth, previewHeight, Config.ARGB_8888);
+    // Sets up the crop bitmap and the transforms between the preview frame and the detector input.
+    private void setCropSize(final int cropSize) {
         croppedBitmap = Bitmap.createBitmap(cropSize, cropSize, Config.ARGB_8888);
 
         frameToCropTransform =
@@ -211,154 +484,393 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
         cropToFrameTransform = new Matrix();
         frameToCropTransform.invert(cropToFrameTransform);
+    }
 
-        trackingOverlay = findViewById(R.id.tracking_overlay);
-        trackingOverlay.addCallback(
-                canvas -> {
-                    tracker.draw(canvas);
-                    if (isDebug()) {
-                        tracker.drawDebug(canvas);
-                    }
-                });
+    // Returns the expression smoother of the face track with the given id, creating it on first use.
+    private ExpressionSmoother getFaceSmoother(final int id) {
+        ExpressionSmoother smoother = faceSmoothers.get(id);
+        if (smoother == null) {
+            smoother = new ExpressionSmoother(classifier.getLabels());
+            faceSmoothers.put(id, smoother);
+        }
+        return smoother;
+    }
 
-        tracker.setFrameConfiguration(previewWidth, previewHeight, sensorOrientation);
+    // Drops the smoothers of the face tracks that died.
+    private void removeDeadSmoothers(final PipelineFrame frame) {
+        final Iterator<Integer> ids = faceSmoothers.keySet().iterator();
+        while (ids.hasNext()) {
+            final int id = ids.next();
+            boolean alive = false;
+            for (int i = 0; i < frame.trackCount && !alive; ++i) {
+                alive = frame.trackIds[i] == id;
+            }
+            if (!alive) {
+                ids.remove();
+            }
+        }
+    }
+
+    // Lets the controller pick the detector input size for the next frames based on this one.
+    // Runs on the detect stage between two frames, so detectFrame() never sees half-updated
+    // transforms.
+    private void adaptInputSize() {
+        if (inputSizeController == null) {
+            return;
+        }
+        float score = 0;
+        float faceSide = 0;
+        if (detections.getCount() > 0) {
+            // Detections are sorted, the first one is the best.
+            score = detections.getScore(0);
+            faceSide = Math.min(
+                    detections.getRight(0) - detections.getLeft(0),
+                    detections.getBottom(0) - detections.getTop(0));
+        }
+        if (!inputSizeController.update(score, faceSide)) {
+            return;
+        }
+        final int inputSize = inputSizeController.getInputSize();
+        if (detector.setInputSize(inputSize)) {
+            setCropSize(inputSize);
+        } else {
+            // The model cannot be resized; keep it at its current size for good.
+            inputSizeController = null;
+        }
     }
 
     @Override
     protected void processImage() {
         ++timestamp;
-        final long currTimestamp = timestamp;
         trackingOverlay.postInvalidate();
 
-        // No mutex needed as this method is not reentrant.
-        if (computingDetection) {
+        final PipelineFrame frame = obtainFrame();
+        frame.timestamp = timestamp;
+        frame.startTime = SystemClock.uptimeMillis();
+        // Everything else happens on the stage workers, so the camera callback returns right away.
+        convertStage.offer(frame);
+    }
+
+    // Copies the camera frame out of the camera buffers and hands them back to the camera.
+    private void convertFrame(final PipelineFrame frame) {
+        Trace.beginSection("convertFrame");
+        try {
+            final int size = ImageUtils.getYUVByteSize(previewWidth, previewHeight);
+            if (frame.data == null || frame.data.length != size) {
+                frame.data = new byte[size];
+            }
+            getYuvFrame().copyToYUV420SP(frame.data);
+        } finally {
             readyForNextImage();
-            return;
+            Trace.endSection();
         }
-        computingDetection = true;
-        LOGGER.i("Preparing image " + currTimestamp + " for detection in bg thread.");
-
-        rgbFrameBitmap.setPixels(getRgbBytes(), 0, previewWidth, 0, 0, previewWidth, previewHeight);
+        frame.yuv.setYUV420SP(frame.data, previewWidth, previewHeight);
+        if (RECORD_FRAMES) {
+            ImageUtils.appendToFile(frame.data, RECORDED_FRAMES_FILE);
+        }
+        detectStage.offer(frame);
+    }
 
-        readyForNextImage();
+    // Detects or tracks the faces of a frame. Owns the detector, the input size, the crop transforms
+    // and the optical flow.
+    private void detectFrame(final PipelineFrame frame) {
+        if (detector == null && !takeDetectorIfReady()) {
+            recycleFrame(frame);
+            return;
+        }
+        // A frame that barely differs from the last processed one is not worth running the models on.
+        // It ends here: the overlay and bottom sheet keep the last results, and the alert counters
+        // only count processed frames, so they advance at the inference rate, not the camera rate.
+        if (!motionGate.update(
+                frame.yuv.getYBuffer(), previewWidth, previewHeight, frame.yuv.getYRowStride(), frame.startTime)) {
+            LOGGER.v("No motion in image %d, keeping the last results", frame.timestamp);
+            recycleFrame(frame);
+            return;
+        }
+        final byte[] flowImage = frame.yuv.getDownscaledGrayscale();
+        final int flowWidth = frame.yuv.getDownscaledWidth();
+        final int flowHeight = frame.yuv.getDownscaledHeight();
+        final float flowToFrameScale = (float) previewWidth / flowWidth;
+        if (framesSinceDetection < DETECTION_INTERVAL - 1
+                && flowTracker.getCount() > 0
+                && flowTracker.track(flowImage, flowWidth, flowHeight)) {
+            ++framesSinceDetection;
+            LOGGER.v("Tracked faces into image %d", frame.timestamp);
+            trackFaces(frame, flowToFrameScale);
+            switchDetectorIfPending();
+            classifyStage.offer(frame);
+            return;
+        }
+        LOGGER.i("Running detection on image " + frame.timestamp);
 
-        final Canvas canvas = new Canvas(croppedBitmap);
-        canvas.drawBitmap(rgbFrameBitmap, frameToCropTransform, null);
+        // The detector input is sampled straight from the YUV planes; ARGB conversion is only
+        // paid for in the decide stage when a crying face was found.
+        detector.sampleFrame(frame.yuv, cropToFrameTransform);
         // For examining the actual TF input.
         if (SAVE_PREVIEW_BITMAP) {
+            rgbFrameBitmap.setPixels(frame.yuv.getArgb(), 0, previewWidth, 0, 0, previewWidth, previewHeight);
+            final Canvas canvas = new Canvas(croppedBitmap);
+            canvas.drawBitmap(rgbFrameBitmap, frameToCropTransform, null);
             ImageUtils.saveBitmap(croppedBitmap);
         }
+        // Every distinct face above MINIMUM_CONFIDENCE_TF_OD_API, best first.
+        detector.recognizeSampledFrame(detections);
 
-        runInBackground(() -> {
-            LOGGER.i("Running detection on image " + currTimestamp);
-            final long startTime = SystemClock.uptimeMillis();
-            final Classifier.Recognition result = detector.recognizeImage(croppedBitmap);
-
-            cropCopyBitmap = Bitmap.createBitmap(croppedBitmap);
-            final Canvas canvas1 = new Canvas(cropCopyBitmap);
-            final Paint paint = new Paint();
-            paint.setColor(Color.RED);
-            paint.setStyle(Style.STROKE);
-            paint.setStrokeWidth(2.0f);
-
-            float minimumConfidence = MINIMUM_CONFIDENCE_TF_OD_API;
-
-            final List<Classifier.Recognition> mappedRecognitions =
-                    new LinkedList<>();
-
-            final RectF location = result.getLocation();
-            if (location != null && result.getConfidence() >= minimumConfidence) {
-                canvas1.drawRect(location, paint);
-
-                cropToFrameTransform.mapRect(location);
-
-                result.setLocation(location);
-                mappedRecognitions.add(result);
-                float left = result.getLocation().left;
-                float top = result.getLocation().top;
-                float right = result.getLocation().right;
-                float bottom = result.getLocation().bottom;
-                try {
-                    Bitmap.createBitmap(rgbFrameBitmap, (int) left, (int) top, (int) (right - left), (int) (bottom - top));
-                } catch (IllegalArgumentException e) {
-                    e.printStackTrace();
-                    LOGGER.e(e, "IllegalArgumentException");
-                }
+        final List<Classifier.Recognition> mappedRecognitions =
+                new LinkedList<>();
+        frame.clearFaces();
+
+        for (int i = 0; i < detections.getCount(); ++i) {
+            final RectF location = new RectF();
+            detections.getLocation(i, location);
+            cropToFrameTransform.mapRect(location);
+            frame.addFace(location);
+
+            mappedRecognitions.add(
+                    new Classifier.Recognition(
+                            "" + i,
+                            detector.getLabel(detections.getClassIndex(i)),
+                            detections.getScore(i),
+                            location));
+        }
+
+        identifyFaces(frame, mappedRecognitions);
+
+        // The optical flow takes over from these faces until the next detector run.
+        lastDetections.clear();
+        lastDetections.addAll(mappedRecognitions);
+        final int faceCount = frame.faceLocations.size();
+        if (flowBoxes.length < 4 * faceCount) {
+            flowBoxes = new float[4 * faceCount];
+        }
+        for (int i = 0; i < faceCount; ++i) {
+            final RectF location = frame.faceLocations.get(i);
+            flowBoxes[4 * i] = location.left / flowToFrameScale;
+            flowBoxes[4 * i + 1] = location.top / flowToFrameScale;
+            flowBoxes[4 * i + 2] = location.right / flowToFrameScale;
+            flowBoxes[4 * i + 3] = location.bottom / flowToFrameScale;
+        }
+        flowTracker.reset(flowImage, flowWidth, flowHeight, flowBoxes, faceCount);
+        framesSinceDetection = 0;
+
+        adaptInputSize();
+        switchDetectorIfPending();
+        classifyStage.offer(frame);
+    }
+
+    // Fills the faces of a frame from the optical flow tracker, keeping the labels and scores of the
+    // last detection.
+    private void trackFaces(final PipelineFrame frame, final float flowToFrameScale) {
+        final List<Classifier.Recognition> mappedRecognitions =
+                new LinkedList<>();
+        frame.clearFaces();
+        final float[] flowLocation = new float[4];
+        for (int i = 0; i < flowTracker.getCount(); ++i) {
+            flowTracker.getLocation(i, flowLocation);
+            final RectF location =
+                    new RectF(
+                            flowLocation[0] * flowToFrameScale,
+                            flowLocation[1] * flowToFrameScale,
+                            flowLocation[2] * flowToFrameScale,
+                            flowLocation[3] * flowToFrameScale);
+            frame.addFace(location);
+
+            final Classifier.Recognition detection = lastDetections.get(i);
+            mappedRecognitions.add(
+                    new Classifier.Recognition(
+                            detection.getId(),
+                            detection.getTitle(),
+                            detection.getConfidence(),
+                            location));
+        }
+
+        identifyFaces(frame, mappedRecognitions);
+    }
+
+    // Gives the faces of a frame the ids of their tracks, and shows the confirmed tracks with their
+    // filtered boxes.
+    private void identifyFaces(
+            final PipelineFrame frame, final List<Classifier.Recognition> recognitions) {
+        final int faceCount = frame.faceLocations.size();
+        if (faceBoxes.length < 4 * faceCount) {
+            faceBoxes = new float[4 * faceCount];
+        }
+        for (int i = 0; i < faceCount; ++i) {
+            final RectF location = frame.faceLocations.get(i);
+            faceBoxes[4 * i] = location.left;
+            faceBoxes[4 * i + 1] = location.top;
+            faceBoxes[4 * i + 2] = location.right;
+            faceBoxes[4 * i + 3] = location.bottom;
+        }
+        sortTracker.update(faceBoxes, faceCount);
+
+        final List<Classifier.Recognition> confirmedRecognitions =
+                new LinkedList<>();
+        for (int i = 0; i < faceCount; ++i) {
+            frame.faceIds[i] = sortTracker.getId(i);
+            if (sortTracker.isConfirmed(i)) {
+                sortTracker.getLocation(i, trackedBox);
+                final Classifier.Recognition recognition = recognitions.get(i);
+                confirmedRecognitions.add(
+                        new Classifier.Recognition(
+                                "" + frame.faceIds[i],
+                                recognition.getTitle(),
+                                recognition.getConfidence(),
+                                new RectF(trackedBox[0], trackedBox[1], trackedBox[2], trackedBox[3])));
             }
+        }
+        frame.setTrackIds(sortTracker);
 
-            tracker.trackResults(mappedRecognitions, currTimestamp);
-            trackingOverlay.postInvalidate();
+        tracker.trackResults(confirmedRecognitions, frame.timestamp);
+        trackingOverlay.postInvalidate();
+    }
+
+    // Classifies the expressions of the faces of a frame. Owns the classifier and the smoothers.
+    private void classifyFrame(final PipelineFrame frame) {
+        takeClassifierIfReady();
+        final int faceCount = frame.faceLocations.size();
+        frame.results = null;
+        frame.crying = false;
+        if (classifier == null) {
+            faceSmoothers.clear();
+        } else {
+            removeDeadSmoothers(frame);
+        }
+        if (faceCount == 0 || classifier == null) {
+            decideStage.offer(frame);
+            return;
+        }
+
+        // Smoothers follow the face tracks, so every face that keeps still with a steady expression
+        // reuses its last result, even while other faces are classified.
+        int classifyCount = 0;
+        for (int i = 0; i < faceCount; ++i) {
+            final ExpressionSmoother smoother = getFaceSmoother(frame.faceIds[i]);
+            final RectF location = frame.faceLocations.get(i);
+            if (smoother.canSkip(location.left, location.top, location.right, location.bottom)) {
+                smoother.skip();
+                continue;
+            }
+            if (classifyFaces.length <= classifyCount) {
+                classifyFaces = Arrays.copyOf(classifyFaces, classifyCount + 1);
+                classifyRegions = Arrays.copyOf(classifyRegions, 3 * (classifyCount + 1));
+            }
+            classifyFaces[classifyCount] = i;
+            System.arraycopy(frame.faceRegions, 3 * i, classifyRegions, 3 * classifyCount, 3);
+            ++classifyCount;
+        }
+        if (classifyCount == 0) {
+            LOGGER.v("Expressions stable, skipping classification");
+        } else {
+            // The classifier works on grayscale input, so feed it the padded squares around the
+            // faces straight from the luminance plane, all faces in as few inferences as possible.
+            final List<List<Classifier2.Recognition>> faceRecognitions =
+                    classifier.recognizeLuminance(
+                            frame.yuv.getYBuffer(),
+                            previewWidth,
+                            previewHeight,
+                            frame.yuv.getYRowStride(),
+                            classifyRegions,
+                            classifyCount,
+                            sensorOrientation);
+            for (int j = 0; j < classifyCount; ++j) {
+                final int i = classifyFaces[j];
+                LOGGER.v("Detect: %s", faceRecognitions.get(j));
+                final RectF location = frame.faceLocations.get(i);
+                getFaceSmoother(frame.faceIds[i]).update(
+                        faceRecognitions.get(j), location.left, location.top, location.right, location.bottom);
+            }
+        }
 
-            computingDetection = false;
+        // Decisions use the smoothed expressions: the best face is shown, any crying face counts.
+        for (int i = 0; i < faceCount; ++i) {
+            frame.crying |= getFaceSmoother(frame.faceIds[i]).getRecognitions().get(0).getTitle().contains("Cry");
+        }
+        // The smoothers refill their recognitions on the next frame, before the UI shows these.
+        final List<Classifier2.Recognition> recognitions = getFaceSmoother(frame.faceIds[0]).getRecognitions();
+        frame.results = new ArrayList<>(recognitions.size());
+        for (final Classifier2.Recognition recognition : recognitions) {
+            frame.results.add(recognition.copy());
+        }
+        decideStage.offer(frame);
+    }
 
-            if (location != null && result.getConfidence() >= minimumConfidence && classifier != null) {
+    // Updates the counters, alerts and UI from the results of a frame. Owns the counters and
+    // records audio, which blocks, without holding up the models.
+    private void decideFrame(final PipelineFrame frame) {
+        final List<Classifier2.Recognition> results = frame.results;
+        if (results != null) {
+            not_count = 0;
+            if (frame.crying) {
+                // Only frames that may end up uploaded by stoImage() need an ARGB copy.
+                rgbFrameBitmap.setPixels(frame.yuv.getArgb(), 0, previewWidth, 0, 0, previewWidth, previewHeight);
                 storageBitmap = rgbFrameBitmap;
-                Canvas canvas2 = new Canvas(rgbFrameBitmap);
-                Paint paint2 = new Paint();
-                ColorMatrix colorMatrix = new ColorMatrix();
-                colorMatrix.setSaturation(0);
-                ColorMatrixColorFilter colorMatrixFilter = new ColorMatrixColorFilter(colorMatrix);
-                paint2.setColorFilter(colorMatrixFilter);
-                canvas2.drawBitmap(rgbFrameBitmap, 0, 0, paint2);
-                rgbFrameBitmap.setPixels(getRgbBytes(), 0, previewWidth, 0, 0, 224, 224);
-                final List<Classifier2.Recognition> results =
-                        classifier.recognizeImage(rgbFrameBitmap, sensorOrientation);
-                LOGGER.v("Detect: %s", results);
-
-                not_count = 0;
-                if (results.get(0).toString().contains("Cry")) {
-                    crying_count++;
-                    total_count++;
-                } else {
-                    total_count++;
-                }
+                crying_count++;
+                total_count++;
+            } else {
+                total_count++;
+            }
 
-                lastProcessingTimeMs = SystemClock.uptimeMillis() - startTime;
-                LOGGER.d("Processing Time : " + lastProcessingTimeMs);
-
-                if (noise) {
-                    double db = getNoiseLevel();
-                    runOnUiThread(() -> {
-                        showResultsInBottomSheet(results);
-                        showInference(lastProcessingTimeMs + "ms");
-                        showDB((int) db + "dB");
-                    });
-                    if (db >= MINIMUM_DB) {
-                        LOGGER.d("Noise >= " + MINIMUM_DB + "dB");
-                        pushAll("BFER", "Noise appeared!!");
-                    }
-                } else {
-                    runOnUiThread(() -> {
-                        showResultsInBottomSheet(results);
-                        showInference(lastProcessingTimeMs + "ms");
-                        showDB("-dB");
-                    });
+            lastProcessingTimeMs = SystemClock.uptimeMillis() - frame.startTime;
+            LOGGER.d("Processing Time : " + lastProcessingTimeMs);
+
+            if (noise) {
+                double db = getNoiseLevel();
+                runOnUiThread(() -> {
+                    showResultsInBottomSheet(results);
+                    showInference(lastProcessingTimeMs + "ms");
+                    showDB((int) db + "dB");
+                });
+                if (db >= MINIMUM_DB) {
+                    LOGGER.d("Noise >= " + MINIMUM_DB + "dB");
+                    pushAll("BFER", "Noise appeared!!");
                 }
-            } else {// 디텍팅이 안됐을 경우
-                storageUri = null;
-                LOGGER.d("Can't Detecting face, Sensor value : " + sensorValue);
-                if (sensorValue <= MINIMUM_LIGHT_SENSOR_VALUE) {
-                    double db = getNoiseLevel();
-                    runOnUiThread(() -> {
-                        showInference("-ms");
-                        showDB((int) db + "dB");
-                    });
-                    // MINIMUM_DB 데시벨 보다 높은 값이 측정 됐을 때
-                    if (db >= MINIMUM_DB) {
-                        LOGGER.d("Noise >= " + MINIMUM_DB + "dB");
-                        pushAll("BFER", "Noise appeared!!");
-                    }
-                } else {
-                    // 뒷통수 및 얼굴감지 안된 거 푸쉬
-                    not_count++;
-                    LOGGER.d("Not Count : " + not_count);
-                    if (not_count > 10) {
-                        pushAll("BFER", "Can't find face");
-                        not_count = 0;
-                    }
+            } else {
+                runOnUiThread(() -> {
+                    showResultsInBottomSheet(results);
+                    showInference(lastProcessingTimeMs + "ms");
+                    showDB("-dB");
+                });
+            }
+        } else {// 디텍팅이 안됐을 경우
+            storageUri = null;
+            LOGGER.d("Can't Detecting face, Sensor value : " + sensorValue);
+            if (sensorValue <= MINIMUM_LIGHT_SENSOR_VALUE) {
+                double db = getNoiseLevel();
+                runOnUiThread(() -> {
+                    showInference("-ms");
+                    showDB((int) db + "dB");
+                });
+                // MINIMUM_DB 데시벨 보다 높은 값이 측정 됐을 때
+                if (db >= MINIMUM_DB) {
+                    LOGGER.d("Noise >= " + MINIMUM_DB + "dB");
+                    pushAll("BFER", "Noise appeared!!");
+                }
+            } else {
+                // 뒷통수 및 얼굴감지 안된 거 푸쉬
+                not_count++;
+                LOGGER.d("Not Count : " + not_count);
+                if (not_count > 10) {
+                    pushAll("BFER", "Can't find face");
+                    not_count = 0;
                 }
             }
-        });
+        }
+        recycleFrame(frame);
+    }
+
+    private PipelineFrame obtainFrame() {
+        final PipelineFrame frame;
+        synchronized (framePool) {
+            frame = framePool.poll();
+        }
+        return frame != null ? frame : new PipelineFrame(newYuvFrame());
+    }
+
+    private void recycleFrame(final PipelineFrame frame) {
+        synchronized (framePool) {
+            framePool.push(frame);
+        }
     }
 
     protected void stoImage() {
@@ -481,19 +993,6 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
         return DESIRED_PREVIEW_SIZE;
     }
 
-    private void recreateClassifier() {
-        if (classifier != null) {
-            LOGGER.d("Closing classifier.");
-            classifier.close();
-            classifier = null;
-        }
-        try {
-            classifier = Classifier2.create(this, Classifier2.Model.FLOAT_MOBILENET, Classifier2.Device.GPU, 1);
-        } catch (IOException e) {
-            LOGGER.e(e, "Failed to create classifier.");
-        }
-    }
-
     @Override
     public void onSensorChanged(SensorEvent event) {
         if (event.sensor.getType() == Sensor.TYPE_LIGHT) {
@@ -506,4 +1005,55 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
     public void onAccuracyChanged(Sensor sensor, int accuracy) {
 
     }
+
+    // A camera frame on its way through the stages, with what each stage found out about it.
+    private static class PipelineFrame {
+        final YuvFrame yuv;
+        // Box of every face in frame coordinates, best first.
+        final List<RectF> faceLocations = new ArrayList<>();
+        byte[] data;
+        long timestamp;
+        long startTime;
+        // Left, top and side of the padded square around every face, best first.
+        int[] faceRegions = new int[0];
+        // Track id of every face, best first, and the ids of all live tracks.
+        int[] faceIds = new int[0];
+        int[] trackIds = new int[0];
+        int trackCount;
+        // Smoothed expressions of the best face, null when no face was classified.
+        List<Classifier2.Recognition> results;
+        boolean crying;
+
+        PipelineFrame(final YuvFrame yuv) {
+            this.yuv = yuv;
+        }
+
+        void clearFaces() {
+            faceLocations.clear();
+        }
+
+        // Adds a face box, in frame coordinates, along with the padded square around it.
+        void addFace(final RectF location) {
+            final int i = faceLocations.size();
+            faceLocations.add(location);
+            if (faceRegions.length < 3 * (i + 1)) {
+                faceRegions = Arrays.copyOf(faceRegions, 3 * (i + 1));
+                faceIds = Arrays.copyOf(faceIds, i + 1);
+            }
+            final float side = Math.max(location.width(), location.height()) * (1 + 2 * FACE_CROP_PADDING);
+            faceRegions[3 * i] = Math.round(location.centerX() - side / 2);
+            faceRegions[3 * i + 1] = Math.round(location.centerY() - side / 2);
+            faceRegions[3 * i + 2] = Math.max(1, Math.round(side));
+        }
+
+        void setTrackIds(final SortTracker sortTracker) {
+            trackCount = sortTracker.getTrackCount();
+            if (trackIds.length < trackCount) {
+                trackIds = new int[trackCount];
+            }
+            for (int i = 0; i < trackCount; ++i) {
+                trackIds[i] = sortTracker.getTrackId(i);
+            }
+        }
+    }
 }
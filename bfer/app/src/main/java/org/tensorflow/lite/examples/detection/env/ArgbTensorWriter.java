@@ -0,0 +1,139 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Writes ARGB_8888 pixels to a model input buffer as RGB, either normalized to floats or as
+ * uint8. A channel only has 256 possible values, so normalization is a table lookup. The values
+ * are staged in an array and copied to the buffer with a single bulk put, instead of one
+ * bounds-checked put per channel.
+ *
+ * <p>The other input writers of this package stage their values here as well, so that the
+ * normalization and the buffer handling live in one place.
+ */
+public class ArgbTensorWriter {
+    private final boolean quantized;
+
+    // Normalized value of each 8 bit channel value, for float models.
+    private final float[] normalizationTable = new float[256];
+
+    private final float[] floatValues;
+    private final byte[] byteValues;
+
+    private ByteBuffer floatOutput;
+    private FloatBuffer floatOutputView;
+
+    /**
+     * @param numPixels Number of pixels written per call.
+     * @param quantized Whether to write uint8 values instead of normalized floats.
+     * @param mean      Subtracted from each channel value of float models.
+     * @param std       Divides each channel value of float models.
+     */
+    public ArgbTensorWriter(
+            final int numPixels, final boolean quantized, final float mean, final float std) {
+        this.quantized = quantized;
+        for (int i = 0; i < 256; ++i) {
+            normalizationTable[i] = (i - mean) / std;
+        }
+        floatValues = quantized ? null : new float[numPixels * 3];
+        byteValues = quantized ? new byte[numPixels * 3] : null;
+    }
+
+    /**
+     * Writes {@code pixels} to {@code out}, which must be a direct buffer in native byte order with
+     * room for numPixels * 3 values. The buffer is rewound afterwards.
+     */
+    public void write(final int[] pixels, final ByteBuffer out) {
+        write(pixels, null, out);
+    }
+
+    /**
+     * Writes {@code pixels[index[k]]} as pixel k, or {@code pixels[k]} when {@code index} is null.
+     *
+     * @see #write(int[], ByteBuffer)
+     */
+    void write(final int[] pixels, final int[] index, final ByteBuffer out) {
+        if (quantized) {
+            final byte[] values = byteValues;
+            for (int k = 0, p = 0; p < values.length; ++k) {
+                final int pixel = pixels[index != null ? index[k] : k];
+                values[p++] = (byte) (pixel >> 16);
+                values[p++] = (byte) (pixel >> 8);
+                values[p++] = (byte) pixel;
+            }
+        } else {
+            final float[] table = normalizationTable;
+            final float[] values = floatValues;
+            for (int k = 0, p = 0; p < values.length; ++k) {
+                final int pixel = pixels[index != null ? index[k] : k];
+                values[p++] = table[(pixel >> 16) & 0xff];
+                values[p++] = table[(pixel >> 8) & 0xff];
+                values[p++] = table[pixel & 0xff];
+            }
+        }
+        put(out);
+    }
+
+    boolean isQuantized() {
+        return quantized;
+    }
+
+    /**
+     * Returns the normalized value of each 8 bit channel value, for float models.
+     */
+    float[] getNormalizationTable() {
+        return normalizationTable;
+    }
+
+    /**
+     * Returns the staged values of a float model, numPixels * 3 of them, to fill before
+     * {@link #put}.
+     */
+    float[] getFloatValues() {
+        return floatValues;
+    }
+
+    /**
+     * Returns the staged values of a quantized model, numPixels * 3 of them, to fill before
+     * {@link #put}.
+     */
+    byte[] getByteValues() {
+        return byteValues;
+    }
+
+    /**
+     * Copies the staged values to {@code out} with a single bulk put and rewinds it.
+     */
+    void put(final ByteBuffer out) {
+        if (quantized) {
+            out.rewind();
+            out.put(byteValues);
+            out.rewind();
+            return;
+        }
+        if (out != floatOutput) {
+            out.rewind();
+            floatOutput = out;
+            floatOutputView = out.asFloatBuffer();
+        }
+        floatOutputView.rewind();
+        floatOutputView.put(floatValues);
+        out.rewind();
+    }
+}
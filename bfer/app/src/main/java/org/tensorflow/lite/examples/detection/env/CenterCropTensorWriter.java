@@ -0,0 +1,318 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes the center square of an image into a model input in a single pass: the square is resized
+ * with nearest neighbour sampling, rotated by quarter turns, normalized and written as RGB. This
+ * fuses the ResizeWithCropOrPadOp, ResizeOp, Rot90Op and NormalizeOp chain of the support library,
+ * which allocates a Bitmap or buffer per op and frame, into one table lookup per input value.
+ *
+ * <p>Each source layout (size, row stride and rotation) is compiled once into the source offset of
+ * every input pixel. The last few layouts are cached, so switching between cameras or orientations
+ * does not recompile them.
+ *
+ * <p>Any other square region, e.g. around a detected face, can be written as well. Regions move
+ * from frame to frame, so instead of a compiled layout they use per-row and per-column offsets,
+ * computed for each call into reused arrays.
+ */
+public class CenterCropTensorWriter {
+    private static final int MAX_CACHED_LAYOUTS = 4;
+
+    private final int outputWidth;
+    private final int outputHeight;
+    // Normalizes, stages and puts the values.
+    private final ArgbTensorWriter writer;
+
+    // Source offset of every input pixel, by layout.
+    private final Map<Long, int[]> layouts =
+            new LinkedHashMap<Long, int[]>(MAX_CACHED_LAYOUTS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<Long, int[]> eldest) {
+                    return size() > MAX_CACHED_LAYOUTS;
+                }
+            };
+    // The layout of the previous call, looked up without touching the map.
+    private long lastKey = -1;
+    private int[] lastIndex;
+
+    // Source offsets of a region, by output row and by output column; see writeLuminanceRegion.
+    private final int[] rowOffsets;
+    private final int[] columnOffsets;
+    // Source offsets of the resized region before rotation, by row and by column.
+    private final int[] resizedRowOffsets;
+    private final int[] resizedColumnOffsets;
+
+    /**
+     * @param outputWidth  Width of the model input.
+     * @param outputHeight Height of the model input.
+     * @param quantized    Whether to write uint8 values instead of normalized floats.
+     * @param mean         Subtracted from each channel value of float models.
+     * @param std          Divides each channel value of float models.
+     */
+    public CenterCropTensorWriter(
+            final int outputWidth,
+            final int outputHeight,
+            final boolean quantized,
+            final float mean,
+            final float std) {
+        this.outputWidth = outputWidth;
+        this.outputHeight = outputHeight;
+        writer = new ArgbTensorWriter(outputWidth * outputHeight, quantized, mean, std);
+        final int maxSide = Math.max(outputWidth, outputHeight);
+        rowOffsets = new int[outputHeight];
+        columnOffsets = new int[outputWidth];
+        resizedRowOffsets = new int[maxSide];
+        resizedColumnOffsets = new int[maxSide];
+    }
+
+    /**
+     * Writes ARGB_8888 pixels, e.g. from Bitmap.getPixels(), to {@code out}.
+     *
+     * @param pixels    The image, row by row.
+     * @param width     Image width in pixels.
+     * @param height    Image height in pixels.
+     * @param rowStride Distance in pixels between the starts of two rows.
+     * @param rotation  Counter-clockwise rotation to apply, a multiple of 90 degrees.
+     * @param out       A direct buffer in native byte order with room for the input; it is
+     *                  rewound afterwards.
+     */
+    public void writeArgb(
+            final int[] pixels,
+            final int width,
+            final int height,
+            final int rowStride,
+            final int rotation,
+            final ByteBuffer out) {
+        writer.write(pixels, getIndex(width, height, rowStride, rotation), out);
+    }
+
+    /**
+     * Writes a luminance plane to {@code out}, replicating each sample into the three channels.
+     *
+     * @param plane     One byte per pixel, read with absolute gets.
+     * @param rowStride Distance in bytes between the starts of two rows.
+     * @see #writeArgb
+     */
+    public void writeLuminance(
+            final ByteBuffer plane,
+            final int width,
+            final int height,
+            final int rowStride,
+            final int rotation,
+            final ByteBuffer out) {
+        final int[] index = getIndex(width, height, rowStride, rotation);
+        if (writer.isQuantized()) {
+            final byte[] values = writer.getByteValues();
+            for (int k = 0, p = 0; p < values.length; ++k) {
+                final byte value = plane.get(index[k]);
+                values[p++] = value;
+                values[p++] = value;
+                values[p++] = value;
+            }
+        } else {
+            final float[] table = writer.getNormalizationTable();
+            final float[] values = writer.getFloatValues();
+            for (int k = 0, p = 0; p < values.length; ++k) {
+                final float value = table[0xff & plane.get(index[k])];
+                values[p++] = value;
+                values[p++] = value;
+                values[p++] = value;
+            }
+        }
+        writer.put(out);
+    }
+
+    /**
+     * Writes a square region of a luminance plane to {@code out}, resized straight to the input size
+     * and rotated like {@link #writeLuminance}. Parts of the region outside the plane repeat its edge
+     * pixels, so a region can be padded past the frame border.
+     *
+     * @param left Left edge of the region in pixels, may be negative.
+     * @param top  Top edge of the region in pixels, may be negative.
+     * @param size Side of the region in pixels.
+     * @see #writeLuminance
+     */
+    public void writeLuminanceRegion(
+            final ByteBuffer plane,
+            final int width,
+            final int height,
+            final int rowStride,
+            final int left,
+            final int top,
+            final int size,
+            final int rotation,
+            final ByteBuffer out) {
+        computeRegionOffsets(width, height, rowStride, left, top, size, rotation);
+        final int[] rows = rowOffsets;
+        final int[] columns = columnOffsets;
+        if (writer.isQuantized()) {
+            final byte[] values = writer.getByteValues();
+            for (int y = 0, p = 0; y < outputHeight; ++y) {
+                final int row = rows[y];
+                for (int x = 0; x < outputWidth; ++x) {
+                    final byte value = plane.get(row + columns[x]);
+                    values[p++] = value;
+                    values[p++] = value;
+                    values[p++] = value;
+                }
+            }
+        } else {
+            final float[] table = writer.getNormalizationTable();
+            final float[] values = writer.getFloatValues();
+            for (int y = 0, p = 0; y < outputHeight; ++y) {
+                final int row = rows[y];
+                for (int x = 0; x < outputWidth; ++x) {
+                    final float value = table[0xff & plane.get(row + columns[x])];
+                    values[p++] = value;
+                    values[p++] = value;
+                    values[p++] = value;
+                }
+            }
+        }
+        writer.put(out);
+    }
+
+    /**
+     * Splits the source offset of every input pixel of a region into a part that depends only on
+     * the output row and one that depends only on the output column. Nearest neighbour resizing
+     * maps source rows and columns independently, and a quarter turn only swaps and mirrors them.
+     */
+    private void computeRegionOffsets(
+            final int width,
+            final int height,
+            final int rowStride,
+            final int left,
+            final int top,
+            final int size,
+            final int rotation) {
+        final int numRotation = ((rotation / 90) % 4 + 4) % 4;
+        // Size of the resized region before rotation; a quarter turn swaps the axes.
+        final int resizedWidth = numRotation % 2 == 0 ? outputWidth : outputHeight;
+        final int resizedHeight = numRotation % 2 == 0 ? outputHeight : outputWidth;
+        for (int rx = 0; rx < resizedWidth; ++rx) {
+            final int sx = left + Math.min((int) ((rx + 0.5f) * size / resizedWidth), size - 1);
+            resizedColumnOffsets[rx] = Math.max(0, Math.min(sx, width - 1));
+        }
+        for (int ry = 0; ry < resizedHeight; ++ry) {
+            final int sy = top + Math.min((int) ((ry + 0.5f) * size / resizedHeight), size - 1);
+            resizedRowOffsets[ry] = Math.max(0, Math.min(sy, height - 1)) * rowStride;
+        }
+
+        // Undo the counter-clockwise rotation, as in compileIndex.
+        for (int y = 0; y < outputHeight; ++y) {
+            switch (numRotation) {
+                case 1:
+                    rowOffsets[y] = resizedColumnOffsets[resizedWidth - 1 - y];
+                    break;
+                case 2:
+                    rowOffsets[y] = resizedRowOffsets[resizedHeight - 1 - y];
+                    break;
+                case 3:
+                    rowOffsets[y] = resizedColumnOffsets[y];
+                    break;
+                default:
+                    rowOffsets[y] = resizedRowOffsets[y];
+                    break;
+            }
+        }
+        for (int x = 0; x < outputWidth; ++x) {
+            switch (numRotation) {
+                case 1:
+                    columnOffsets[x] = resizedRowOffsets[x];
+                    break;
+                case 2:
+                    columnOffsets[x] = resizedColumnOffsets[resizedWidth - 1 - x];
+                    break;
+                case 3:
+                    columnOffsets[x] = resizedRowOffsets[resizedHeight - 1 - x];
+                    break;
+                default:
+                    columnOffsets[x] = resizedColumnOffsets[x];
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Returns the source offset of every input pixel for a layout, compiling it on first use.
+     */
+    int[] getIndex(final int width, final int height, final int rowStride, final int rotation) {
+        final int numRotation = ((rotation / 90) % 4 + 4) % 4;
+        final long key =
+                ((long) width << 42) | ((long) height << 22) | ((long) rowStride << 2) | numRotation;
+        if (key == lastKey) {
+            return lastIndex;
+        }
+        int[] index = layouts.get(key);
+        if (index == null) {
+            index = compileIndex(width, height, rowStride, numRotation);
+            layouts.put(key, index);
+        }
+        lastKey = key;
+        lastIndex = index;
+        return index;
+    }
+
+    /**
+     * Maps every input pixel to its source offset, replicating ResizeWithCropOrPadOp to the center
+     * square, a nearest neighbour ResizeOp and a counter-clockwise Rot90Op.
+     */
+    private int[] compileIndex(
+            final int width, final int height, final int rowStride, final int numRotation) {
+        final int[] index = new int[outputWidth * outputHeight];
+        final int cropSize = Math.min(width, height);
+        final int cropLeft = (width - cropSize) / 2;
+        final int cropTop = (height - cropSize) / 2;
+        // Size of the resized image before rotation; a quarter turn swaps the axes.
+        final int resizedWidth = numRotation % 2 == 0 ? outputWidth : outputHeight;
+        final int resizedHeight = numRotation % 2 == 0 ? outputHeight : outputWidth;
+        for (int y = 0, k = 0; y < outputHeight; ++y) {
+            for (int x = 0; x < outputWidth; ++x, ++k) {
+                // Undo the counter-clockwise rotation.
+                final int rx;
+                final int ry;
+                switch (numRotation) {
+                    case 1:
+                        rx = resizedWidth - 1 - y;
+                        ry = x;
+                        break;
+                    case 2:
+                        rx = resizedWidth - 1 - x;
+                        ry = resizedHeight - 1 - y;
+                        break;
+                    case 3:
+                        rx = y;
+                        ry = resizedHeight - 1 - x;
+                        break;
+                    default:
+                        rx = x;
+                        ry = y;
+                        break;
+                }
+                // Undo the nearest neighbour resize, sampling at pixel centers.
+                final int sx = Math.min((int) ((rx + 0.5f) * cropSize / resizedWidth), cropSize - 1);
+                final int sy = Math.min((int) ((ry + 0.5f) * cropSize / resizedHeight), cropSize - 1);
+                index[k] = (cropTop + sy) * rowStride + cropLeft + sx;
+            }
+        }
+        return index;
+    }
+}
@@ -21,6 +21,7 @@ import android.os.Environment;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Utility class for manipulating images.
@@ -30,6 +31,38 @@ public class ImageUtils {
     // are normalized to eight bits.
     static final int kMaxChannelValue = 262143;
 
+    // Offset applied to a channel sum shifted down by 10 bits before it indexes
+    // SATURATION_TABLE. The sums produced by the contribution tables below lie in
+    // [-264448, 547270], i.e. [-259, 534] once shifted, so 1024 entries leave headroom
+    // on both sides.
+    private static final int kSaturationOffset = 384;
+
+    // Per-component contributions of YUV2RGB, indexed by the raw 8 bit sample value.
+    private static final int[] Y_TABLE = new int[256];
+    private static final int[] V_TO_R_TABLE = new int[256];
+    private static final int[] V_TO_G_TABLE = new int[256];
+    private static final int[] U_TO_G_TABLE = new int[256];
+    private static final int[] U_TO_B_TABLE = new int[256];
+
+    // Maps (channelSum >> 10) + kSaturationOffset to the clamped 8 bit channel value.
+    // Clamping to [0, kMaxChannelValue] and then dropping the low 10 bits is the same
+    // as dropping the low 10 bits and clamping to [0, 255], which is what makes a single
+    // branch-free lookup equivalent to the clamps in YUV2RGB.
+    private static final int[] SATURATION_TABLE = new int[1024];
+
+    static {
+        for (int i = 0; i < 256; ++i) {
+            Y_TABLE[i] = 1192 * Math.max(i - 16, 0);
+            V_TO_R_TABLE[i] = 1634 * (i - 128);
+            V_TO_G_TABLE[i] = -833 * (i - 128);
+            U_TO_G_TABLE[i] = -400 * (i - 128);
+            U_TO_B_TABLE[i] = 2066 * (i - 128);
+        }
+        for (int i = 0; i < SATURATION_TABLE.length; ++i) {
+            SATURATION_TABLE[i] = Math.min(Math.max(i - kSaturationOffset, 0), 255);
+        }
+    }
+
     @SuppressWarnings("unused")
     private static final Logger LOGGER = new Logger();
 
@@ -88,9 +121,41 @@ public class ImageUtils {
         }
     }
 
+    /**
+     * Appends raw bytes, e.g. a YUV frame, to a file next to the saved bitmaps. Frames appended one
+     * after the other can be replayed by benchmarks.
+     *
+     * @param data     The bytes to append.
+     * @param filename The file to append to.
+     */
+    public static void appendToFile(final byte[] data, final String filename) {
+        final String root =
+                Environment.getExternalStorageDirectory().getAbsolutePath() + File.separator + "tensorflow";
+        final File myDir = new File(root);
+        if (!myDir.exists() && !myDir.mkdirs()) {
+            LOGGER.i("Make dir failed");
+        }
+        try {
+            final FileOutputStream out = new FileOutputStream(new File(myDir, filename), true);
+            out.write(data);
+            out.close();
+        } catch (final Exception e) {
+            LOGGER.e(e, "Exception!");
+        }
+    }
+
     public static void convertYUV420SPToARGB8888(byte[] input, int width, int height, int[] output) {
+        convertYUV420SPToARGB8888(input, width, height, output, 0, height);
+    }
+
+    /**
+     * Converts the rows [rowStart, rowEnd) of a YUV420SP frame. Disjoint row ranges touch disjoint
+     * parts of the output, so several ranges of the same frame may be converted concurrently.
+     */
+    public static void convertYUV420SPToARGB8888(
+            byte[] input, int width, int height, int[] output, int rowStart, int rowEnd) {
         final int frameSize = width * height;
-        for (int j = 0, yp = 0; j < height; j++) {
+        for (int j = rowStart, yp = rowStart * width; j < rowEnd; j++) {
             int uvp = frameSize + (j >> 1) * width;
             int u = 0;
             int v = 0;
@@ -102,12 +167,16 @@ public class ImageUtils {
                     u = 0xff & input[uvp++];
                 }
 
-                output[yp] = YUV2RGB(y, u, v);
+                output[yp] = YUV2RGBTable(y, u, v);
             }
         }
     }
 
-    private static int YUV2RGB(int y, int u, int v) {
+    /**
+     * Reference per-pixel conversion. The converters use {@link #YUV2RGBTable}, which must stay
+     * bit-identical to this method.
+     */
+    static int YUV2RGB(int y, int u, int v) {
         // Adjust and check YUV values
         y = (y - 16) < 0 ? 0 : (y - 16);
         u -= 128;
@@ -131,6 +200,20 @@ public class ImageUtils {
         return 0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | ((b >> 10) & 0xff);
     }
 
+    /**
+     * Table-driven equivalent of {@link #YUV2RGB}. Every multiply is replaced by a lookup of the
+     * precomputed component contribution and every clamp by a lookup in the saturation table.
+     * Expects 8 bit unsigned samples.
+     */
+    static int YUV2RGBTable(int y, int u, int v) {
+        final int y1192 = Y_TABLE[y];
+        final int r = SATURATION_TABLE[((y1192 + V_TO_R_TABLE[v]) >> 10) + kSaturationOffset];
+        final int g =
+                SATURATION_TABLE[((y1192 + V_TO_G_TABLE[v] + U_TO_G_TABLE[u]) >> 10) + kSaturationOffset];
+        final int b = SATURATION_TABLE[((y1192 + U_TO_B_TABLE[u]) >> 10) + kSaturationOffset];
+        return 0xff000000 | (r << 16) | (g << 8) | b;
+    }
+
     public static void convertYUV420ToARGB8888(
             byte[] yData,
             byte[] uData,
@@ -141,15 +224,83 @@ public class ImageUtils {
             int uvRowStride,
             int uvPixelStride,
             int[] out) {
-        int yp = 0;
-        for (int j = 0; j < height; j++) {
+        convertYUV420ToARGB8888(
+                yData, uData, vData, width, height, yRowStride, uvRowStride, uvPixelStride, out, 0, height);
+    }
+
+    /**
+     * Converts the rows [rowStart, rowEnd) of a YUV420 frame. Disjoint row ranges touch disjoint
+     * parts of the output, so several ranges of the same frame may be converted concurrently.
+     */
+    public static void convertYUV420ToARGB8888(
+            byte[] yData,
+            byte[] uData,
+            byte[] vData,
+            int width,
+            int height,
+            int yRowStride,
+            int uvRowStride,
+            int uvPixelStride,
+            int[] out,
+            int rowStart,
+            int rowEnd) {
+        int yp = rowStart * width;
+        for (int j = rowStart; j < rowEnd; j++) {
+            int pY = yRowStride * j;
+            int pUV = uvRowStride * (j >> 1);
+
+            for (int i = 0; i < width; i++) {
+                int uv_offset = pUV + (i >> 1) * uvPixelStride;
+
+                out[yp++] = YUV2RGBTable(0xff & yData[pY + i], 0xff & uData[uv_offset], 0xff & vData[uv_offset]);
+            }
+        }
+    }
+
+    /**
+     * Converts a YUV420 frame reading straight from its plane buffers, e.g. those of an
+     * android.media.Image, instead of from copies of them. Buffers are read with absolute gets, so
+     * their positions are ignored and left untouched.
+     */
+    public static void convertYUV420ToARGB8888(
+            ByteBuffer yBuffer,
+            ByteBuffer uBuffer,
+            ByteBuffer vBuffer,
+            int width,
+            int height,
+            int yRowStride,
+            int uvRowStride,
+            int uvPixelStride,
+            int[] out) {
+        convertYUV420ToARGB8888(
+                yBuffer, uBuffer, vBuffer, width, height, yRowStride, uvRowStride, uvPixelStride, out, 0, height);
+    }
+
+    /**
+     * Converts the rows [rowStart, rowEnd) of a YUV420 frame held in plane buffers.
+     */
+    public static void convertYUV420ToARGB8888(
+            ByteBuffer yBuffer,
+            ByteBuffer uBuffer,
+            ByteBuffer vBuffer,
+            int width,
+            int height,
+            int yRowStride,
+            int uvRowStride,
+            int uvPixelStride,
+            int[] out,
+            int rowStart,
+            int rowEnd) {
+        int yp = rowStart * width;
+        for (int j = rowStart; j < rowEnd; j++) {
             int pY = yRowStride * j;
             int pUV = uvRowStride * (j >> 1);
 
             for (int i = 0; i < width; i++) {
                 int uv_offset = pUV + (i >> 1) * uvPixelStride;
 
-                out[yp++] = YUV2RGB(0xff & yData[pY + i], 0xff & uData[uv_offset], 0xff & vData[uv_offset]);
+                out[yp++] = YUV2RGBTable(
+                        0xff & yBuffer.get(pY + i), 0xff & uBuffer.get(uv_offset), 0xff & vBuffer.get(uv_offset));
             }
         }
     }
@@ -0,0 +1,102 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.tensorflow.lite.examples.detection.env;
+
+/**
+ * Fixed-memory latency histogram. Durations are kept in microseconds in log-linear buckets: each
+ * power of two is split into eight equal buckets, so a percentile read back is within 12.5% of the
+ * recorded value, from 1 us up to about a minute. Recording does not allocate.
+ *
+ * <p>Not thread-safe; see {@link StageLatencies} for a synchronized wrapper.
+ */
+public class LatencyHistogram {
+    // Bits of each value kept below its highest set bit.
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Values are clamped below 2^MAX_BITS microseconds.
+    private static final int MAX_BITS = 26;
+    private static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+    private static final int NUM_BUCKETS = (MAX_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final long[] counts = new long[NUM_BUCKETS];
+    private long count;
+    private long max;
+
+    /**
+     * Records a duration.
+     */
+    public void recordNanos(final long nanos) {
+        final long micros = Math.min(Math.max(nanos / 1000, 0), MAX_VALUE);
+        ++counts[getBucket(micros)];
+        ++count;
+        max = Math.max(max, micros);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the largest recorded duration in microseconds, 0 if nothing was recorded.
+     */
+    public long getMaxMicros() {
+        return max;
+    }
+
+    /**
+     * Returns the duration in microseconds that {@code fraction} of the recorded durations do not
+     * exceed, e.g. 0.99 for the 99th percentile, or 0 if nothing was recorded.
+     */
+    public long getPercentileMicros(final double fraction) {
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; ++i) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(getUpperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    public void reset() {
+        for (int i = 0; i < NUM_BUCKETS; ++i) {
+            counts[i] = 0;
+        }
+        count = 0;
+        max = 0;
+    }
+
+    static int getBucket(final long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((micros >> shift) & (SUB_BUCKETS - 1));
+    }
+
+    // Largest value falling into bucket i.
+    static long getUpperBound(final int i) {
+        if (i < SUB_BUCKETS) {
+            return i;
+        }
+        final int shift = i / SUB_BUCKETS - 1;
+        final long lower = (long) (SUB_BUCKETS + i % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
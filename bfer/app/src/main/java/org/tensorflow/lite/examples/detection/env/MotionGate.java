@@ -0,0 +1,137 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Tells whether a camera frame moved enough since the last processed one to be worth running the
+ * models on. The luminance plane is sampled every {@link #SAMPLE_STEP} pixels in each direction and
+ * compared with the samples of the last processed frame by their mean absolute difference, so a
+ * slow drift adds up until it passes the threshold instead of going unnoticed frame by frame.
+ *
+ * <p>A frame is processed anyway once the refresh interval passed since the last processed one,
+ * so that a still scene keeps being checked.
+ */
+public class MotionGate {
+    // Distance in pixels between two luminance samples, in each direction.
+    static final int SAMPLE_STEP = 8;
+
+    private final float threshold;
+    private final long refreshIntervalMs;
+
+    // Luminance samples of the last processed frame.
+    private byte[] reference;
+    private byte[] samples;
+    private int sampleWidth;
+    private int sampleHeight;
+    private long lastProcessedMs;
+    private float lastDifference;
+    private long frameCount;
+    private long skippedCount;
+
+    /**
+     * @param threshold Mean absolute luminance difference, in 0..255, from which a frame counts as
+     *     moved.
+     * @param refreshIntervalMs Longest time a frame may go unprocessed.
+     */
+    public MotionGate(final float threshold, final long refreshIntervalMs) {
+        this.threshold = threshold;
+        this.refreshIntervalMs = refreshIntervalMs;
+    }
+
+    /**
+     * Returns whether the frame should be processed: it moved past the threshold, the refresh
+     * interval passed, or it is the first frame of this size. A processed frame becomes the
+     * reference for the next ones.
+     *
+     * @param luminance Luminance plane, read from index 0 on without changing its position.
+     * @param timeMs Time of the frame on a monotonic clock, e.g. SystemClock.uptimeMillis().
+     */
+    public boolean update(
+            final ByteBuffer luminance,
+            final int width,
+            final int height,
+            final int rowStride,
+            final long timeMs) {
+        ++frameCount;
+        final int newSampleWidth = (width + SAMPLE_STEP - 1) / SAMPLE_STEP;
+        final int newSampleHeight = (height + SAMPLE_STEP - 1) / SAMPLE_STEP;
+        if (reference == null || newSampleWidth != sampleWidth || newSampleHeight != sampleHeight) {
+            sampleWidth = newSampleWidth;
+            sampleHeight = newSampleHeight;
+            reference = new byte[sampleWidth * sampleHeight];
+            samples = new byte[sampleWidth * sampleHeight];
+            sample(luminance, rowStride, reference);
+            lastProcessedMs = timeMs;
+            lastDifference = 0;
+            return true;
+        }
+
+        sample(luminance, rowStride, samples);
+        long sum = 0;
+        for (int i = 0; i < samples.length; ++i) {
+            sum += Math.abs((0xff & samples[i]) - (0xff & reference[i]));
+        }
+        lastDifference = (float) sum / samples.length;
+        if (lastDifference < threshold && timeMs - lastProcessedMs < refreshIntervalMs) {
+            ++skippedCount;
+            return false;
+        }
+        final byte[] swap = reference;
+        reference = samples;
+        samples = swap;
+        lastProcessedMs = timeMs;
+        return true;
+    }
+
+    private void sample(final ByteBuffer luminance, final int rowStride, final byte[] out) {
+        for (int y = 0, k = 0; y < sampleHeight; ++y) {
+            final int row = y * SAMPLE_STEP * rowStride;
+            for (int x = 0; x < sampleWidth; ++x, ++k) {
+                out[k] = luminance.get(row + x * SAMPLE_STEP);
+            }
+        }
+    }
+
+    /**
+     * Forgets the reference frame, so that the next frame is processed.
+     */
+    public void reset() {
+        reference = null;
+    }
+
+    /**
+     * Returns the mean absolute luminance difference of the last frame to its reference.
+     */
+    public float getLastDifference() {
+        return lastDifference;
+    }
+
+    /**
+     * Returns the share of frames skipped so far, in 0..1.
+     */
+    public float getSkipRatio() {
+        return frameCount == 0 ? 0 : (float) skippedCount / frameCount;
+    }
+
+    /**
+     * Returns the skip ratio and the last difference, for the debug overlay.
+     */
+    public String getStatString() {
+        return String.format("Motion gate: skipped %.0f%%, diff %.1f", 100 * getSkipRatio(), lastDifference);
+    }
+}
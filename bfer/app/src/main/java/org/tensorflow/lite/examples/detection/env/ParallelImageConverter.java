@@ -0,0 +1,188 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Converts YUV frames to ARGB by splitting them into horizontal bands of rows and converting the
+ * bands on a fixed-size worker pool. The calling thread converts the first band itself and then
+ * waits for the rest, so a converter with N threads keeps N cores busy.
+ */
+public class ParallelImageConverter {
+    private static final Logger LOGGER = new Logger();
+
+    // Bands shorter than this cost more to hand off than they save.
+    private static final int MIN_BAND_ROWS = 16;
+
+    private final int numThreads;
+    private final ExecutorService executor;
+
+    /**
+     * @param numThreads Total number of threads converting a frame, including the caller. A value
+     *                   of 1 converts on the calling thread only.
+     */
+    public ParallelImageConverter(final int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+        if (this.numThreads > 1) {
+            final AtomicInteger count = new AtomicInteger();
+            executor =
+                    Executors.newFixedThreadPool(
+                            this.numThreads - 1,
+                            r -> {
+                                final Thread thread = new Thread(r, "yuv-convert-" + count.incrementAndGet());
+                                thread.setPriority(Thread.MAX_PRIORITY);
+                                return thread;
+                            });
+        } else {
+            executor = null;
+        }
+        LOGGER.i("Converting frames on %d thread(s)", this.numThreads);
+    }
+
+    /**
+     * Returns the number of conversion threads suited to this device. Dual core devices keep the
+     * single-threaded path, as the inference thread already competes for the second core.
+     */
+    public static int getDefaultNumThreads() {
+        final int cores = Runtime.getRuntime().availableProcessors();
+        if (cores <= 2) {
+            return 1;
+        }
+        return Math.min(cores / 2, 4);
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public void convertYUV420SPToARGB8888(
+            final byte[] input, final int width, final int height, final int[] output) {
+        runBands(
+                height,
+                (rowStart, rowEnd) ->
+                        ImageUtils.convertYUV420SPToARGB8888(input, width, height, output, rowStart, rowEnd));
+    }
+
+    public void convertYUV420ToARGB8888(
+            final byte[] yData,
+            final byte[] uData,
+            final byte[] vData,
+            final int width,
+            final int height,
+            final int yRowStride,
+            final int uvRowStride,
+            final int uvPixelStride,
+            final int[] out) {
+        runBands(
+                height,
+                (rowStart, rowEnd) ->
+                        ImageUtils.convertYUV420ToARGB8888(
+                                yData,
+                                uData,
+                                vData,
+                                width,
+                                height,
+                                yRowStride,
+                                uvRowStride,
+                                uvPixelStride,
+                                out,
+                                rowStart,
+                                rowEnd));
+    }
+
+    public void convertYUV420ToARGB8888(
+            final ByteBuffer yBuffer,
+            final ByteBuffer uBuffer,
+            final ByteBuffer vBuffer,
+            final int width,
+            final int height,
+            final int yRowStride,
+            final int uvRowStride,
+            final int uvPixelStride,
+            final int[] out) {
+        runBands(
+                height,
+                (rowStart, rowEnd) ->
+                        ImageUtils.convertYUV420ToARGB8888(
+                                yBuffer,
+                                uBuffer,
+                                vBuffer,
+                                width,
+                                height,
+                                yRowStride,
+                                uvRowStride,
+                                uvPixelStride,
+                                out,
+                                rowStart,
+                                rowEnd));
+    }
+
+    /**
+     * Stops the worker threads. The converter must not be used afterwards.
+     */
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private void runBands(final int height, final Band band) {
+        final int numBands = Math.min(numThreads, Math.max(1, height / MIN_BAND_ROWS));
+        if (numBands == 1) {
+            band.convert(0, height);
+            return;
+        }
+
+        // Keep band boundaries on even rows so that each band starts on a fresh chroma row.
+        final int bandRows = ((height + numBands - 1) / numBands + 1) & ~1;
+        final CountDownLatch done = new CountDownLatch(numBands - 1);
+        final RuntimeException[] failure = new RuntimeException[1];
+        for (int i = 1; i < numBands; ++i) {
+            final int rowStart = Math.min(i * bandRows, height);
+            final int rowEnd = Math.min(rowStart + bandRows, height);
+            executor.execute(
+                    () -> {
+                        try {
+                            band.convert(rowStart, rowEnd);
+                        } catch (final RuntimeException e) {
+                            failure[0] = e;
+                        } finally {
+                            done.countDown();
+                        }
+                    });
+        }
+        band.convert(0, Math.min(bandRows, height));
+
+        try {
+            done.await();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.e(e, "Interrupted while converting frame");
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    private interface Band {
+        void convert(int rowStart, int rowEnd);
+    }
+}
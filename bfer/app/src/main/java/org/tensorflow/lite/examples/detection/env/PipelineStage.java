@@ -0,0 +1,171 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+/**
+ * One stage of a frame pipeline: a worker thread processing the items handed to it through a
+ * single slot. Offering an item while the previous one is still waiting replaces it, so a stage
+ * that falls behind works on the latest item instead of a queue of stale ones. Replaced items are
+ * recycled and counted as dropped.
+ *
+ * <p>The processor owns the items it is given: it passes each on to the next stage or recycles it.
+ */
+public class PipelineStage<T> {
+    /**
+     * Processes an item on the worker thread.
+     */
+    public interface Processor<T> {
+        void process(T item);
+    }
+
+    /**
+     * Takes back an item that will not be processed, e.g. to return it to a pool.
+     */
+    public interface Recycler<T> {
+        void recycle(T item);
+    }
+
+    private final String name;
+    private final Processor<T> processor;
+    private final Recycler<T> recycler;
+
+    private Thread thread;
+    private boolean running;
+    private T pending;
+    private long processedCount;
+    private long droppedCount;
+
+    /**
+     * @param name Names the worker thread and the counters.
+     */
+    public PipelineStage(
+            final String name, final Processor<T> processor, final Recycler<T> recycler) {
+        this.name = name;
+        this.processor = processor;
+        this.recycler = recycler;
+    }
+
+    /**
+     * Starts the worker thread, unless it is running. A worker that was stopped but is still
+     * finishing its last item keeps going instead, so a stage never has two workers.
+     */
+    public synchronized void start() {
+        running = true;
+        if (thread == null) {
+            thread = new Thread(this::run, name);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops the worker once it finishes the item it is processing and recycles the waiting item.
+     * Items offered while stopped are recycled right away. Does not wait for the worker, see
+     * {@link #awaitStopped()}.
+     */
+    public void stop() {
+        final T waiting;
+        synchronized (this) {
+            running = false;
+            waiting = pending;
+            pending = null;
+            notifyAll();
+        }
+        if (waiting != null) {
+            recycler.recycle(waiting);
+        }
+    }
+
+    /**
+     * Waits for a stopped worker to finish the item it is processing and exit. Only call this for
+     * stages whose processor returns promptly, as it blocks the caller for as long.
+     */
+    public synchronized void awaitStopped() {
+        boolean interrupted = false;
+        while (!running && thread != null) {
+            try {
+                wait();
+            } catch (final InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Hands an item to the worker, replacing the item still waiting, if any.
+     */
+    public void offer(final T item) {
+        final T dropped;
+        synchronized (this) {
+            if (!running) {
+                dropped = item;
+            } else {
+                dropped = pending;
+                pending = item;
+                if (dropped != null) {
+                    ++droppedCount;
+                }
+                notifyAll();
+            }
+        }
+        if (dropped != null) {
+            recycler.recycle(dropped);
+        }
+    }
+
+    private void run() {
+        while (true) {
+            final T item;
+            synchronized (this) {
+                while (running && pending == null) {
+                    try {
+                        wait();
+                    } catch (final InterruptedException e) {
+                        // Only stop() ends the worker.
+                    }
+                }
+                if (!running) {
+                    thread = null;
+                    notifyAll();
+                    return;
+                }
+                item = pending;
+                pending = null;
+            }
+            processor.process(item);
+            synchronized (this) {
+                ++processedCount;
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized long getProcessedCount() {
+        return processedCount;
+    }
+
+    /**
+     * Returns how many items were replaced by a newer one before the worker got to them.
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+}
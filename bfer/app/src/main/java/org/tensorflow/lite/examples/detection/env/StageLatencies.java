@@ -0,0 +1,112 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.tensorflow.lite.examples.detection.env;
+
+/**
+ * Latency histograms for the stages of a pipeline, e.g. the preprocess, feed, run and postprocess
+ * steps of an inference. Stages are recorded on the inference thread with
+ * {@code start = record(STAGE, start)}, which does not allocate, and read back as text from any
+ * thread.
+ */
+public class StageLatencies {
+    private final String name;
+    private final String[] stages;
+    private final LatencyHistogram[] histograms;
+    private volatile boolean enabled = true;
+
+    /**
+     * @param name   Shown in front of every line of the stat string.
+     * @param stages Stage names; stages are then referred to by index.
+     */
+    public StageLatencies(final String name, final String... stages) {
+        this.name = name;
+        this.stages = stages.clone();
+        histograms = new LatencyHistogram[stages.length];
+        for (int i = 0; i < stages.length; ++i) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Turns recording on or off. Turning it on starts from empty histograms.
+     */
+    public void setEnabled(final boolean enabled) {
+        if (enabled && !this.enabled) {
+            reset();
+        }
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records the time from {@code startNanos} until now for {@code stage}.
+     *
+     * @param startNanos A System.nanoTime() timestamp.
+     * @return The current System.nanoTime(), to start timing the next stage.
+     */
+    public long record(final int stage, final long startNanos) {
+        final long now = System.nanoTime();
+        recordNanos(stage, now - startNanos);
+        return now;
+    }
+
+    /**
+     * Records a duration measured elsewhere for {@code stage}.
+     */
+    public void recordNanos(final int stage, final long nanos) {
+        if (enabled) {
+            synchronized (this) {
+                histograms[stage].recordNanos(nanos);
+            }
+        }
+    }
+
+    public synchronized void reset() {
+        for (final LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Returns one line per recorded stage with its p50, p90, p99 and max latency in milliseconds
+     * and the number of samples.
+     */
+    public synchronized String getStatString() {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < stages.length; ++i) {
+            final LatencyHistogram histogram = histograms[i];
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            if (builder.length() > 0) {
+                builder.append('\n');
+            }
+            builder.append(
+                    String.format(
+                            "%s %s p50 %.1f p90 %.1f p99 %.1f max %.1f ms (%d)",
+                            name,
+                            stages[i],
+                            histogram.getPercentileMicros(0.5) / 1000.0f,
+                            histogram.getPercentileMicros(0.9) / 1000.0f,
+                            histogram.getPercentileMicros(0.99) / 1000.0f,
+                            histogram.getMaxMicros() / 1000.0f,
+                            histogram.getCount()));
+        }
+        return builder.toString();
+    }
+}
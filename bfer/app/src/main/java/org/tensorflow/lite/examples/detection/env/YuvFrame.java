@@ -0,0 +1,319 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Describes the planes of the camera frame currently being processed, independent of the camera
+ * API that produced it. Both YUV420SP (NV21) and planar YUV420 layouts are expressed as three
+ * planes plus strides: a chroma sample for pixel (x, y) lives at
+ * {@code offset + (y / 2) * uvRowStride + (x / 2) * uvPixelStride} in its plane.
+ *
+ * <p>Planes are held as buffers and read with absolute gets, so camera2 plane buffers can be used
+ * as they are, without copying them out of the Image.
+ *
+ * <p>A single instance is reused for every camera frame. Each new frame bumps the generation, and
+ * representations derived from the planes (ARGB, grayscale, downscaled grayscale) are computed
+ * lazily and at most once per generation. Once the frame is released back to the camera, reading
+ * its planes or deriving anything from them throws an IllegalStateException instead of silently
+ * returning data of whichever frame the camera wrote next.
+ */
+public class YuvFrame {
+    private final ParallelImageConverter converter;
+
+    private int width;
+    private int height;
+    private ByteBuffer yBuffer;
+    private ByteBuffer uBuffer;
+    private ByteBuffer vBuffer;
+    private int yRowStride;
+    private int uvRowStride;
+    private int uvPixelStride;
+    private int uOffset;
+    private int vOffset;
+
+    // NV21 arrays are wrapped once; Camera hands the same callback buffers back over and over.
+    private byte[] wrappedArray;
+    private ByteBuffer wrappedBuffer;
+    // The NV21 array of the current frame, null for planar frames.
+    private byte[] yuv420spData;
+    // One chroma row of each plane, see copyToYUV420SP.
+    private byte[] uRow;
+    private byte[] vRow;
+
+    private volatile long generation = 0;
+    private volatile boolean released = true;
+
+    // Derived representations and the generation each one was computed for.
+    private int[] argb;
+    private long argbGeneration = -1;
+    private byte[] grayscale;
+    private long grayscaleGeneration = -1;
+    private byte[] downscaled;
+    private long downscaledGeneration = -1;
+
+    /**
+     * @param converter Used to convert frames to ARGB.
+     */
+    public YuvFrame(final ParallelImageConverter converter) {
+        this.converter = converter;
+    }
+
+    /**
+     * Points this frame at an NV21 buffer as delivered by android.hardware.Camera.
+     */
+    public void setYUV420SP(final byte[] data, final int width, final int height) {
+        this.width = width;
+        this.height = height;
+        if (data != wrappedArray) {
+            wrappedArray = data;
+            wrappedBuffer = ByteBuffer.wrap(data);
+        }
+        yuv420spData = data;
+        yBuffer = wrappedBuffer;
+        uBuffer = wrappedBuffer;
+        vBuffer = wrappedBuffer;
+        yRowStride = width;
+        uvRowStride = width;
+        uvPixelStride = 2;
+        // NV21 interleaves the chroma plane as V, U.
+        vOffset = width * height;
+        uOffset = vOffset + 1;
+        startGeneration();
+    }
+
+    /**
+     * Points this frame at three separate planes as delivered by android.hardware.camera2.
+     */
+    public void setYUV420(
+            final ByteBuffer yBuffer,
+            final ByteBuffer uBuffer,
+            final ByteBuffer vBuffer,
+            final int width,
+            final int height,
+            final int yRowStride,
+            final int uvRowStride,
+            final int uvPixelStride) {
+        this.width = width;
+        this.height = height;
+        this.yBuffer = yBuffer;
+        this.uBuffer = uBuffer;
+        this.vBuffer = vBuffer;
+        this.yRowStride = yRowStride;
+        this.uvRowStride = uvRowStride;
+        this.uvPixelStride = uvPixelStride;
+        uOffset = 0;
+        vOffset = 0;
+        yuv420spData = null;
+        startGeneration();
+    }
+
+    private void startGeneration() {
+        ++generation;
+        released = false;
+    }
+
+    /**
+     * Marks the current frame as handed back to the camera. Its planes must not be read anymore.
+     */
+    public void release() {
+        released = true;
+    }
+
+    /**
+     * Returns the generation of the current frame; it changes with every new camera frame.
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Returns whether the frame of the given generation is still current and not released.
+     */
+    public boolean isValid(final long generation) {
+        return !released && this.generation == generation;
+    }
+
+    private void checkNotReleased() {
+        if (released) {
+            throw new IllegalStateException("Frame " + generation + " was already released");
+        }
+    }
+
+    /**
+     * Returns the frame as ARGB_8888 pixels, converting it on first use within this generation.
+     * The array is reused across frames.
+     */
+    public synchronized int[] getArgb() {
+        checkNotReleased();
+        if (argbGeneration != generation) {
+            if (argb == null || argb.length != width * height) {
+                argb = new int[width * height];
+            }
+            if (yuv420spData != null) {
+                converter.convertYUV420SPToARGB8888(yuv420spData, width, height, argb);
+            } else {
+                converter.convertYUV420ToARGB8888(
+                        yBuffer, uBuffer, vBuffer, width, height, yRowStride, uvRowStride, uvPixelStride, argb);
+            }
+            argbGeneration = generation;
+        }
+        return argb;
+    }
+
+    /**
+     * Returns the luminance plane as a tightly packed width * height grayscale image, copying it on
+     * first use within this generation. The array is reused across frames.
+     */
+    public synchronized byte[] getGrayscale() {
+        checkNotReleased();
+        if (grayscaleGeneration != generation) {
+            if (grayscale == null || grayscale.length != width * height) {
+                grayscale = new byte[width * height];
+            }
+            final ByteBuffer y = yBuffer.duplicate();
+            for (int row = 0; row < height; ++row) {
+                y.position(row * yRowStride);
+                y.get(grayscale, row * width, width);
+            }
+            grayscaleGeneration = generation;
+        }
+        return grayscale;
+    }
+
+    /**
+     * Returns the luminance plane downscaled by two in each direction, each sample being the mean
+     * of a 2x2 block, computed on first use within this generation. The array is reused across
+     * frames; see {@link #getDownscaledWidth()} and {@link #getDownscaledHeight()} for its size.
+     */
+    public synchronized byte[] getDownscaledGrayscale() {
+        checkNotReleased();
+        if (downscaledGeneration != generation) {
+            final int dstWidth = getDownscaledWidth();
+            final int dstHeight = getDownscaledHeight();
+            if (downscaled == null || downscaled.length != dstWidth * dstHeight) {
+                downscaled = new byte[dstWidth * dstHeight];
+            }
+            for (int y = 0, k = 0; y < dstHeight; ++y) {
+                final int row0 = 2 * y * yRowStride;
+                final int row1 = row0 + yRowStride;
+                for (int x = 0; x < dstWidth; ++x, ++k) {
+                    final int col = 2 * x;
+                    final int sum =
+                            (0xff & yBuffer.get(row0 + col))
+                                    + (0xff & yBuffer.get(row0 + col + 1))
+                                    + (0xff & yBuffer.get(row1 + col))
+                                    + (0xff & yBuffer.get(row1 + col + 1));
+                    downscaled[k] = (byte) ((sum + 2) >> 2);
+                }
+            }
+            downscaledGeneration = generation;
+        }
+        return downscaled;
+    }
+
+    /**
+     * Packs the frame into {@code out} in NV21 layout, so that it outlives the camera buffers it is
+     * read from. {@code out} must hold ImageUtils.getYUVByteSize(width, height) bytes.
+     *
+     * <p>NV21 frames are copied as they are. Planar frames are copied a row at a time: luminance
+     * rows straight into {@code out}, chroma rows into scratch rows that are then interleaved.
+     */
+    public void copyToYUV420SP(final byte[] out) {
+        checkNotReleased();
+        if (yuv420spData != null) {
+            System.arraycopy(yuv420spData, 0, out, 0, out.length);
+            return;
+        }
+        final ByteBuffer y = yBuffer.duplicate();
+        for (int row = 0; row < height; ++row) {
+            y.position(row * yRowStride);
+            y.get(out, row * width, width);
+        }
+        final int uvWidth = (width + 1) / 2;
+        final int uvHeight = (height + 1) / 2;
+        // The last row of a camera2 plane ends right after its last sample.
+        final int rowLength = (uvWidth - 1) * uvPixelStride + 1;
+        if (uRow == null || uRow.length != rowLength) {
+            uRow = new byte[rowLength];
+            vRow = new byte[rowLength];
+        }
+        final ByteBuffer u = uBuffer.duplicate();
+        final ByteBuffer v = vBuffer.duplicate();
+        for (int row = 0, k = width * height; row < uvHeight; ++row) {
+            u.position(uOffset + row * uvRowStride);
+            u.get(uRow);
+            v.position(vOffset + row * uvRowStride);
+            v.get(vRow);
+            for (int i = 0; i < rowLength; i += uvPixelStride) {
+                out[k++] = vRow[i];
+                out[k++] = uRow[i];
+            }
+        }
+    }
+
+    public int getDownscaledWidth() {
+        return width / 2;
+    }
+
+    public int getDownscaledHeight() {
+        return height / 2;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public ByteBuffer getYBuffer() {
+        checkNotReleased();
+        return yBuffer;
+    }
+
+    public ByteBuffer getUBuffer() {
+        checkNotReleased();
+        return uBuffer;
+    }
+
+    public ByteBuffer getVBuffer() {
+        checkNotReleased();
+        return vBuffer;
+    }
+
+    public int getYRowStride() {
+        return yRowStride;
+    }
+
+    public int getUvRowStride() {
+        return uvRowStride;
+    }
+
+    public int getUvPixelStride() {
+        return uvPixelStride;
+    }
+
+    public int getUOffset() {
+        return uOffset;
+    }
+
+    public int getVOffset() {
+        return vOffset;
+    }
+}
@@ -0,0 +1,165 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import android.graphics.Matrix;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fused replacement for the YUV to ARGB conversion, Bitmap copy, Canvas resample and per-pixel
+ * normalization that used to produce a detector input. Each destination pixel is sampled from the
+ * YUV planes through the crop to frame transform (nearest neighbour, like an unfiltered
+ * Canvas.drawBitmap) and written to the model input buffer as normalized floats or as uint8.
+ *
+ * <p>The source offsets of every destination pixel only depend on the frame layout and the
+ * transform, so they are computed once and reused until either changes.
+ */
+public class YuvTensorSampler {
+    private static final Logger LOGGER = new Logger();
+
+    private final int dstWidth;
+    private final int dstHeight;
+    // Normalizes, stages and puts the values, so the input buffer is written with a single bulk put.
+    private final ArgbTensorWriter writer;
+
+    // Per destination pixel offsets into the Y plane and into the chroma planes.
+    private final int[] yIndex;
+    private final int[] uvIndex;
+
+    private final float[] transformValues = new float[9];
+    private final float[] compiledTransform = new float[9];
+    private boolean transformChanged = true;
+
+    // Layout the offsets were compiled for.
+    private int compiledWidth = -1;
+    private int compiledHeight = -1;
+    private int compiledYRowStride = -1;
+    private int compiledUvRowStride = -1;
+    private int compiledUvPixelStride = -1;
+
+    public YuvTensorSampler(
+            final int dstWidth,
+            final int dstHeight,
+            final boolean quantized,
+            final float mean,
+            final float std) {
+        this.dstWidth = dstWidth;
+        this.dstHeight = dstHeight;
+        writer = new ArgbTensorWriter(dstWidth * dstHeight, quantized, mean, std);
+        yIndex = new int[dstWidth * dstHeight];
+        uvIndex = new int[dstWidth * dstHeight];
+    }
+
+    /**
+     * Sets the transform from destination (crop) coordinates to source frame coordinates.
+     */
+    public void setTransform(final Matrix cropToFrame) {
+        cropToFrame.getValues(transformValues);
+        for (int i = 0; i < 9; ++i) {
+            if (transformValues[i] != compiledTransform[i]) {
+                transformChanged = true;
+                break;
+            }
+        }
+    }
+
+    /**
+     * Samples the frame into {@code out}, which must be a direct buffer in native byte order with
+     * room for dstWidth * dstHeight * 3 values. The buffer is rewound afterwards.
+     */
+    public void sample(final YuvFrame frame, final ByteBuffer out) {
+        compileIfNeeded(frame);
+
+        final ByteBuffer yBuffer = frame.getYBuffer();
+        final ByteBuffer uBuffer = frame.getUBuffer();
+        final ByteBuffer vBuffer = frame.getVBuffer();
+        final int uOffset = frame.getUOffset();
+        final int vOffset = frame.getVOffset();
+        final int numPixels = dstWidth * dstHeight;
+
+        if (writer.isQuantized()) {
+            final byte[] byteValues = writer.getByteValues();
+            for (int k = 0, p = 0; k < numPixels; ++k) {
+                final int uv = uvIndex[k];
+                final int argb = ImageUtils.YUV2RGBTable(
+                        0xff & yBuffer.get(yIndex[k]),
+                        0xff & uBuffer.get(uOffset + uv),
+                        0xff & vBuffer.get(vOffset + uv));
+                byteValues[p++] = (byte) (argb >> 16);
+                byteValues[p++] = (byte) (argb >> 8);
+                byteValues[p++] = (byte) argb;
+            }
+        } else {
+            final float[] table = writer.getNormalizationTable();
+            final float[] floatValues = writer.getFloatValues();
+            for (int k = 0, p = 0; k < numPixels; ++k) {
+                final int uv = uvIndex[k];
+                final int argb = ImageUtils.YUV2RGBTable(
+                        0xff & yBuffer.get(yIndex[k]),
+                        0xff & uBuffer.get(uOffset + uv),
+                        0xff & vBuffer.get(vOffset + uv));
+                floatValues[p++] = table[(argb >> 16) & 0xff];
+                floatValues[p++] = table[(argb >> 8) & 0xff];
+                floatValues[p++] = table[argb & 0xff];
+            }
+        }
+        writer.put(out);
+    }
+
+    private void compileIfNeeded(final YuvFrame frame) {
+        final int width = frame.getWidth();
+        final int height = frame.getHeight();
+        if (!transformChanged
+                && width == compiledWidth
+                && height == compiledHeight
+                && frame.getYRowStride() == compiledYRowStride
+                && frame.getUvRowStride() == compiledUvRowStride
+                && frame.getUvPixelStride() == compiledUvPixelStride) {
+            return;
+        }
+        compiledWidth = width;
+        compiledHeight = height;
+        compiledYRowStride = frame.getYRowStride();
+        compiledUvRowStride = frame.getUvRowStride();
+        compiledUvPixelStride = frame.getUvPixelStride();
+        System.arraycopy(transformValues, 0, compiledTransform, 0, 9);
+        transformChanged = false;
+        LOGGER.i("Compiling %dx%d sampler for %dx%d frames", dstWidth, dstHeight, width, height);
+
+        final float a = compiledTransform[Matrix.MSCALE_X];
+        final float b = compiledTransform[Matrix.MSKEW_X];
+        final float c = compiledTransform[Matrix.MTRANS_X];
+        final float d = compiledTransform[Matrix.MSKEW_Y];
+        final float e = compiledTransform[Matrix.MSCALE_Y];
+        final float f = compiledTransform[Matrix.MTRANS_Y];
+        for (int y = 0, k = 0; y < dstHeight; ++y) {
+            final float py = y + 0.5f;
+            for (int x = 0; x < dstWidth; ++x, ++k) {
+                // Sample at the pixel center, as an unfiltered Canvas.drawBitmap does.
+                final float px = x + 0.5f;
+                final int sx = clamp((int) Math.floor(a * px + b * py + c), width - 1);
+                final int sy = clamp((int) Math.floor(d * px + e * py + f), height - 1);
+                yIndex[k] = sy * compiledYRowStride + sx;
+                uvIndex[k] = (sy >> 1) * compiledUvRowStride + (sx >> 1) * compiledUvPixelStride;
+            }
+        }
+    }
+
+    private static int clamp(final int value, final int max) {
+        return value < 0 ? 0 : (value > max ? max : value);
+    }
+}
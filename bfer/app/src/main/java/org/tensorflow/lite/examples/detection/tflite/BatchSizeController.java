@@ -0,0 +1,85 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+/**
+ * Picks how many images to run in one batched inference so that a batch fits a latency budget.
+ * The controller keeps a smoothed latency per batch size and estimates sizes it has not run yet
+ * by scaling the largest smaller size it has run linearly, which overestimates since batching
+ * amortizes the fixed cost of an inference. It starts at single images and grows one step at a
+ * time while the estimate of the next size fits the budget, and shrinks as soon as the measured
+ * latency of the current size no longer does. Latencies of larger sizes drift towards the estimate
+ * from the size in use, so a size dropped during a slow spell is tried again once it may fit.
+ */
+public class BatchSizeController {
+    // Weight of a new measurement in the smoothed latency of its batch size.
+    private static final float SMOOTHING = 0.2f;
+    // Weight of the estimate from a smaller size in the latency of a larger size, per batch.
+    private static final float DRIFT = 0.05f;
+
+    private final long budgetMicros;
+    // Smoothed latency by batch size - 1, 0 until that size has run.
+    private final float[] latencyMicros;
+
+    /**
+     * @param maxBatchSize Largest batch size to use.
+     * @param budgetMicros Latency a batch should fit in.
+     */
+    public BatchSizeController(final int maxBatchSize, final long budgetMicros) {
+        this.budgetMicros = budgetMicros;
+        latencyMicros = new float[maxBatchSize];
+    }
+
+    public int getMaxBatchSize() {
+        return latencyMicros.length;
+    }
+
+    /**
+     * Returns the largest batch size expected to fit the budget, at least 1.
+     */
+    public int getBatchSize() {
+        int batchSize = 1;
+        while (batchSize < latencyMicros.length && estimateMicros(batchSize + 1) <= budgetMicros) {
+            ++batchSize;
+        }
+        return batchSize;
+    }
+
+    /**
+     * Records the latency of a batch.
+     */
+    public void update(final int batchSize, final long micros) {
+        final float latency = latencyMicros[batchSize - 1];
+        final float smoothed = latency == 0 ? micros : latency + SMOOTHING * (micros - latency);
+        latencyMicros[batchSize - 1] = smoothed;
+        for (int size = batchSize + 1; size <= latencyMicros.length; ++size) {
+            final float stale = latencyMicros[size - 1];
+            if (stale > 0) {
+                latencyMicros[size - 1] = stale + DRIFT * (smoothed * size / batchSize - stale);
+            }
+        }
+    }
+
+    private float estimateMicros(final int batchSize) {
+        for (int size = batchSize; size > 0; --size) {
+            final float latency = latencyMicros[size - 1];
+            if (latency > 0) {
+                return latency * batchSize / size;
+            }
+        }
+        return Float.MAX_VALUE;
+    }
+}
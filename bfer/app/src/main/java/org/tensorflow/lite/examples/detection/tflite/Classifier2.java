@@ -15,46 +15,46 @@ limitations under the License.
 
 package org.tensorflow.lite.examples.detection.tflite;
 
-import android.app.Activity;
+import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.RectF;
-import android.os.SystemClock;
 import android.os.Trace;
 
 import org.tensorflow.lite.DataType;
 import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.examples.detection.env.CenterCropTensorWriter;
 import org.tensorflow.lite.examples.detection.env.Logger;
 import org.tensorflow.lite.gpu.GpuDelegate;
 import org.tensorflow.lite.nnapi.NnApiDelegate;
 import org.tensorflow.lite.support.common.FileUtil;
-import org.tensorflow.lite.support.common.TensorOperator;
-import org.tensorflow.lite.support.common.TensorProcessor;
-import org.tensorflow.lite.support.image.ImageProcessor;
-import org.tensorflow.lite.support.image.TensorImage;
-import org.tensorflow.lite.support.image.ops.ResizeOp;
-import org.tensorflow.lite.support.image.ops.ResizeOp.ResizeMethod;
-import org.tensorflow.lite.support.image.ops.ResizeWithCropOrPadOp;
-import org.tensorflow.lite.support.image.ops.Rot90Op;
-import org.tensorflow.lite.support.label.TensorLabel;
 import org.tensorflow.lite.support.tensorbuffer.TensorBuffer;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
-import java.util.PriorityQueue;
 
 /**
  * A classifier specialized to label images using TensorFlow Lite.
  */
-public abstract class Classifier2 {
+public abstract class Classifier2 implements ExpressionClassifier {
     private static final Logger LOGGER = new Logger();
     /**
      * Number of results to show in the UI.
      */
     private static final int MAX_RESULTS = 3;
+    /**
+     * Largest number of images run in one inference, and the latency a batch should fit in.
+     */
+    private static final int MAX_BATCH_SIZE = 4;
+    private static final long BATCH_BUDGET_MICROS = 50_000;
+    /**
+     * Batched calls in a row that need fewer images than the current batch size before the input
+     * tensor shrinks to fit them.
+     */
+    private static final int SHRINK_AFTER_CALLS = 30;
     /**
      * Image size along the x axis.
      */
@@ -72,9 +72,23 @@ public abstract class Classifier2 {
      */
     private final TensorBuffer outputProbabilityBuffer;
     /**
-     * Processer to apply post processing of the output probability.
+     * Whether the output probabilities are uint8, and the number of classes they cover.
+     */
+    private final boolean quantizedOutput;
+    private final int numClasses;
+    /**
+     * Number of output values per image, which may exceed the number of labels.
      */
-    private final TensorProcessor probabilityProcessor;
+    private final int outputSize;
+    /**
+     * Selects the best classes from the output probabilities.
+     */
+    private final TopKSelector topK = new TopKSelector(MAX_RESULTS);
+    /**
+     * Results returned by every call, refilled in place.
+     */
+    private final Recognition[] recognitionPool = new Recognition[MAX_RESULTS];
+    private final List<Recognition> recognitions = new ArrayList<>(MAX_RESULTS);
     /**
      * An instance of the driver class to run model inference with Tensorflow Lite.
      */
@@ -97,16 +111,74 @@ public abstract class Classifier2 {
     private List<String> labels;
 
     /**
-     * Input image TensorBuffer.
+     * Model input, filled in a single pass by the input writer.
      */
-    private TensorImage inputImageBuffer;
+    private final ByteBuffer inputBuffer;
+    private final CenterCropTensorWriter inputWriter;
+    /**
+     * Pixels of the last bitmap passed to {@link #recognizeImage}.
+     */
+    private int[] bitmapPixels = new int[0];
+    /**
+     * Shape of the model input, with the batch size the input tensor is currently resized to.
+     */
+    private final int[] inputShape;
+    /**
+     * Picks the number of images per batched inference, see {@link #recognizeLuminance(ByteBuffer,
+     * int, int, int, int[], int, int)}.
+     */
+    private final BatchSizeController batchSizes;
+    /**
+     * Batched calls in a row that needed fewer images than the current batch size.
+     */
+    private int smallerCalls = 0;
+    /**
+     * Batched input and output, by batch size - 1. The interpreter checks that a buffer matches the
+     * tensor size exactly, so each batch size views its part of one shared buffer.
+     */
+    private ByteBuffer[] batchInputs;
+    private ByteBuffer[] batchOutputs;
+    /**
+     * Results returned by batched calls, one list per image, refilled in place. The pools grow to
+     * the largest number of images classified in one call.
+     */
+    private final List<List<Recognition>> batchRecognitions = new ArrayList<>();
+    private final List<List<Recognition>> batchResults = new ArrayList<>();
+    private final List<Recognition[]> batchRecognitionPools = new ArrayList<>();
+    /**
+     * Latencies of the inference stages, see {@link #getStatString()}.
+     */
+    private final InferenceLatencies latencies;
 
     /**
      * Initializes a {@code Classifier}.
      */
-    protected Classifier2(Activity activity, Device device, int numThreads) throws IOException {
-        tfliteModel = FileUtil.loadMappedFile(activity, getModelPath());
-        switch (device) {
+    protected Classifier2(Context context, Device device, int numThreads) throws IOException {
+        this(context, device, numThreads, null);
+    }
+
+    /**
+     * Initializes a {@code Classifier} running an already mapped model, which may be shared with
+     * other classifiers.
+     *
+     * @param model The mapped model of {@link #getModelPath()}, or null to map it here.
+     */
+    protected Classifier2(Context context, Device device, int numThreads, MappedByteBuffer model)
+            throws IOException {
+        this(context, new InterpreterConfig(device, numThreads, false), model);
+    }
+
+    /**
+     * Initializes a {@code Classifier} with an interpreter configuration, e.g. one picked by the
+     * {@link InterpreterTuner}.
+     *
+     * @param model The mapped model of {@link #getModelPath()}, or null to map it here.
+     */
+    protected Classifier2(Context context, InterpreterConfig config, MappedByteBuffer model)
+            throws IOException {
+        tfliteModel = model != null ? model : FileUtil.loadMappedFile(context, getModelPath());
+        latencies = new InferenceLatencies(getModelPath().replace(".tflite", ""));
+        switch (config.getDevice()) {
             case NNAPI:
                 nnApiDelegate = new NnApiDelegate();
                 tfliteOptions.addDelegate(nnApiDelegate);
@@ -118,31 +190,47 @@ public abstract class Classifier2 {
             case CPU:
                 break;
         }
-        tfliteOptions.setNumThreads(numThreads);
+        tfliteOptions.setNumThreads(config.getNumThreads());
+        tfliteOptions.setUseXNNPACK(config.getUseXnnpack());
         tflite = new Interpreter(tfliteModel, tfliteOptions);
+        // The GPU delegate is built for the input shape it was created with, resizing the batch
+        // would rebuild it, so batches run one image at a time there.
+        batchSizes =
+                new BatchSizeController(
+                        config.getDevice() == Device.GPU ? 1 : MAX_BATCH_SIZE, BATCH_BUDGET_MICROS);
 
         // Loads labels out from the label file.
-        labels = FileUtil.loadLabels(activity, getLabelPath());
+        labels = FileUtil.loadLabels(context, getLabelPath());
 
         // Reads type and shape of input and output tensors, respectively.
         int imageTensorIndex = 0;
         int[] imageShape = tflite.getInputTensor(imageTensorIndex).shape(); // {1, height, width, 3}
         imageSizeY = imageShape[1];
         imageSizeX = imageShape[2];
+        inputShape = imageShape.clone();
         DataType imageDataType = tflite.getInputTensor(imageTensorIndex).dataType();
         int probabilityTensorIndex = 0;
         int[] probabilityShape =
                 tflite.getOutputTensor(probabilityTensorIndex).shape(); // {1, NUM_CLASSES}
         DataType probabilityDataType = tflite.getOutputTensor(probabilityTensorIndex).dataType();
 
-        // Creates the input tensor.
-        inputImageBuffer = new TensorImage(imageDataType);
+        // Creates the input tensor and the writer filling it.
+        final boolean quantizedInput = imageDataType == DataType.UINT8;
+        final int numPixels = imageSizeX * imageSizeY;
+        inputBuffer = ByteBuffer.allocateDirect(numPixels * 3 * (quantizedInput ? 1 : 4));
+        inputBuffer.order(ByteOrder.nativeOrder());
+        inputWriter =
+                new CenterCropTensorWriter(
+                        imageSizeX, imageSizeY, quantizedInput, getImageMean(), getImageStd());
 
-        // Creates the output tensor and its processor.
+        // Creates the output tensor.
         outputProbabilityBuffer = TensorBuffer.createFixedSize(probabilityShape, probabilityDataType);
-
-        // Creates the post processor for the output probability.
-        probabilityProcessor = new TensorProcessor.Builder().add(getPostprocessNormalizeOp()).build();
+        quantizedOutput = probabilityDataType == DataType.UINT8;
+        outputSize = probabilityShape[probabilityShape.length - 1];
+        numClasses = Math.min(outputSize, labels.size());
+        for (int i = 0; i < MAX_RESULTS; ++i) {
+            recognitionPool[i] = new Recognition(null, null, 0f, null);
+        }
 
         LOGGER.d("Created a Tensorflow Lite Image Classifier.");
     }
@@ -150,80 +238,416 @@ public abstract class Classifier2 {
     /**
      * Creates a classifier with the provided configuration.
      *
-     * @param activity   The current Activity.
+     * @param context    The context to load the model and labels from.
      * @param model      The model to use for classification.
      * @param device     The device to use for classification.
      * @param numThreads The number of threads to use for classification.
      * @return A classifier with the desired configuration.
      */
-    public static Classifier2 create(Activity activity, Model model, Device device, int numThreads)
+    public static Classifier2 create(Context context, Model model, Device device, int numThreads)
             throws IOException {
-        return new ClassifierFloatMobileNet(activity, device, numThreads);
+        return create(context, model, device, numThreads, null);
     }
 
     /**
-     * Gets the top-k results.
+     * Creates a classifier running an already mapped model.
+     *
+     * @param mappedModel The mapped model file, or null to map it.
      */
-    private static List<Recognition> getTopKProbability(Map<String, Float> labelProb) {
-        // Find the best classifications.
-        PriorityQueue<Recognition> pq =
-                new PriorityQueue<>(
-                        MAX_RESULTS,
-                        new Comparator<Recognition>() {
-                            @Override
-                            public int compare(Recognition lhs, Recognition rhs) {
-                                // Intentionally reversed to put high confidence at the head of the queue.
-                                return Float.compare(rhs.getConfidence(), lhs.getConfidence());
-                            }
-                        });
+    public static Classifier2 create(
+            Context context, Model model, Device device, int numThreads, MappedByteBuffer mappedModel)
+            throws IOException {
+        return create(context, model, new InterpreterConfig(device, numThreads, false), mappedModel);
+    }
 
-        for (Map.Entry<String, Float> entry : labelProb.entrySet()) {
-            pq.add(new Recognition("" + entry.getKey(), entry.getKey(), entry.getValue(), null));
+    /**
+     * Creates a classifier of the given model with an interpreter configuration.
+     *
+     * @param mappedModel The mapped model file, or null to map it.
+     */
+    public static Classifier2 create(
+            Context context, Model model, InterpreterConfig config, MappedByteBuffer mappedModel)
+            throws IOException {
+        switch (model) {
+            case QUANTIZED_MOBILENET:
+                return new ClassifierQuantizedMobileNet(context, config, mappedModel);
+            case FLOAT_EFFICIENTNET:
+                return new ClassifierFloatEfficientNet(context, config, mappedModel);
+            case QUANTIZED_EFFICIENTNET:
+                return new ClassifierQuantizedEfficientNet(context, config, mappedModel);
+            case FLOAT_MOBILENET:
+            default:
+                return new ClassifierFloatMobileNet(context, config, mappedModel);
         }
+    }
 
-        final ArrayList<Recognition> recognitions = new ArrayList<>();
-        int recognitionsSize = Math.min(pq.size(), MAX_RESULTS);
-        for (int i = 0; i < recognitionsSize; ++i) {
-            recognitions.add(pq.poll());
+    /**
+     * Gets the name of the model file of {@code model} stored in Assets.
+     */
+    public static String getModelFile(Model model) {
+        switch (model) {
+            case QUANTIZED_MOBILENET:
+                return ClassifierQuantizedMobileNet.MODEL_PATH;
+            case FLOAT_EFFICIENTNET:
+                return ClassifierFloatEfficientNet.MODEL_PATH;
+            case QUANTIZED_EFFICIENTNET:
+                return ClassifierQuantizedEfficientNet.MODEL_PATH;
+            case FLOAT_MOBILENET:
+            default:
+                return ClassifierFloatMobileNet.MODEL_PATH;
         }
-        return recognitions;
     }
 
     /**
-     * Runs inference and returns the classification results.
+     * Creates a classifier with the interpreter configuration that runs fastest on this device.
+     * The first call benchmarks the CPU and NNAPI configurations, later ones reuse the persisted
+     * choice. The GPU delegate is left out: it is bound to the thread that created it, and tuned
+     * models are created on a loader thread but run on the classify stage.
+     */
+    public static Classifier2 createTuned(Context context, Model model, InterpreterTuner tuner)
+            throws IOException {
+        final String modelFile = getModelFile(model);
+        final MappedByteBuffer mappedModel = FileUtil.loadMappedFile(context, modelFile);
+        final boolean float32 = model == Model.FLOAT_MOBILENET || model == Model.FLOAT_EFFICIENTNET;
+        return tuner.createTuned(
+                modelFile, mappedModel, tuner.getCpuConfigs(float32), config -> create(context, model, config, mappedModel));
+    }
+
+    /**
+     * Creates a pool of single-threaded classifiers sharing one mapping of the model, for
+     * classifying several frames or faces in parallel. The GPU delegate is bound to the thread that
+     * created it, so pooled classifiers should run on the CPU or NNAPI.
+     *
+     * @param size Maximum number of classifiers, e.g. {@link InterpreterPool#getDefaultSize()}.
+     */
+    public static InterpreterPool<Classifier2> createPool(
+            Context context, Model model, Device device, int size) throws IOException {
+        return new InterpreterPool<>(
+                FileUtil.loadMappedFile(context, getModelFile(model)),
+                size,
+                mappedModel -> create(context, model, device, 1, mappedModel),
+                Classifier2::close);
+    }
+
+    /**
+     * Gets the top-k results of one image, read straight from the output buffer into reused
+     * recognitions.
+     *
+     * @param image Index of the image in a batched output.
+     */
+    private List<Recognition> getTopKProbability(
+            final ByteBuffer output,
+            final int image,
+            final Recognition[] pool,
+            final List<Recognition> results) {
+        final int count =
+                quantizedOutput
+                        ? topK.selectBytes(output, image * outputSize, numClasses)
+                        : topK.selectFloats(output, image * outputSize, numClasses);
+        final float mean = getProbabilityMean();
+        final float std = getProbabilityStd();
+        results.clear();
+        for (int i = 0; i < count; ++i) {
+            final String label = labels.get(topK.getIndex(i));
+            final Recognition recognition = pool[i];
+            recognition.set(label, label, (topK.getScore(i) - mean) / std);
+            results.add(recognition);
+        }
+        return results;
+    }
+
+    /**
+     * Runs inference and returns the classification results, best first. The list and its
+     * recognitions are reused by the next call on this classifier.
      */
     public List<Recognition> recognizeImage(final Bitmap bitmap, int sensorOrientation) {
         // Logs this method so that it can be analyzed with systrace.
         Trace.beginSection("recognizeImage");
 
         Trace.beginSection("loadImage");
-        long startTimeForLoadImage = SystemClock.uptimeMillis();
-        inputImageBuffer = loadImage(bitmap, sensorOrientation);
-        long endTimeForLoadImage = SystemClock.uptimeMillis();
+        final long startNanos = System.nanoTime();
+        loadImage(bitmap, sensorOrientation);
+        latencies.record(InferenceLatencies.PREPROCESS, startNanos);
         Trace.endSection();
-        LOGGER.v("Timecost to load the image: " + (endTimeForLoadImage - startTimeForLoadImage));
 
-        // Runs the inference call.
-        Trace.beginSection("runInference");
-        long startTimeForReference = SystemClock.uptimeMillis();
-        tflite.run(inputImageBuffer.getBuffer(), outputProbabilityBuffer.getBuffer().rewind());
-        long endTimeForReference = SystemClock.uptimeMillis();
+        final List<Recognition> recognitions = runInference(inputBuffer);
+        Trace.endSection();
+        return recognitions;
+    }
+
+    /**
+     * Runs inference on the luminance (Y) plane of a camera frame. The plane is center cropped,
+     * resized and rotated like {@link #recognizeImage}, and each sample is replicated into the three
+     * input channels, so the classifier sees the same grayscale image without an ARGB conversion
+     * or a desaturating redraw. The results are reused like those of {@link #recognizeImage}.
+     *
+     * @param luminance         The Y plane, one byte per pixel, read with absolute gets.
+     * @param width             Frame width in pixels.
+     * @param height            Frame height in pixels.
+     * @param rowStride         Distance in bytes between the starts of two rows of the plane.
+     * @param sensorOrientation Rotation to apply, a multiple of 90 degrees.
+     */
+    public List<Recognition> recognizeLuminance(
+            final ByteBuffer luminance,
+            final int width,
+            final int height,
+            final int rowStride,
+            final int sensorOrientation) {
+        Trace.beginSection("recognizeLuminance");
+
+        Trace.beginSection("loadLuminance");
+        final long startNanos = System.nanoTime();
+        inputWriter.writeLuminance(luminance, width, height, rowStride, sensorOrientation, inputBuffer);
+        latencies.record(InferenceLatencies.PREPROCESS, startNanos);
+        Trace.endSection();
+
+        final List<Recognition> recognitions = runInference(inputBuffer);
         Trace.endSection();
-        LOGGER.v("Timecost to run model inference: " + (endTimeForReference - startTimeForReference));
+        return recognitions;
+    }
 
-        // Gets the map of label and probability.
-        Map<String, Float> labeledProbability =
-                new TensorLabel(labels, probabilityProcessor.process(outputProbabilityBuffer))
-                        .getMapWithFloatValue();
+    /**
+     * Runs inference on a square region of the luminance plane, e.g. a padded face box, resized
+     * straight to the input size and rotated like {@link #recognizeLuminance}. Parts of the region
+     * past the frame border repeat the edge pixels. The results are reused like those of
+     * {@link #recognizeImage}.
+     *
+     * @param left Left edge of the region in frame pixels, may be negative.
+     * @param top  Top edge of the region in frame pixels, may be negative.
+     * @param size Side of the region in frame pixels.
+     * @see #recognizeLuminance(ByteBuffer, int, int, int, int)
+     */
+    public List<Recognition> recognizeLuminance(
+            final ByteBuffer luminance,
+            final int width,
+            final int height,
+            final int rowStride,
+            final int left,
+            final int top,
+            final int size,
+            final int sensorOrientation) {
+        Trace.beginSection("recognizeLuminanceRegion");
+
+        Trace.beginSection("loadLuminanceRegion");
+        final long startNanos = System.nanoTime();
+        inputWriter.writeLuminanceRegion(
+                luminance, width, height, rowStride, left, top, size, sensorOrientation, inputBuffer);
+        latencies.record(InferenceLatencies.PREPROCESS, startNanos);
+        Trace.endSection();
+
+        final List<Recognition> recognitions = runInference(inputBuffer);
+        Trace.endSection();
+        return recognitions;
+    }
+
+    /**
+     * Runs inference on several square regions of the luminance plane, e.g. all faces of a frame,
+     * prepared like {@link #recognizeLuminance(ByteBuffer, int, int, int, int, int, int, int)}.
+     * Regions are packed into batches that run as one inference each; the batch size grows while
+     * batches fit a latency budget, up to four images. Results match those of running the regions
+     * one at a time.
+     *
+     * <p>Changing the batch size reallocates the interpreter tensors, so every batch of a call has
+     * the same size, the last one padded by repeating its last region, and the size is kept while
+     * calls need fewer regions for a while, see {@link #SHRINK_AFTER_CALLS}. Callers should not
+     * interleave this with the single image methods on every frame either.
+     *
+     * @param regions Left, top and size of each region, packed.
+     * @param count   Number of regions.
+     * @return The classification results of each region, in order. The lists and recognitions are
+     * reused by the next batched call on this classifier.
+     */
+    @Override
+    public List<List<Recognition>> recognizeLuminance(
+            final ByteBuffer luminance,
+            final int width,
+            final int height,
+            final int rowStride,
+            final int[] regions,
+            final int count,
+            final int sensorOrientation) {
+        Trace.beginSection("recognizeLuminanceBatch");
+        batchRecognitions.clear();
+        final int batchSize = getBatchSize(count);
+        for (int first = 0; first < count; first += batchSize) {
+            final int images = Math.min(count - first, batchSize);
+            final ByteBuffer input = getBatchInput(batchSize);
+
+            Trace.beginSection("loadLuminanceBatch");
+            final long startNanos = System.nanoTime();
+            for (int i = first; i < first + images; ++i) {
+                inputWriter.writeLuminanceRegion(
+                        luminance,
+                        width,
+                        height,
+                        rowStride,
+                        regions[3 * i],
+                        regions[3 * i + 1],
+                        regions[3 * i + 2],
+                        sensorOrientation,
+                        inputBuffer);
+                input.put(inputBuffer);
+                inputBuffer.rewind();
+            }
+            // Fill the rest of the last batch with copies of its last region; their results are
+            // ignored.
+            while (input.hasRemaining()) {
+                input.put(inputBuffer);
+                inputBuffer.rewind();
+            }
+            input.rewind();
+            latencies.record(InferenceLatencies.PREPROCESS, startNanos);
+            Trace.endSection();
+
+            runBatch(input, first, images, batchSize);
+        }
+        Trace.endSection();
+        return batchRecognitions;
+    }
+
+    private void runBatch(
+            final ByteBuffer input, final int first, final int images, final int batchSize) {
+        Trace.beginSection("runInferenceBatch");
+        final boolean resized = resizeInput(batchSize);
+        final ByteBuffer output = batchOutputs[batchSize - 1];
+        final long startNanos = System.nanoTime();
+        tflite.run(input, output.rewind());
+        final long endNanos = latencies.recordRun(tflite, startNanos);
+        // The first run after a resize also allocates the tensors, which says little about the
+        // latency of the batch size; the next run at this size is measured instead.
+        if (!resized) {
+            batchSizes.update(batchSize, (endNanos - startNanos) / 1000);
+        }
+        Trace.endSection();
+
+        for (int i = first; i < first + images; ++i) {
+            if (i == batchRecognitionPools.size()) {
+                final Recognition[] pool = new Recognition[MAX_RESULTS];
+                for (int j = 0; j < MAX_RESULTS; ++j) {
+                    pool[j] = new Recognition(null, null, 0f, null);
+                }
+                batchRecognitionPools.add(pool);
+                batchResults.add(new ArrayList<>(MAX_RESULTS));
+            }
+            batchRecognitions.add(
+                    getTopKProbability(
+                            output, i - first, batchRecognitionPools.get(i), batchResults.get(i)));
+        }
+        latencies.record(InferenceLatencies.POSTPROCESS, endNanos);
+    }
+
+    /**
+     * Returns the batch size for a call classifying {@code count} regions: enough for all of them
+     * within the size the controller allows, but the current size while that suffices, until
+     * {@link #SHRINK_AFTER_CALLS} calls in a row needed less. Frames with a varying number of faces
+     * thus keep the input tensor at one size instead of resizing it on every call, and the runs at
+     * that size keep feeding the controller.
+     */
+    private int getBatchSize(final int count) {
+        final int allowed = batchSizes.getBatchSize();
+        final int needed = Math.min(count, allowed);
+        final int current = inputShape[0];
+        if (needed >= current || current > allowed || ++smallerCalls >= SHRINK_AFTER_CALLS) {
+            smallerCalls = 0;
+            return needed;
+        }
+        return current;
+    }
+
+    /**
+     * Returns the input for a batch of {@code batchSize} images, allocating the batch buffers on
+     * first use.
+     */
+    private ByteBuffer getBatchInput(final int batchSize) {
+        if (batchInputs == null) {
+            final int maxBatchSize = batchSizes.getMaxBatchSize();
+            batchInputs = slice(inputBuffer.capacity(), maxBatchSize);
+            batchOutputs = slice(outputProbabilityBuffer.getBuffer().capacity(), maxBatchSize);
+        }
+        final ByteBuffer input = batchInputs[batchSize - 1];
+        input.rewind();
+        return input;
+    }
+
+    // Views of the first 1, 2, ... count items of one buffer of count items.
+    private static ByteBuffer[] slice(final int itemBytes, final int count) {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(itemBytes * count);
+        final ByteBuffer[] slices = new ByteBuffer[count];
+        for (int i = 0; i < count; ++i) {
+            final ByteBuffer view = buffer.duplicate();
+            view.limit(itemBytes * (i + 1));
+            slices[i] = view.slice().order(ByteOrder.nativeOrder());
+        }
+        return slices;
+    }
+
+    /**
+     * Resizes the batch dimension of the input tensor; the interpreter reallocates its tensors on
+     * the next run.
+     *
+     * @return Whether the batch size changed.
+     */
+    private boolean resizeInput(final int batchSize) {
+        if (inputShape[0] == batchSize) {
+            return false;
+        }
+        inputShape[0] = batchSize;
+        tflite.resizeInput(0, inputShape);
+        return true;
+    }
+
+    /**
+     * Runs the model once on a blank input, so that the first real classification does not pay
+     * for memory planning and delegate initialization.
+     */
+    @Override
+    public void warmUp() {
+        Trace.beginSection("warmUp");
+        resizeInput(1);
+        inputBuffer.rewind();
+        tflite.run(inputBuffer, outputProbabilityBuffer.getBuffer().rewind());
+        inputBuffer.rewind();
+        Trace.endSection();
+    }
+
+    private List<Recognition> runInference(final ByteBuffer input) {
+        // Runs the inference call.
+        Trace.beginSection("runInference");
+        resizeInput(1);
+        long startNanos = System.nanoTime();
+        tflite.run(input, outputProbabilityBuffer.getBuffer().rewind());
+        startNanos = latencies.recordRun(tflite, startNanos);
         Trace.endSection();
 
         // Gets top-k results.
-        return getTopKProbability(labeledProbability);
+        final List<Recognition> results =
+                getTopKProbability(
+                        outputProbabilityBuffer.getBuffer(), 0, recognitionPool, recognitions);
+        latencies.record(InferenceLatencies.POSTPROCESS, startNanos);
+        return results;
+    }
+
+    /**
+     * Turns latency recording on or off; it is on by default. Turning it on starts a new window.
+     */
+    @Override
+    public void enableStatLogging(final boolean logStats) {
+        latencies.setEnabled(logStats);
+    }
+
+    /**
+     * Returns the p50, p90, p99 and max latency of the preprocess, feed, run and postprocess stages,
+     * one stage per line.
+     */
+    @Override
+    public String getStatString() {
+        return latencies.getStatString();
     }
 
     /**
      * Closes the interpreter and model to release resources.
      */
+    @Override
     public void close() {
         if (tflite != null) {
             tflite.close();
@@ -240,6 +664,14 @@ public abstract class Classifier2 {
         tfliteModel = null;
     }
 
+    /**
+     * Returns the labels of the model outputs, e.g. to smooth the results over frames.
+     */
+    @Override
+    public List<String> getLabels() {
+        return labels;
+    }
+
     /**
      * Get the image size along the x axis.
      */
@@ -255,24 +687,17 @@ public abstract class Classifier2 {
     }
 
     /**
-     * Loads input image, and applies preprocessing.
-     */
-    private TensorImage loadImage(final Bitmap bitmap, int sensorOrientation) {
-        // Loads bitmap into a TensorImage.
-        inputImageBuffer.load(bitmap);
-
-        // Creates processor for the TensorImage.
-        int cropSize = Math.min(bitmap.getWidth(), bitmap.getHeight());
-        int numRotation = sensorOrientation / 90;
-        // TODO(b/143564309): Fuse ops inside ImageProcessor.
-        ImageProcessor imageProcessor =
-                new ImageProcessor.Builder()
-                        .add(new ResizeWithCropOrPadOp(cropSize, cropSize))
-                        .add(new ResizeOp(imageSizeX, imageSizeY, ResizeMethod.NEAREST_NEIGHBOR))
-                        .add(new Rot90Op(numRotation))
-                        .add(getPreprocessNormalizeOp())
-                        .build();
-        return imageProcessor.process(inputImageBuffer);
+     * Loads input image into the input buffer, center cropped, resized with nearest neighbour
+     * sampling, rotated by {@code sensorOrientation} and normalized in one pass.
+     */
+    private void loadImage(final Bitmap bitmap, int sensorOrientation) {
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        if (bitmapPixels.length != width * height) {
+            bitmapPixels = new int[width * height];
+        }
+        bitmap.getPixels(bitmapPixels, 0, width, 0, 0, width, height);
+        inputWriter.writeArgb(bitmapPixels, width, height, width, sensorOrientation, inputBuffer);
     }
 
     /**
@@ -286,19 +711,29 @@ public abstract class Classifier2 {
     protected abstract String getLabelPath();
 
     /**
-     * Gets the TensorOperator to nomalize the input image in preprocessing.
+     * Gets the mean subtracted from input pixel values in preprocessing.
+     */
+    protected abstract float getImageMean();
+
+    /**
+     * Gets the standard deviation input pixel values are divided by in preprocessing.
      */
-    protected abstract TensorOperator getPreprocessNormalizeOp();
+    protected abstract float getImageStd();
 
     /**
-     * Gets the TensorOperator to dequantize the output probability in post processing.
+     * Gets the mean subtracted from the output probabilities in post processing.
      *
-     * <p>For quantized model, we need de-quantize the prediction with NormalizeOp (as they are all
-     * essentially linear transformation). For float model, de-quantize is not required. But to
+     * <p>For quantized model, we need de-quantize the prediction with a normalization (as they are
+     * all essentially linear transformation). For float model, de-quantize is not required. But to
      * uniform the API, de-quantize is added to float model too. Mean and std are set to 0.0f and
      * 1.0f, respectively.
      */
-    protected abstract TensorOperator getPostprocessNormalizeOp();
+    protected abstract float getProbabilityMean();
+
+    /**
+     * Gets the standard deviation the output probabilities are divided by in post processing.
+     */
+    protected abstract float getProbabilityStd();
 
     /**
      * The model type used for classification.
@@ -320,24 +755,25 @@ public abstract class Classifier2 {
     }
 
     /**
-     * An immutable result returned by a Classifier describing what was recognized.
+     * A result returned by a Classifier describing what was recognized. The classifier refills its
+     * recognitions in place on every call, so copy them to keep them across calls.
      */
     public static class Recognition {
         /**
          * A unique identifier for what has been recognized. Specific to the class, not the instance of
          * the object.
          */
-        private final String id;
+        private String id;
 
         /**
          * Display name for the recognition.
          */
-        private final String title;
+        private String title;
 
         /**
          * A sortable score for how good the recognition is relative to others. Higher should be better.
          */
-        private final Float confidence;
+        private float confidence;
 
         /**
          * Optional location within the source image for the location of the recognized object.
@@ -345,13 +781,26 @@ public abstract class Classifier2 {
         private RectF location;
 
         public Recognition(
-                final String id, final String title, final Float confidence, final RectF location) {
+                final String id, final String title, final float confidence, final RectF location) {
             this.id = id;
             this.title = title;
             this.confidence = confidence;
             this.location = location;
         }
 
+        /**
+         * Returns a copy that is not refilled by the classifier.
+         */
+        public Recognition copy() {
+            return new Recognition(id, title, confidence, location != null ? new RectF(location) : null);
+        }
+
+        void set(final String id, final String title, final float confidence) {
+            this.id = id;
+            this.title = title;
+            this.confidence = confidence;
+        }
+
         public String getId() {
             return id;
         }
@@ -360,7 +809,7 @@ public abstract class Classifier2 {
             return title;
         }
 
-        public Float getConfidence() {
+        public float getConfidence() {
             return confidence;
         }
 
@@ -383,9 +832,7 @@ public abstract class Classifier2 {
                 resultString += title + " ";
             }
 
-            if (confidence != null) {
-                resultString += String.format("(%.1f%%) ", confidence * 100.0f);
-            }
+            resultString += String.format("(%.1f%%) ", confidence * 100.0f);
 
             if (location != null) {
                 resultString += location + " ";
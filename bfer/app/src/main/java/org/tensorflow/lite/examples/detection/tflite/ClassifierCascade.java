@@ -0,0 +1,228 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.os.Trace;
+
+import org.tensorflow.lite.examples.detection.env.Logger;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Classifies faces with a small model first, and escalates to a heavier model only the faces the
+ * small model is unsure about: those where the top result beats the runner-up by less than the
+ * margin threshold. Both models must share their labels.
+ *
+ * <p>The cascade counts how many faces it escalates and how long classifying takes per face. The
+ * latency saved is the average time per face of the heavy model, measured on the escalated faces,
+ * minus the average time per face of the cascade.
+ */
+public class ClassifierCascade implements ExpressionClassifier {
+    private static final Logger LOGGER = new Logger();
+
+    // Faces classified between two log lines about the escalation rate.
+    private static final int LOG_INTERVAL = 500;
+
+    private final ExpressionClassifier small;
+    private final ExpressionClassifier full;
+    private volatile float marginThreshold;
+
+    // Results of the last call, each list owned by the model that produced it.
+    private final List<List<Classifier2.Recognition>> results = new ArrayList<>();
+    // Regions escalated to the full model, packed, and the index of each among all regions.
+    private int[] escalatedRegions = new int[0];
+    private int[] escalatedIndices = new int[0];
+
+    // Counted since the stats were last reset.
+    private long numFaces;
+    private long numEscalated;
+    private long smallNanos;
+    private long fullNanos;
+
+    /**
+     * @param small           Runs on every face.
+     * @param full            Runs on the faces the small model is unsure about.
+     * @param marginThreshold Difference between the two best probabilities of the small model
+     *                        below which a face is escalated.
+     * @throws IllegalArgumentException If the models have different labels.
+     */
+    public ClassifierCascade(
+            final ExpressionClassifier small,
+            final ExpressionClassifier full,
+            final float marginThreshold) {
+        if (!small.getLabels().equals(full.getLabels())) {
+            throw new IllegalArgumentException("Cascaded models must share their labels");
+        }
+        this.small = small;
+        this.full = full;
+        this.marginThreshold = marginThreshold;
+    }
+
+    public void setMarginThreshold(final float marginThreshold) {
+        this.marginThreshold = marginThreshold;
+    }
+
+    /**
+     * Returns how much the best result beats the runner-up, or the best result itself if there is
+     * only one.
+     */
+    static float getMargin(final List<Classifier2.Recognition> recognitions) {
+        if (recognitions.isEmpty()) {
+            return 0f;
+        }
+        final float best = recognitions.get(0).getConfidence();
+        return recognitions.size() > 1 ? best - recognitions.get(1).getConfidence() : best;
+    }
+
+    @Override
+    public List<List<Classifier2.Recognition>> recognizeLuminance(
+            final ByteBuffer luminance,
+            final int width,
+            final int height,
+            final int rowStride,
+            final int[] regions,
+            final int count,
+            final int sensorOrientation) {
+        Trace.beginSection("recognizeCascade");
+        final long startNanos = System.nanoTime();
+        final List<List<Classifier2.Recognition>> smallResults =
+                small.recognizeLuminance(
+                        luminance, width, height, rowStride, regions, count, sensorOrientation);
+        final long smallEndNanos = System.nanoTime();
+
+        results.clear();
+        int escalated = 0;
+        for (int i = 0; i < count; ++i) {
+            results.add(smallResults.get(i));
+            if (getMargin(smallResults.get(i)) < marginThreshold) {
+                if (escalatedIndices.length == escalated) {
+                    escalatedIndices = Arrays.copyOf(escalatedIndices, escalated + 1);
+                    escalatedRegions = Arrays.copyOf(escalatedRegions, 3 * (escalated + 1));
+                }
+                System.arraycopy(regions, 3 * i, escalatedRegions, 3 * escalated, 3);
+                escalatedIndices[escalated++] = i;
+            }
+        }
+        if (escalated > 0) {
+            final List<List<Classifier2.Recognition>> fullResults =
+                    full.recognizeLuminance(
+                            luminance,
+                            width,
+                            height,
+                            rowStride,
+                            escalatedRegions,
+                            escalated,
+                            sensorOrientation);
+            for (int i = 0; i < escalated; ++i) {
+                results.set(escalatedIndices[i], fullResults.get(i));
+            }
+        }
+        record(count, escalated, smallEndNanos - startNanos, System.nanoTime() - smallEndNanos);
+        Trace.endSection();
+        return results;
+    }
+
+    // Counts a call that classified the given number of faces, escalating some of them.
+    synchronized void record(
+            final int faces, final int escalated, final long smallTime, final long fullTime) {
+        final long before = numFaces;
+        numFaces += faces;
+        numEscalated += escalated;
+        smallNanos += smallTime;
+        fullNanos += escalated > 0 ? fullTime : 0;
+        if (before / LOG_INTERVAL != numFaces / LOG_INTERVAL) {
+            LOGGER.i("%s", getCascadeString());
+        }
+    }
+
+    /**
+     * Returns the fraction of faces escalated to the full model, 0 before any face.
+     */
+    public synchronized float getEscalationRate() {
+        return numFaces > 0 ? numEscalated / (float) numFaces : 0f;
+    }
+
+    /**
+     * Returns the average latency saved per face compared to running the full model on every face,
+     * in microseconds, or 0 while no face was escalated to time the full model on.
+     */
+    public synchronized float getSavedMicrosPerFace() {
+        if (numEscalated == 0) {
+            return 0f;
+        }
+        final float fullPerFace = fullNanos / (float) numEscalated;
+        final float cascadePerFace = (smallNanos + fullNanos) / (float) numFaces;
+        return (fullPerFace - cascadePerFace) / 1000f;
+    }
+
+    private synchronized String getCascadeString() {
+        return String.format(
+                "cascade escalated %.0f%% of %d faces, saved %.1f ms per face",
+                100 * getEscalationRate(), numFaces, getSavedMicrosPerFace() / 1000f);
+    }
+
+    @Override
+    public List<String> getLabels() {
+        return small.getLabels();
+    }
+
+    /**
+     * Turns latency recording of both models on or off. Turning it on also restarts the
+     * escalation counts.
+     */
+    @Override
+    public void enableStatLogging(final boolean logStats) {
+        small.enableStatLogging(logStats);
+        full.enableStatLogging(logStats);
+        if (logStats) {
+            synchronized (this) {
+                numFaces = 0;
+                numEscalated = 0;
+                smallNanos = 0;
+                fullNanos = 0;
+            }
+        }
+    }
+
+    /**
+     * Returns the latencies of both models, followed by the escalation rate and the latency saved.
+     */
+    @Override
+    public String getStatString() {
+        final StringBuilder builder = new StringBuilder();
+        for (final String stats : new String[] {small.getStatString(), full.getStatString()}) {
+            if (!stats.isEmpty()) {
+                builder.append(stats).append('\n');
+            }
+        }
+        return builder.append(getCascadeString()).toString();
+    }
+
+    @Override
+    public void warmUp() {
+        small.warmUp();
+        full.warmUp();
+    }
+
+    @Override
+    public void close() {
+        small.close();
+        full.close();
+    }
+}
@@ -15,18 +15,21 @@ limitations under the License.
 
 package org.tensorflow.lite.examples.detection.tflite;
 
-import android.app.Activity;
-
-import org.tensorflow.lite.support.common.TensorOperator;
-import org.tensorflow.lite.support.common.ops.NormalizeOp;
+import android.content.Context;
 
 import java.io.IOException;
+import java.nio.MappedByteBuffer;
 
 /**
  * This TensorFlowLite classifier works with the float MobileNet model.
  */
 public class ClassifierFloatMobileNet extends Classifier2 {
 
+    /**
+     * Model file in the assets.
+     */
+    static final String MODEL_PATH = "expression_graph.tflite";
+
     /**
      * Float MobileNet requires additional normalization of the used input.
      */
@@ -45,11 +48,32 @@ public class ClassifierFloatMobileNet extends Classifier2 {
     /**
      * Initializes a {@code ClassifierFloatMobileNet}.
      *
-     * @param activity
+     * @param context
+     */
+    public ClassifierFloatMobileNet(Context context, Device device, int numThreads)
+            throws IOException {
+        super(context, device, numThreads);
+    }
+
+    /**
+     * Initializes a {@code ClassifierFloatMobileNet} running an already mapped model.
+     *
+     * @param model The mapped model, or null to map it.
+     */
+    public ClassifierFloatMobileNet(
+            Context context, Device device, int numThreads, MappedByteBuffer model)
+            throws IOException {
+        super(context, device, numThreads, model);
+    }
+
+    /**
+     * Initializes a {@code ClassifierFloatMobileNet} with an interpreter configuration.
+     *
+     * @param model The mapped model, or null to map it.
      */
-    public ClassifierFloatMobileNet(Activity activity, Device device, int numThreads)
+    public ClassifierFloatMobileNet(Context context, InterpreterConfig config, MappedByteBuffer model)
             throws IOException {
-        super(activity, device, numThreads);
+        super(context, config, model);
     }
 
     @Override
@@ -57,7 +81,7 @@ public class ClassifierFloatMobileNet extends Classifier2 {
         // you can download this file from
         // see build.gradle for where to obtain this file. It should be auto
         // downloaded into assets.
-        return "expression_graph.tflite";
+        return MODEL_PATH;
     }
 
     @Override
@@ -66,12 +90,22 @@ public class ClassifierFloatMobileNet extends Classifier2 {
     }
 
     @Override
-    protected TensorOperator getPreprocessNormalizeOp() {
-        return new NormalizeOp(IMAGE_MEAN, IMAGE_STD);
+    protected float getImageMean() {
+        return IMAGE_MEAN;
+    }
+
+    @Override
+    protected float getImageStd() {
+        return IMAGE_STD;
+    }
+
+    @Override
+    protected float getProbabilityMean() {
+        return PROBABILITY_MEAN;
     }
 
     @Override
-    protected TensorOperator getPostprocessNormalizeOp() {
-        return new NormalizeOp(PROBABILITY_MEAN, PROBABILITY_STD);
+    protected float getProbabilityStd() {
+        return PROBABILITY_STD;
     }
 }
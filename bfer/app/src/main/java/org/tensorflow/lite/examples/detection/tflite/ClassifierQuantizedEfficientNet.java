@@ -0,0 +1,109 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.content.Context;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+
+/**
+ * This TensorFlowLite classifier works with the quantized EfficientNet model.
+ */
+public class ClassifierQuantizedEfficientNet extends Classifier2 {
+
+    /**
+     * Model file in the assets.
+     */
+    static final String MODEL_PATH = "expression_efficientnet_quant.tflite";
+
+    /**
+     * The quantized model does not require normalization, thus set mean as 0.0f, and std as 1.0f to
+     * bypass the normalization.
+     */
+    private static final float IMAGE_MEAN = 0.0f;
+
+    private static final float IMAGE_STD = 1.0f;
+
+    /**
+     * Quantized model requires dequantization of the uint8 output probabilities into [0, 1].
+     */
+    private static final float PROBABILITY_MEAN = 0.0f;
+
+    private static final float PROBABILITY_STD = 255.0f;
+
+    /**
+     * Initializes a {@code ClassifierQuantizedEfficientNet}.
+     *
+     * @param context
+     */
+    public ClassifierQuantizedEfficientNet(Context context, Device device, int numThreads)
+            throws IOException {
+        super(context, device, numThreads);
+    }
+
+    /**
+     * Initializes a {@code ClassifierQuantizedEfficientNet} running an already mapped model.
+     *
+     * @param model The mapped model, or null to map it.
+     */
+    public ClassifierQuantizedEfficientNet(
+            Context context, Device device, int numThreads, MappedByteBuffer model)
+            throws IOException {
+        super(context, device, numThreads, model);
+    }
+
+    /**
+     * Initializes a {@code ClassifierQuantizedEfficientNet} with an interpreter configuration.
+     *
+     * @param model The mapped model, or null to map it.
+     */
+    public ClassifierQuantizedEfficientNet(
+            Context context, InterpreterConfig config, MappedByteBuffer model)
+            throws IOException {
+        super(context, config, model);
+    }
+
+    @Override
+    protected String getModelPath() {
+        return MODEL_PATH;
+    }
+
+    @Override
+    protected String getLabelPath() {
+        return "expression_labels.txt";
+    }
+
+    @Override
+    protected float getImageMean() {
+        return IMAGE_MEAN;
+    }
+
+    @Override
+    protected float getImageStd() {
+        return IMAGE_STD;
+    }
+
+    @Override
+    protected float getProbabilityMean() {
+        return PROBABILITY_MEAN;
+    }
+
+    @Override
+    protected float getProbabilityStd() {
+        return PROBABILITY_STD;
+    }
+}
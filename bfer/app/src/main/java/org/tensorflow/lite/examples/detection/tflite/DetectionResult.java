@@ -0,0 +1,197 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.graphics.RectF;
+
+/**
+ * Caller-owned holder for the detections of one frame, stored in flat primitive arrays so that it
+ * can be refilled for every frame without allocating. Boxes are in model input coordinates.
+ *
+ * <p>After {@link #suppress(float, float)} the detections are sorted by descending score, all above
+ * the score threshold, and no two of them overlap by more than the IoU threshold.
+ */
+public class DetectionResult {
+    private final int capacity;
+    private final float[] boxes;
+    private final float[] scores;
+    private final int[] classes;
+    private int count;
+
+    // Scratch space for suppress().
+    private final int[] order;
+    private final boolean[] suppressed;
+    private final float[] keptBoxes;
+    private final float[] keptScores;
+    private final int[] keptClasses;
+
+    /**
+     * @param capacity Maximum number of detections the holder keeps.
+     */
+    public DetectionResult(final int capacity) {
+        this.capacity = capacity;
+        boxes = new float[capacity * 4];
+        scores = new float[capacity];
+        classes = new int[capacity];
+        order = new int[capacity];
+        suppressed = new boolean[capacity];
+        keptBoxes = new float[capacity * 4];
+        keptScores = new float[capacity];
+        keptClasses = new int[capacity];
+    }
+
+    /**
+     * Copies the raw outputs of an SSD detection model, whose boxes are normalized
+     * [top, left, bottom, right], scaling the boxes by {@code inputSize}.
+     */
+    void set(
+            final float[][][] outputLocations,
+            final float[][] outputClasses,
+            final float[][] outputScores,
+            final float[] numDetections,
+            final int inputSize) {
+        // Some models output fewer detections than they have room for, so the count reported by
+        // the model is used rather than the size of the output arrays.
+        count = Math.min(
+                Math.min(capacity, outputScores[0].length), Math.max(0, (int) numDetections[0]));
+        for (int i = 0; i < count; ++i) {
+            final float[] location = outputLocations[0][i];
+            boxes[4 * i] = location[1] * inputSize;
+            boxes[4 * i + 1] = location[0] * inputSize;
+            boxes[4 * i + 2] = location[3] * inputSize;
+            boxes[4 * i + 3] = location[2] * inputSize;
+            scores[i] = outputScores[0][i];
+            classes[i] = (int) outputClasses[0][i];
+        }
+    }
+
+    /**
+     * Drops detections scoring below {@code minScore}, then runs greedy non-maximum suppression:
+     * walking the detections from the highest score down, a detection is kept unless it overlaps an
+     * already kept one with an intersection over union above {@code iouThreshold}. The kept
+     * detections are compacted to the front in descending score order.
+     */
+    public void suppress(final float minScore, final float iouThreshold) {
+        // Insertion sort of the indices above threshold; there are only a handful of detections.
+        int n = 0;
+        for (int i = 0; i < count; ++i) {
+            if (scores[i] < minScore) {
+                continue;
+            }
+            int j = n++;
+            while (j > 0 && scores[order[j - 1]] < scores[i]) {
+                order[j] = order[j - 1];
+                --j;
+            }
+            order[j] = i;
+        }
+
+        for (int i = 0; i < n; ++i) {
+            suppressed[i] = false;
+        }
+        int kept = 0;
+        for (int i = 0; i < n; ++i) {
+            if (suppressed[i]) {
+                continue;
+            }
+            final int a = order[i];
+            System.arraycopy(boxes, 4 * a, keptBoxes, 4 * kept, 4);
+            keptScores[kept] = scores[a];
+            keptClasses[kept] = classes[a];
+            ++kept;
+            for (int j = i + 1; j < n; ++j) {
+                if (!suppressed[j] && iou(a, order[j]) > iouThreshold) {
+                    suppressed[j] = true;
+                }
+            }
+        }
+
+        System.arraycopy(keptBoxes, 0, boxes, 0, 4 * kept);
+        System.arraycopy(keptScores, 0, scores, 0, kept);
+        System.arraycopy(keptClasses, 0, classes, 0, kept);
+        count = kept;
+    }
+
+    // Intersection over union of detections a and b.
+    private float iou(final int a, final int b) {
+        final float left = Math.max(boxes[4 * a], boxes[4 * b]);
+        final float top = Math.max(boxes[4 * a + 1], boxes[4 * b + 1]);
+        final float right = Math.min(boxes[4 * a + 2], boxes[4 * b + 2]);
+        final float bottom = Math.min(boxes[4 * a + 3], boxes[4 * b + 3]);
+        if (right <= left || bottom <= top) {
+            return 0f;
+        }
+        final float intersection = (right - left) * (bottom - top);
+        final float areaA = (boxes[4 * a + 2] - boxes[4 * a]) * (boxes[4 * a + 3] - boxes[4 * a + 1]);
+        final float areaB = (boxes[4 * b + 2] - boxes[4 * b]) * (boxes[4 * b + 3] - boxes[4 * b + 1]);
+        return intersection / (areaA + areaB - intersection);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public float getScore(final int i) {
+        return scores[i];
+    }
+
+    /**
+     * Returns the class index of detection {@code i}, as output by the model.
+     */
+    public int getClassIndex(final int i) {
+        return classes[i];
+    }
+
+    public float getLeft(final int i) {
+        return boxes[4 * i];
+    }
+
+    public float getTop(final int i) {
+        return boxes[4 * i + 1];
+    }
+
+    public float getRight(final int i) {
+        return boxes[4 * i + 2];
+    }
+
+    public float getBottom(final int i) {
+        return boxes[4 * i + 3];
+    }
+
+    /**
+     * Writes the box of detection {@code i} into {@code out}.
+     */
+    public void getLocation(final int i, final RectF out) {
+        out.set(boxes[4 * i], boxes[4 * i + 1], boxes[4 * i + 2], boxes[4 * i + 3]);
+    }
+
+    /**
+     * Returns the index of the highest scoring detection, or -1 if there are none.
+     */
+    public int getBestIndex() {
+        int best = -1;
+        for (int i = 0; i < count; ++i) {
+            if (best < 0 || scores[i] > scores[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,137 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The outputs of an SSD detection model, bound once to the interpreter, and their decoding into a
+ * DetectionResult. Float outputs are written straight into the arrays. Quantized outputs are read
+ * as raw bytes and dequantized into the same arrays by table lookup. Decoding reuses all of them,
+ * so it does not allocate.
+ */
+final class DetectorOutputs {
+    // Index of each output tensor.
+    static final int LOCATIONS = 0;
+    static final int CLASSES = 1;
+    static final int SCORES = 2;
+    static final int COUNT = 3;
+    static final int NUM_OUTPUTS = 4;
+
+    // Shapes [1, maxDetections, 4], [1, maxDetections], [1, maxDetections] and [1].
+    final float[][][] locations;
+    final float[][] classes;
+    final float[][] scores;
+    final float[] count;
+
+    // Raw bytes of each quantized output and its dequantization table, null for float ones.
+    private final ByteBuffer[] quantizedOutputs = new ByteBuffer[NUM_OUTPUTS];
+    private final float[][] dequantizationTables = new float[NUM_OUTPUTS][];
+
+    DetectorOutputs(final int maxDetections) {
+        locations = new float[1][maxDetections][4];
+        classes = new float[1][maxDetections];
+        scores = new float[1][maxDetections];
+        count = new float[1];
+    }
+
+    /**
+     * Returns the real value of each uint8 value of a quantized tensor.
+     */
+    static float[] dequantizationTable(final int zeroPoint, final float scale) {
+        final float[] table = new float[256];
+        for (int q = 0; q < 256; ++q) {
+            table[q] = (q - zeroPoint) * scale;
+        }
+        return table;
+    }
+
+    /**
+     * Reads an output as uint8 values from {@code buffer}, which must hold the whole tensor.
+     */
+    void setQuantized(final int output, final ByteBuffer buffer, final float[] table) {
+        quantizedOutputs[output] = buffer;
+        dequantizationTables[output] = table;
+    }
+
+    /**
+     * Returns what the interpreter writes an output to: its raw buffer when quantized, otherwise
+     * its array.
+     */
+    Object get(final int output) {
+        if (quantizedOutputs[output] != null) {
+            return quantizedOutputs[output];
+        }
+        switch (output) {
+            case LOCATIONS:
+                return locations;
+            case CLASSES:
+                return classes;
+            case SCORES:
+                return scores;
+            default:
+                return count;
+        }
+    }
+
+    /**
+     * Rewinds the raw buffers before the interpreter writes them.
+     */
+    void rewind() {
+        for (final ByteBuffer output : quantizedOutputs) {
+            if (output != null) {
+                output.rewind();
+            }
+        }
+    }
+
+    /**
+     * Dequantizes the outputs of the last run, then fills {@code result} with the detections in
+     * input coordinates, suppressed like {@link DetectionResult#suppress(float, float)}.
+     */
+    void decode(
+            final DetectionResult result,
+            final int inputSize,
+            final float minimumConfidence,
+            final float iouThreshold) {
+        if (quantizedOutputs[LOCATIONS] != null) {
+            final ByteBuffer src = quantizedOutputs[LOCATIONS];
+            final float[] table = dequantizationTables[LOCATIONS];
+            final float[][] dst = locations[0];
+            for (int i = 0, k = 0; i < dst.length; ++i) {
+                for (int j = 0; j < 4; ++j, ++k) {
+                    dst[i][j] = table[0xff & src.get(k)];
+                }
+            }
+        }
+        dequantize(CLASSES, classes[0]);
+        dequantize(SCORES, scores[0]);
+        dequantize(COUNT, count);
+        result.set(locations, classes, scores, count, inputSize);
+        result.suppress(minimumConfidence, iouThreshold);
+    }
+
+    private void dequantize(final int output, final float[] dst) {
+        final ByteBuffer src = quantizedOutputs[output];
+        if (src == null) {
+            return;
+        }
+        final float[] table = dequantizationTables[output];
+        for (int i = 0; i < dst.length; ++i) {
+            dst[i] = table[0xff & src.get(i)];
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Classifies the expression of faces, either with a single model, see {@link Classifier2}, or a
+ * cascade of models, see {@link ClassifierCascade}.
+ */
+public interface ExpressionClassifier extends InterpreterTuner.Tunable {
+    /**
+     * Classifies square regions of the luminance plane of a frame.
+     *
+     * @param regions Left, top and size of each region, packed.
+     * @param count   Number of regions.
+     * @return The classification results of each region, in order, best first. The lists and
+     * recognitions are reused by the next call.
+     * @see Classifier2#recognizeLuminance(ByteBuffer, int, int, int, int[], int, int)
+     */
+    List<List<Classifier2.Recognition>> recognizeLuminance(
+            ByteBuffer luminance,
+            int width,
+            int height,
+            int rowStride,
+            int[] regions,
+            int count,
+            int sensorOrientation);
+
+    /**
+     * Returns the expression labels the results use.
+     */
+    List<String> getLabels();
+
+    /**
+     * Turns latency recording on or off. Turning it on starts a new window.
+     */
+    void enableStatLogging(boolean logStats);
+
+    /**
+     * Returns the recorded latencies, one line per stage.
+     */
+    String getStatString();
+}
@@ -0,0 +1,194 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Smooths the expression probabilities of one face over frames with an exponential moving
+ * average, and tells when classifying the face again can be skipped: when the smoothed
+ * probabilities barely changed over the last few classifications and the face box has not moved
+ * since the last one, the last result is reused for up to {@link #MAX_SKIPPED_FRAMES} frames.
+ *
+ * <p>The recent smoothed probabilities are kept in a fixed ring buffer, so updating does not
+ * allocate. A box that no longer overlaps the previous one is taken for a different face and
+ * restarts the average.
+ */
+public class ExpressionSmoother {
+    // Weight of a new classification in the moving average.
+    private static final float SMOOTHING = 0.3f;
+    // Number of recent smoothed distributions compared to decide whether the face is stable.
+    private static final int HISTORY_SIZE = 5;
+    // Largest change of any smoothed probability over the history for the face to count as stable.
+    private static final float STABLE_DELTA = 0.05f;
+    // Largest shift of the box center and change of its size, relative to the box size, for the
+    // face to count as not moved.
+    private static final float MAX_MOVE = 0.1f;
+    // Frames in a row that may reuse the last result before the face is classified again.
+    static final int MAX_SKIPPED_FRAMES = 10;
+
+    private final List<String> labels;
+    private final float[] probabilities;
+    private final float[][] history;
+    private int historyCount = 0;
+    private int historyIndex = 0;
+    // Box of the face at the last classification, empty before the first one.
+    private float left;
+    private float top;
+    private float right;
+    private float bottom;
+    private int skippedFrames = 0;
+
+    // Smoothed results, sorted by descending probability and refilled in place.
+    private final Classifier2.Recognition[] recognitionPool;
+    private final List<Classifier2.Recognition> recognitions;
+
+    /**
+     * @param labels Labels of the classifier, see {@link Classifier2#getLabels()}.
+     */
+    public ExpressionSmoother(final List<String> labels) {
+        this.labels = labels;
+        probabilities = new float[labels.size()];
+        history = new float[HISTORY_SIZE][labels.size()];
+        recognitionPool = new Classifier2.Recognition[labels.size()];
+        for (int i = 0; i < recognitionPool.length; ++i) {
+            recognitionPool[i] = new Classifier2.Recognition(null, null, 0f, null);
+        }
+        recognitions = new ArrayList<>(labels.size());
+    }
+
+    /**
+     * Returns whether the face in the given box may reuse the last result instead of being
+     * classified: the smoothed probabilities are stable, the box has not moved and fewer than
+     * {@link #MAX_SKIPPED_FRAMES} frames were skipped in a row.
+     */
+    public boolean canSkip(final float left, final float top, final float right, final float bottom) {
+        return historyCount == HISTORY_SIZE
+                && skippedFrames < MAX_SKIPPED_FRAMES
+                && isStable()
+                && !hasMoved(left, top, right, bottom);
+    }
+
+    /**
+     * Records that the face was not classified this frame.
+     */
+    public void skip() {
+        ++skippedFrames;
+    }
+
+    /**
+     * Adds a classification of the face to the average.
+     *
+     * @param results Results of the classifier; classes missing from them count as 0. The box of
+     *                the face in this frame follows.
+     */
+    public void update(
+            final List<Classifier2.Recognition> results,
+            final float left,
+            final float top,
+            final float right,
+            final float bottom) {
+        if (historyCount > 0 && !overlaps(left, top, right, bottom)) {
+            reset();
+        }
+        final float weight = historyCount == 0 ? 1f : SMOOTHING;
+        for (int i = 0; i < probabilities.length; ++i) {
+            probabilities[i] -= weight * probabilities[i];
+        }
+        for (int i = 0; i < results.size(); ++i) {
+            final int index = labels.indexOf(results.get(i).getTitle());
+            if (index >= 0) {
+                probabilities[index] += weight * results.get(i).getConfidence();
+            }
+        }
+
+        System.arraycopy(probabilities, 0, history[historyIndex], 0, probabilities.length);
+        historyIndex = (historyIndex + 1) % HISTORY_SIZE;
+        historyCount = Math.min(historyCount + 1, HISTORY_SIZE);
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+        skippedFrames = 0;
+    }
+
+    /**
+     * Forgets the face, e.g. when it is lost.
+     */
+    public void reset() {
+        Arrays.fill(probabilities, 0f);
+        historyCount = 0;
+        historyIndex = 0;
+        skippedFrames = 0;
+        left = 0;
+        top = 0;
+        right = 0;
+        bottom = 0;
+    }
+
+    /**
+     * Returns the smoothed results, best first. The list and its recognitions are refilled by the
+     * next call.
+     */
+    public List<Classifier2.Recognition> getRecognitions() {
+        recognitions.clear();
+        for (int i = 0; i < probabilities.length; ++i) {
+            // Insertion into the sorted prefix; there are only a handful of expressions.
+            int j = i;
+            while (j > 0 && recognitions.get(j - 1).getConfidence() < probabilities[i]) {
+                --j;
+            }
+            final Classifier2.Recognition recognition = recognitionPool[i];
+            recognition.set(labels.get(i), labels.get(i), probabilities[i]);
+            recognitions.add(j, recognition);
+        }
+        return recognitions;
+    }
+
+    private boolean isStable() {
+        for (final float[] past : history) {
+            for (int i = 0; i < probabilities.length; ++i) {
+                if (Math.abs(past[i] - probabilities[i]) > STABLE_DELTA) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean hasMoved(
+            final float currentLeft, final float currentTop, final float currentRight, final float currentBottom) {
+        final float width = right - left;
+        final float height = bottom - top;
+        final float currentWidth = currentRight - currentLeft;
+        final float currentHeight = currentBottom - currentTop;
+        final float maxMove = MAX_MOVE * Math.max(width, height);
+        return Math.abs((currentLeft + currentRight) / 2 - (left + right) / 2) > maxMove
+                || Math.abs((currentTop + currentBottom) / 2 - (top + bottom) / 2) > maxMove
+                || Math.abs(currentWidth - width) > maxMove
+                || Math.abs(currentHeight - height) > maxMove;
+    }
+
+    private boolean overlaps(
+            final float currentLeft, final float currentTop, final float currentRight, final float currentBottom) {
+        return currentLeft < right
+                && left < currentRight
+                && currentTop < bottom
+                && top < currentBottom;
+    }
+}
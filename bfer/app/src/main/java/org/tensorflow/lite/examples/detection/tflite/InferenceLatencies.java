@@ -0,0 +1,64 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.examples.detection.env.StageLatencies;
+
+/**
+ * Latencies of the stages of a model inference:
+ *
+ * <ul>
+ *   <li>preprocess: turning the image into the input tensor,
+ *   <li>feed: copying the input in and the outputs out of the interpreter, including JNI,
+ *   <li>run: the native inference itself,
+ *   <li>postprocess: turning the outputs into results.
+ * </ul>
+ */
+public class InferenceLatencies extends StageLatencies {
+    public static final int PREPROCESS = 0;
+    public static final int FEED = 1;
+    public static final int RUN = 2;
+    public static final int POSTPROCESS = 3;
+
+    public InferenceLatencies(final String name) {
+        super(name, "preprocess", "feed", "run", "postprocess");
+    }
+
+    /**
+     * Records an interpreter run that started at {@code startNanos}, split into its feed and run
+     * stages using the native inference time the interpreter reports. When the interpreter does
+     * not report it, the whole call counts as run.
+     *
+     * @return The current System.nanoTime(), to start timing the next stage.
+     */
+    public long recordRun(final Interpreter interpreter, final long startNanos) {
+        final long now = System.nanoTime();
+        if (!isEnabled()) {
+            return now;
+        }
+        final long total = now - startNanos;
+        final Long nativeNanos = interpreter.getLastNativeInferenceDurationNanoseconds();
+        if (nativeNanos == null) {
+            recordNanos(RUN, total);
+        } else {
+            final long run = Math.min(nativeNanos, total);
+            recordNanos(RUN, run);
+            recordNanos(FEED, total - run);
+        }
+        return now;
+    }
+}
@@ -0,0 +1,84 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+/**
+ * Picks the detector input size from a ladder of sizes, based on how the detections of recent
+ * frames went. When the face is detected confidently and would still be large enough at the next
+ * smaller size for a number of frames in a row, the controller steps down. As soon as confidence
+ * drops or the face is lost for a few frames, it steps back up.
+ */
+public class InputSizeController {
+    // Consecutive confident frames needed before stepping down.
+    private static final int FRAMES_TO_STEP_DOWN = 10;
+    // Consecutive weak frames needed before stepping up.
+    private static final int FRAMES_TO_STEP_UP = 2;
+    // Score above which a detection counts as confident.
+    private static final float HIGH_CONFIDENCE = 0.8f;
+    // Score below which a detection counts as weak.
+    private static final float LOW_CONFIDENCE = 0.6f;
+    // Smallest face side, in input pixels, to keep at a smaller input size.
+    private static final float MIN_FACE_PIXELS = 64.0f;
+
+    private final int[] sizes;
+    private int level = 0;
+    private int confidentFrames = 0;
+    private int weakFrames = 0;
+
+    /**
+     * @param sizes Input sizes, largest first. The controller starts at the largest.
+     */
+    public InputSizeController(final int[] sizes) {
+        this.sizes = sizes.clone();
+    }
+
+    public int getInputSize() {
+        return sizes[level];
+    }
+
+    /**
+     * Records the outcome of a frame and returns whether the input size changed.
+     *
+     * @param score      Score of the best detection, 0 if nothing was detected.
+     * @param faceSide   Shorter side of the best detection box, in input pixels at the current size.
+     */
+    public boolean update(final float score, final float faceSide) {
+        if (score < LOW_CONFIDENCE) {
+            confidentFrames = 0;
+            if (++weakFrames >= FRAMES_TO_STEP_UP && level > 0) {
+                --level;
+                weakFrames = 0;
+                return true;
+            }
+            return false;
+        }
+        weakFrames = 0;
+
+        final boolean fitsSmaller =
+                level + 1 < sizes.length
+                        && faceSide * sizes[level + 1] / sizes[level] >= MIN_FACE_PIXELS;
+        if (score >= HIGH_CONFIDENCE && fitsSmaller) {
+            if (++confidentFrames >= FRAMES_TO_STEP_DOWN) {
+                ++level;
+                confidentFrames = 0;
+                return true;
+            }
+        } else {
+            confidentFrames = 0;
+        }
+        return false;
+    }
+}
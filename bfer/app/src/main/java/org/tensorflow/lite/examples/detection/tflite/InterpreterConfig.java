@@ -0,0 +1,99 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import org.tensorflow.lite.examples.detection.tflite.Classifier2.Device;
+
+/**
+ * How an Interpreter is set up to run a model: the device it runs on, the number of CPU threads
+ * and whether the XNNPACK float kernels are used.
+ */
+public class InterpreterConfig {
+    private final Device device;
+    private final int numThreads;
+    private final boolean useXnnpack;
+
+    public InterpreterConfig(final Device device, final int numThreads, final boolean useXnnpack) {
+        this.device = device;
+        this.numThreads = numThreads;
+        this.useXnnpack = useXnnpack;
+    }
+
+    public Device getDevice() {
+        return device;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public boolean getUseXnnpack() {
+        return useXnnpack;
+    }
+
+    /**
+     * Returns the config as a string that {@link #decode(String)} reads back.
+     */
+    public String encode() {
+        return device + "," + numThreads + "," + useXnnpack;
+    }
+
+    /**
+     * Reads a config written by {@link #encode()}.
+     *
+     * @return The config, or null if {@code encoded} is not a valid config.
+     */
+    public static InterpreterConfig decode(final String encoded) {
+        if (encoded == null) {
+            return null;
+        }
+        final String[] fields = encoded.split(",");
+        if (fields.length != 3) {
+            return null;
+        }
+        try {
+            final int numThreads = Integer.parseInt(fields[1]);
+            if (numThreads < 1) {
+                return null;
+            }
+            return new InterpreterConfig(
+                    Device.valueOf(fields[0]), numThreads, Boolean.parseBoolean(fields[2]));
+        } catch (final IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (!(o instanceof InterpreterConfig)) {
+            return false;
+        }
+        final InterpreterConfig other = (InterpreterConfig) o;
+        return device == other.device
+                && numThreads == other.numThreads
+                && useXnnpack == other.useXnnpack;
+    }
+
+    @Override
+    public int hashCode() {
+        return (device.hashCode() * 31 + numThreads) * 2 + (useXnnpack ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return device + " with " + numThreads + " threads" + (useXnnpack ? ", XNNPACK" : "");
+    }
+}
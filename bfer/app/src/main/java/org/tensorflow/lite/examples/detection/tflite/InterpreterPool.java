@@ -0,0 +1,201 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import org.tensorflow.lite.examples.detection.env.Logger;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pool of model wrappers (detectors, classifiers) that all run the same memory-mapped model.
+ * The wrappers own an Interpreter and their input and output buffers, so they are not thread-safe;
+ * the pool leases each one to a single caller at a time, which lets several frames or camera feeds
+ * run inference in parallel.
+ *
+ * <p>Instances are created lazily, up to the pool size, and share the model buffer instead of
+ * mapping the model file once per Interpreter.
+ *
+ * @param <T> The model wrapper type.
+ */
+public class InterpreterPool<T> {
+    private static final Logger LOGGER = new Logger();
+
+    /**
+     * Creates a model wrapper running the given model.
+     */
+    public interface Factory<T> {
+        T create(MappedByteBuffer model) throws IOException;
+    }
+
+    /**
+     * Releases the native resources of a model wrapper.
+     */
+    public interface Closer<T> {
+        void close(T instance);
+    }
+
+    private final MappedByteBuffer model;
+    private final int size;
+    private final Factory<T> factory;
+    private final Closer<T> closer;
+
+    // Guarded by this; waiters are woken by release() and close().
+    private final ArrayDeque<T> idle = new ArrayDeque<>();
+    private int numCreated = 0;
+    private boolean closed = false;
+
+    /**
+     * @param model   The model shared by all instances.
+     * @param size    Maximum number of instances.
+     * @param factory Creates an instance on demand.
+     * @param closer  Closes an instance when the pool is closed.
+     */
+    public InterpreterPool(
+            final MappedByteBuffer model, final int size, final Factory<T> factory, final Closer<T> closer) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Pool size must be positive, got " + size);
+        }
+        this.model = model;
+        this.size = size;
+        this.factory = factory;
+        this.closer = closer;
+    }
+
+    /**
+     * Returns a pool size suited to this device: one instance per core.
+     */
+    public static int getDefaultSize() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    public MappedByteBuffer getModel() {
+        return model;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Leases an instance, creating one if the pool has room, otherwise waiting for one to be
+     * released.
+     *
+     * @throws IllegalStateException If the pool is or gets closed.
+     */
+    public T acquire() throws IOException, InterruptedException {
+        return lease(-1);
+    }
+
+    /**
+     * Leases an instance like {@link #acquire()}, but gives up after {@code timeout}.
+     *
+     * @return The instance, or null if none became available in time.
+     */
+    public T tryAcquire(final long timeout, final TimeUnit unit)
+            throws IOException, InterruptedException {
+        return lease(Math.max(1, unit.toNanos(timeout)));
+    }
+
+    /**
+     * Leases an idle instance, or creates one if the pool has room.
+     *
+     * @return The instance, or null if all instances are leased.
+     */
+    public T tryAcquire() throws IOException {
+        try {
+            return lease(0);
+        } catch (final InterruptedException e) {
+            // Not reached, lease(0) does not wait.
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    // Leases an idle instance or reserves room for a new one, waiting up to timeoutNanos for a
+    // release; 0 does not wait and a negative timeout waits for good. A new instance is created
+    // outside the lock, so that releasing is not held up by loading the model.
+    private T lease(final long timeoutNanos) throws IOException, InterruptedException {
+        final int number;
+        synchronized (this) {
+            final long deadline = System.nanoTime() + timeoutNanos;
+            while (true) {
+                if (closed) {
+                    throw new IllegalStateException("Pool was closed");
+                }
+                final T instance = idle.poll();
+                if (instance != null) {
+                    return instance;
+                }
+                if (numCreated < size) {
+                    number = ++numCreated;
+                    break;
+                }
+                if (timeoutNanos == 0) {
+                    return null;
+                }
+                if (timeoutNanos < 0) {
+                    wait();
+                } else {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return null;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+            }
+        }
+        try {
+            final T created = factory.create(model);
+            LOGGER.i("Created pooled instance %d of %d", number, size);
+            return created;
+        } catch (final IOException | RuntimeException e) {
+            synchronized (this) {
+                --numCreated;
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a leased instance to the pool. Instances released after the pool was closed are
+     * closed right away.
+     */
+    public synchronized void release(final T instance) {
+        if (closed) {
+            closer.close(instance);
+        } else {
+            idle.add(instance);
+            notify();
+        }
+    }
+
+    /**
+     * Closes the idle instances; leased instances are closed when they are released. Callers
+     * waiting for an instance get an IllegalStateException.
+     */
+    public synchronized void close() {
+        closed = true;
+        T instance;
+        while ((instance = idle.poll()) != null) {
+            closer.close(instance);
+        }
+        notifyAll();
+    }
+}
@@ -0,0 +1,263 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+
+import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.tflite.Classifier2.Device;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Picks the fastest interpreter configuration for a model on this device. On first use, each
+ * candidate configuration is benchmarked over a few dozen warm runs and the one with the lowest
+ * 90th percentile latency wins, which favours configurations that are fast consistently over ones
+ * that are fast on average. The choice is persisted per model, together with the device
+ * fingerprint and a checksum of the model, and reused until either changes.
+ */
+public class InterpreterTuner {
+    private static final Logger LOGGER = new Logger();
+
+    private static final String PREFERENCES_NAME = "interpreter_tuning";
+
+    // Untimed runs before measuring, to let caches, clocks and delegates settle.
+    private static final int WARMUP_RUNS = 5;
+    private static final int TIMED_RUNS = 30;
+    // Runs after which a candidate clearly slower than the best so far is abandoned.
+    private static final int EARLY_EXIT_RUNS = 5;
+    private static final float EARLY_EXIT_RATIO = 1.5f;
+
+    // Only one benchmark runs at a time, so that models tuned in parallel do not skew each other.
+    private static final Object TUNING_LOCK = new Object();
+
+    /**
+     * A model wrapper the tuner can time.
+     */
+    public interface Tunable {
+        /**
+         * Runs the model once.
+         */
+        void warmUp();
+
+        void close();
+    }
+
+    /**
+     * Creates a model wrapper running with the given configuration.
+     */
+    public interface Factory<T extends Tunable> {
+        T create(InterpreterConfig config) throws IOException;
+    }
+
+    private final SharedPreferences preferences;
+    private final String fingerprint;
+    private final boolean nnapiAvailable;
+
+    /**
+     * @param preferences    Where choices are persisted.
+     * @param fingerprint    Identifies the device and system build the choices are valid for.
+     * @param nnapiAvailable Whether NNAPI configurations are worth trying.
+     */
+    public InterpreterTuner(
+            final SharedPreferences preferences, final String fingerprint, final boolean nnapiAvailable) {
+        this.preferences = preferences;
+        this.fingerprint = fingerprint;
+        this.nnapiAvailable = nnapiAvailable;
+    }
+
+    /**
+     * Creates a tuner persisting its choices in the app's shared preferences, keyed by the build
+     * fingerprint of this device. NNAPI is only tried from Android 8.1, where it became usable.
+     */
+    public static InterpreterTuner create(final Context context) {
+        return new InterpreterTuner(
+                context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE),
+                Build.FINGERPRINT,
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1);
+    }
+
+    /**
+     * Returns the configurations that run on the CPU: every thread count up to the number of
+     * cores, with and without XNNPACK when the model can use it, and NNAPI when it is available.
+     *
+     * @param float32 Whether the model runs in floating point, which XNNPACK requires.
+     */
+    public List<InterpreterConfig> getCpuConfigs(final boolean float32) {
+        final List<InterpreterConfig> configs = new ArrayList<>();
+        final int numCores = Runtime.getRuntime().availableProcessors();
+        for (int numThreads = 1; numThreads <= numCores; ++numThreads) {
+            configs.add(new InterpreterConfig(Device.CPU, numThreads, false));
+            if (float32) {
+                configs.add(new InterpreterConfig(Device.CPU, numThreads, true));
+            }
+        }
+        if (nnapiAvailable) {
+            // NNAPI falls back to the CPU for unsupported ops, on a single thread.
+            configs.add(new InterpreterConfig(Device.NNAPI, 1, false));
+        }
+        return configs;
+    }
+
+    /**
+     * Creates the model with the configuration chosen for it on this device, benchmarking the
+     * candidates first if there is no valid choice yet.
+     *
+     * @param name       Identifies the model in the persisted choices.
+     * @param model      The model file contents, to detect when it changes.
+     * @param candidates The configurations to choose from. GPU configurations are not allowed: the
+     *                   tuned instance is created on the calling thread but usually runs on another
+     *                   one, while the GPU delegate is bound to the thread that created it.
+     * @param factory    Creates the model with a configuration.
+     */
+    public <T extends Tunable> T createTuned(
+            final String name,
+            final ByteBuffer model,
+            final List<InterpreterConfig> candidates,
+            final Factory<T> factory)
+            throws IOException {
+        for (final InterpreterConfig candidate : candidates) {
+            if (candidate.getDevice() == Device.GPU) {
+                throw new IllegalArgumentException("Cannot tune GPU configurations: " + candidate);
+            }
+        }
+        final long checksum = checksum(model);
+        final InterpreterConfig stored = getStoredConfig(name, checksum);
+        if (stored != null && candidates.contains(stored)) {
+            LOGGER.i("Using tuned %s for %s", stored, name);
+            return factory.create(stored);
+        }
+
+        final Choice<T> choice;
+        synchronized (TUNING_LOCK) {
+            choice = tune(candidates, factory);
+        }
+        LOGGER.i("Tuned %s: %s, p90 %.2f ms", name, choice.config, choice.p90Nanos / 1e6f);
+        preferences
+                .edit()
+                .putString(name + ".fingerprint", fingerprint)
+                .putLong(name + ".checksum", checksum)
+                .putString(name + ".config", choice.config.encode())
+                .apply();
+        return choice.instance;
+    }
+
+    private InterpreterConfig getStoredConfig(final String name, final long checksum) {
+        if (!fingerprint.equals(preferences.getString(name + ".fingerprint", null))
+                || preferences.getLong(name + ".checksum", -1) != checksum) {
+            return null;
+        }
+        return InterpreterConfig.decode(preferences.getString(name + ".config", null));
+    }
+
+    /**
+     * The winner of a benchmark, still open.
+     */
+    static class Choice<T> {
+        final InterpreterConfig config;
+        final T instance;
+        final long p90Nanos;
+
+        Choice(final InterpreterConfig config, final T instance, final long p90Nanos) {
+            this.config = config;
+            this.instance = instance;
+            this.p90Nanos = p90Nanos;
+        }
+    }
+
+    /**
+     * Benchmarks every candidate and returns the one with the lowest 90th percentile latency.
+     * Candidates that fail to load or run are skipped; all but the winner are closed.
+     */
+    static <T extends Tunable> Choice<T> tune(
+            final List<InterpreterConfig> candidates, final Factory<T> factory) throws IOException {
+        Choice<T> best = null;
+        Exception lastFailure = null;
+        final long[] times = new long[TIMED_RUNS];
+        for (final InterpreterConfig config : candidates) {
+            T instance = null;
+            try {
+                instance = factory.create(config);
+                final long p90 = benchmark(instance, times, best != null ? best.p90Nanos : Long.MAX_VALUE);
+                LOGGER.d("%s: p90 %.2f ms", config, p90 / 1e6f);
+                if (best == null || p90 < best.p90Nanos) {
+                    if (best != null) {
+                        best.instance.close();
+                    }
+                    best = new Choice<>(config, instance, p90);
+                    instance = null;
+                }
+            } catch (final Exception e) {
+                LOGGER.w("%s failed: %s", config, e);
+                lastFailure = e;
+            } finally {
+                if (instance != null) {
+                    instance.close();
+                }
+            }
+        }
+        if (best == null) {
+            throw new IOException("No interpreter configuration could run the model", lastFailure);
+        }
+        return best;
+    }
+
+    // Returns the 90th percentile latency of the instance, or Long.MAX_VALUE if it was abandoned
+    // for being clearly slower than bestNanos.
+    private static long benchmark(final Tunable instance, final long[] times, final long bestNanos) {
+        for (int i = 0; i < WARMUP_RUNS; ++i) {
+            instance.warmUp();
+        }
+        for (int i = 0; i < TIMED_RUNS; ++i) {
+            final long start = System.nanoTime();
+            instance.warmUp();
+            times[i] = System.nanoTime() - start;
+            if (i + 1 == EARLY_EXIT_RUNS && bestNanos != Long.MAX_VALUE) {
+                long fastest = Long.MAX_VALUE;
+                for (int j = 0; j <= i; ++j) {
+                    fastest = Math.min(fastest, times[j]);
+                }
+                if (fastest > bestNanos * EARLY_EXIT_RATIO) {
+                    return Long.MAX_VALUE;
+                }
+            }
+        }
+        Arrays.sort(times);
+        return times[(int) Math.ceil(0.9 * TIMED_RUNS) - 1];
+    }
+
+    /**
+     * Returns a CRC32 of the remaining bytes of {@code model}, leaving its position unchanged.
+     */
+    static long checksum(final ByteBuffer model) {
+        final ByteBuffer bytes = model.duplicate();
+        final CRC32 crc = new CRC32();
+        final byte[] chunk = new byte[64 * 1024];
+        while (bytes.hasRemaining()) {
+            final int length = Math.min(chunk.length, bytes.remaining());
+            bytes.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+        }
+        return crc.getValue();
+    }
+}
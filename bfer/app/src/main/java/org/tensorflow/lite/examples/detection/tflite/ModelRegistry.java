@@ -0,0 +1,123 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.os.SystemClock;
+
+import org.tensorflow.lite.examples.detection.env.Logger;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process-wide registry of loaded models. Models are loaded and warmed up in parallel on
+ * background threads, as soon as they are requested, and then stay alive for the lifetime of the
+ * process so that activities coming and going reuse them instead of rebuilding interpreters and
+ * delegates.
+ */
+public class ModelRegistry {
+    private static final Logger LOGGER = new Logger();
+
+    // Enough to load the detector and the classifier side by side.
+    private static final int NUM_LOADER_THREADS = 2;
+
+    private static ModelRegistry instance;
+
+    /**
+     * Loads a model and warms it up. Runs on a loader thread.
+     */
+    public interface Loader<T> {
+        T load() throws Exception;
+    }
+
+    private final ExecutorService executor;
+    private final Map<String, Future<?>> models = new HashMap<>();
+
+    ModelRegistry() {
+        final AtomicInteger count = new AtomicInteger();
+        executor =
+                Executors.newFixedThreadPool(
+                        NUM_LOADER_THREADS,
+                        r -> {
+                            final Thread thread = new Thread(r, "model-loader-" + count.incrementAndGet());
+                            // Loading must not keep the process alive on its own.
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+    }
+
+    public static synchronized ModelRegistry getInstance() {
+        if (instance == null) {
+            instance = new ModelRegistry();
+        }
+        return instance;
+    }
+
+    /**
+     * Starts loading a model in the background, unless a model was already requested under the
+     * same name, in which case that request is returned.
+     *
+     * @param name   Identifies the model, e.g. its file name.
+     * @param loader Loads and warms up the model.
+     * @return A future completing once the model is ready.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> Future<T> load(final String name, final Loader<T> loader) {
+        Future<T> future = (Future<T>) models.get(name);
+        if (future == null) {
+            future =
+                    executor.submit(
+                            () -> {
+                                final long startTime = SystemClock.uptimeMillis();
+                                final T model = loader.load();
+                                LOGGER.i("Loaded %s in %d ms", name, SystemClock.uptimeMillis() - startTime);
+                                return model;
+                            });
+            models.put(name, future);
+        }
+        return future;
+    }
+
+    /**
+     * Returns the model requested under {@code name} if it finished loading, without blocking.
+     *
+     * @return The model, or null if it was not requested or is still loading.
+     * @throws IllegalStateException If loading the model failed.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getIfReady(final String name) {
+        final Future<T> future;
+        synchronized (this) {
+            future = (Future<T>) models.get(name);
+        }
+        if (future == null || !future.isDone()) {
+            return null;
+        }
+        try {
+            return future.get();
+        } catch (final ExecutionException e) {
+            throw new IllegalStateException("Failed to load " + name, e.getCause());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+}
@@ -18,11 +18,17 @@ package org.tensorflow.lite.examples.detection.tflite;
 import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
+import android.graphics.Matrix;
 import android.graphics.RectF;
 import android.os.Trace;
 
+import org.tensorflow.lite.DataType;
 import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
+import org.tensorflow.lite.examples.detection.env.ArgbTensorWriter;
 import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.env.YuvFrame;
+import org.tensorflow.lite.examples.detection.env.YuvTensorSampler;
 
 import java.io.BufferedReader;
 import java.io.FileInputStream;
@@ -46,7 +52,7 @@ import java.util.Vector;
  * - https://github.com/tensorflow/models/blob/master/research/object_detection/g3doc/detection_model_zoo.md
  * - https://github.com/tensorflow/models/blob/master/research/object_detection/g3doc/running_on_mobile_tensorflowlite.md#running-our-model-on-android
  */
-public class TFLiteObjectDetectionAPIModel implements Classifier {
+public class TFLiteObjectDetectionAPIModel implements Classifier, InterpreterTuner.Tunable {
     private static final Logger LOGGER = new Logger();
 
     // Only return this many results.
@@ -56,36 +62,49 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
     private static final float IMAGE_STD = 128.0f;
     // Number of threads in the java app
     private static final int NUM_THREADS = 4;
+    // Used when the configuration is not tuned for the device.
+    private static final InterpreterConfig DEFAULT_CONFIG =
+            new InterpreterConfig(Classifier2.Device.CPU, NUM_THREADS, false);
+    // Overlapping boxes above this intersection over union are taken to be the same face.
+    private static final float NMS_IOU_THRESHOLD = 0.5f;
     private boolean isModelQuantized;
     // Config values.
     private int inputSize;
     // Pre-allocated buffers.
     private Vector<String> labels = new Vector<String>();
     private int[] intValues;
-    // outputLocations: array of shape [Batchsize, NUM_DETECTIONS,4]
-    // contains the location of detected boxes
-    private float[][][] outputLocations;
-    // outputClasses: array of shape [Batchsize, NUM_DETECTIONS]
-    // contains the classes of detected boxes
-    private float[][] outputClasses;
-    // outputScores: array of shape [Batchsize, NUM_DETECTIONS]
-    // contains the scores of detected boxes
-    private float[][] outputScores;
-    // numDetections: array of shape [Batchsize]
-    // contains the number of detected boxes
-    private float[] numDetections;
+    // Locations, classes and scores of the detected boxes, and their number.
+    private DetectorOutputs outputs;
 
     private ByteBuffer imgData;
 
+    // Inputs and outputs bound once, so that running the model does not allocate them per frame.
+    private Object[] inputArray;
+    private Map<Integer, Object> outputMap;
+
+    // Detections of the last run, for the Recognition returning entry points.
+    private DetectionResult lastResult;
+    private final RectF lastLocation = new RectF();
+
+    // Detections scoring below this are dropped before non-maximum suppression.
+    private float minimumConfidence = 0f;
+
+    // Writes bitmap pixels into imgData, see recognizeImage().
+    private ArgbTensorWriter pixelWriter;
+    // Writes camera frames straight into imgData, see sampleFrame().
+    private YuvTensorSampler frameSampler;
+
     private Interpreter tfLite;
 
+    private final InferenceLatencies latencies = new InferenceLatencies("detector");
+
     private TFLiteObjectDetectionAPIModel() {
     }
 
     /**
      * Memory-map the model file in Assets.
      */
-    private static MappedByteBuffer loadModelFile(AssetManager assets, String modelFilename)
+    public static MappedByteBuffer loadModelFile(AssetManager assets, String modelFilename)
             throws IOException {
         AssetFileDescriptor fileDescriptor = assets.openFd(modelFilename);
         FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor());
@@ -102,15 +121,87 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
      * @param modelFilename The filepath of the model GraphDef protocol buffer.
      * @param labelFilename The filepath of label file for classes.
      * @param inputSize     The size of image input
-     * @param isQuantized   Boolean representing model is quantized or not
+     * @param isQuantized   Boolean representing model is quantized or not. The input type of the
+     *                      model itself takes precedence if the two disagree.
      */
-    public static Classifier create(
+    public static TFLiteObjectDetectionAPIModel create(
             final AssetManager assetManager,
             final String modelFilename,
             final String labelFilename,
             final int inputSize,
             final boolean isQuantized)
             throws IOException {
+        return create(
+                assetManager,
+                loadModelFile(assetManager, modelFilename),
+                modelFilename,
+                labelFilename,
+                inputSize,
+                isQuantized,
+                DEFAULT_CONFIG);
+    }
+
+    /**
+     * Initializes the detector like {@link #create(AssetManager, String, String, int, boolean)},
+     * with the interpreter configuration that runs fastest on this device. The first call for a
+     * model benchmarks the CPU and NNAPI configurations, later ones reuse the persisted choice.
+     */
+    public static TFLiteObjectDetectionAPIModel createTuned(
+            final AssetManager assetManager,
+            final String modelFilename,
+            final String labelFilename,
+            final int inputSize,
+            final boolean isQuantized,
+            final InterpreterTuner tuner)
+            throws IOException {
+        final MappedByteBuffer model = loadModelFile(assetManager, modelFilename);
+        return tuner.createTuned(
+                modelFilename,
+                model,
+                tuner.getCpuConfigs(!isQuantized),
+                config ->
+                        create(assetManager, model, modelFilename, labelFilename, inputSize, isQuantized,
+                                config));
+    }
+
+    /**
+     * Creates a pool of detectors sharing one mapping of the model, for running detection on
+     * several frames or camera feeds in parallel. Each pooled detector runs single-threaded when
+     * there are several of them, as the pool already spreads the work across cores.
+     *
+     * @param size Maximum number of detectors, e.g. {@link InterpreterPool#getDefaultSize()}.
+     */
+    public static InterpreterPool<TFLiteObjectDetectionAPIModel> createPool(
+            final AssetManager assetManager,
+            final String modelFilename,
+            final String labelFilename,
+            final int inputSize,
+            final boolean isQuantized,
+            final int size)
+            throws IOException {
+        final InterpreterConfig config =
+                size > 1 ? new InterpreterConfig(Classifier2.Device.CPU, 1, false) : DEFAULT_CONFIG;
+        return new InterpreterPool<>(
+                loadModelFile(assetManager, modelFilename),
+                size,
+                model ->
+                        create(assetManager, model, modelFilename, labelFilename, inputSize, isQuantized,
+                                config),
+                TFLiteObjectDetectionAPIModel::close);
+    }
+
+    private static TFLiteObjectDetectionAPIModel create(
+            final AssetManager assetManager,
+            final MappedByteBuffer model,
+            final String modelFilename,
+            final String labelFilename,
+            final int inputSize,
+            final boolean isQuantized,
+            final InterpreterConfig config)
+            throws IOException {
+        if (config.getDevice() == Classifier2.Device.GPU) {
+            throw new IllegalArgumentException("The detector does not run on the GPU");
+        }
         final TFLiteObjectDetectionAPIModel d = new TFLiteObjectDetectionAPIModel();
 
         String actualFilename = labelFilename.split("file:///android_asset/")[1];
@@ -125,127 +216,260 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
 
         d.inputSize = inputSize;
 
+        final Interpreter.Options options = new Interpreter.Options();
+        options.setNumThreads(config.getNumThreads());
+        options.setUseNNAPI(config.getDevice() == Classifier2.Device.NNAPI);
+        options.setUseXNNPACK(config.getUseXnnpack());
         try {
-            d.tfLite = new Interpreter(loadModelFile(assetManager, modelFilename));
+            d.tfLite = new Interpreter(model, options);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
 
-        d.isModelQuantized = isQuantized;
-        // Pre-allocate buffers.
+        final DataType inputType = d.tfLite.getInputTensor(0).dataType();
+        if (inputType != DataType.UINT8 && inputType != DataType.FLOAT32) {
+            throw new IllegalArgumentException("Unsupported detector input type " + inputType);
+        }
+        d.isModelQuantized = inputType == DataType.UINT8;
+        if (d.isModelQuantized != isQuantized) {
+            LOGGER.w("%s declared %s but takes %s input", modelFilename,
+                    isQuantized ? "quantized" : "float", inputType);
+        }
+        d.allocateInput();
+
+        d.inputArray = new Object[]{d.imgData};
+        d.outputs = new DetectorOutputs(NUM_DETECTIONS);
+        d.outputMap = new HashMap<>();
+        for (int i = 0; i < DetectorOutputs.NUM_OUTPUTS; ++i) {
+            final Tensor tensor = d.tfLite.getOutputTensor(i);
+            if (tensor.dataType() == DataType.UINT8) {
+                final Tensor.QuantizationParams params = tensor.quantizationParams();
+                d.outputs.setQuantized(
+                        i,
+                        ByteBuffer.allocateDirect(tensor.numBytes()).order(ByteOrder.nativeOrder()),
+                        DetectorOutputs.dequantizationTable(params.getZeroPoint(), params.getScale()));
+            }
+            d.outputMap.put(i, d.outputs.get(i));
+        }
+        d.lastResult = new DetectionResult(NUM_DETECTIONS);
+        return d;
+    }
+
+    // Pre-allocate the buffers that depend on the input size.
+    private void allocateInput() {
         int numBytesPerChannel;
-        if (isQuantized) {
+        if (isModelQuantized) {
             numBytesPerChannel = 1; // Quantized
         } else {
             numBytesPerChannel = 4; // Floating point
         }
-        d.imgData = ByteBuffer.allocateDirect(1 * d.inputSize * d.inputSize * 3 * numBytesPerChannel);
-        d.imgData.order(ByteOrder.nativeOrder());
-        d.intValues = new int[d.inputSize * d.inputSize];
-
-        d.tfLite.setNumThreads(NUM_THREADS);
-        d.outputLocations = new float[1][NUM_DETECTIONS][4];
-        d.outputClasses = new float[1][NUM_DETECTIONS];
-        d.outputScores = new float[1][NUM_DETECTIONS];
-        d.numDetections = new float[1];
-        return d;
+        imgData = ByteBuffer.allocateDirect(1 * inputSize * inputSize * 3 * numBytesPerChannel);
+        imgData.order(ByteOrder.nativeOrder());
+        intValues = new int[inputSize * inputSize];
+        pixelWriter = new ArgbTensorWriter(inputSize * inputSize, isModelQuantized, IMAGE_MEAN, IMAGE_STD);
+        frameSampler =
+                new YuvTensorSampler(inputSize, inputSize, isModelQuantized, IMAGE_MEAN, IMAGE_STD);
+    }
+
+    /**
+     * Resizes the model input to {@code inputSize} x {@code inputSize}. Boxes are reported in the
+     * new input coordinates from then on, and bitmaps passed to recognizeImage must match it.
+     *
+     * @return Whether the model accepted the new size. Models whose post-processing is tied to a
+     * fixed feature map size reject it and keep running at the previous size.
+     */
+    public boolean setInputSize(final int inputSize) {
+        if (inputSize == this.inputSize) {
+            return true;
+        }
+        final int previousSize = this.inputSize;
+        try {
+            resizeInput(inputSize);
+            // Run once so that a model that cannot be resized fails here rather than on a frame.
+            runModel();
+        } catch (final RuntimeException e) {
+            LOGGER.w("Model does not support %dx%d input: %s", inputSize, inputSize, e.getMessage());
+            resizeInput(previousSize);
+            return false;
+        }
+        LOGGER.i("Detector input resized to %dx%d", inputSize, inputSize);
+        return true;
+    }
+
+    private void resizeInput(final int inputSize) {
+        tfLite.resizeInput(0, new int[]{1, inputSize, inputSize, 3});
+        this.inputSize = inputSize;
+        allocateInput();
+        inputArray[0] = imgData;
+    }
+
+    public int getInputSize() {
+        return inputSize;
     }
 
     @Override
     public Recognition recognizeImage(final Bitmap bitmap) {
+        recognizeImage(bitmap, lastResult);
+        return toRecognition(lastResult);
+    }
+
+    /**
+     * Runs detection on {@code bitmap}, which must be inputSize x inputSize, and writes the
+     * detections into {@code result}. Decoding the outputs into {@code result} does not allocate.
+     */
+    public void recognizeImage(final Bitmap bitmap, final DetectionResult result) {
         // Log this method so that it can be analyzed with systrace.
         Trace.beginSection("recognizeImage");
 
         Trace.beginSection("preprocessBitmap");
+        final long startNanos = System.nanoTime();
         // Preprocess the image data from 0-255 int to normalized float based
         // on the provided parameters.
         bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-
-        imgData.rewind();
-        for (int i = 0; i < inputSize; ++i) {
-            for (int j = 0; j < inputSize; ++j) {
-                int pixelValue = intValues[i * inputSize + j];
-                if (isModelQuantized) {
-                    // Quantized model
-                    imgData.put((byte) ((pixelValue >> 16) & 0xFF));
-                    imgData.put((byte) ((pixelValue >> 8) & 0xFF));
-                    imgData.put((byte) (pixelValue & 0xFF));
-                } else { // Float model
-                    imgData.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                    imgData.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                    imgData.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                }
-            }
-        }
+        pixelWriter.write(intValues, imgData);
+        latencies.record(InferenceLatencies.PREPROCESS, startNanos);
         Trace.endSection(); // preprocessBitmap
 
-        // Copy the input data into TensorFlow.
-        Trace.beginSection("feed");
-        outputLocations = new float[1][NUM_DETECTIONS][4];
-        outputClasses = new float[1][NUM_DETECTIONS];
-        outputScores = new float[1][NUM_DETECTIONS];
-        numDetections = new float[1];
-
-        Object[] inputArray = {imgData};
-        Map<Integer, Object> outputMap = new HashMap<>();
-        outputMap.put(0, outputLocations);
-        outputMap.put(1, outputClasses);
-        outputMap.put(2, outputScores);
-        outputMap.put(3, numDetections);
+        runDetection(result);
+        Trace.endSection(); // "recognizeImage"
+    }
+
+    /**
+     * Fills the model input directly from the planes of a camera frame, replacing the ARGB
+     * conversion, the crop Bitmap and the per-pixel normalization done by recognizeImage. Must be
+     * called while the frame is still valid; the input is then consumed by recognizeSampledFrame().
+     *
+     * @param frame       The camera frame to sample.
+     * @param cropToFrame Transform from model input coordinates to frame coordinates.
+     */
+    public void sampleFrame(final YuvFrame frame, final Matrix cropToFrame) {
+        Trace.beginSection("sampleFrame");
+        final long startNanos = System.nanoTime();
+        frameSampler.setTransform(cropToFrame);
+        frameSampler.sample(frame, imgData);
+        latencies.record(InferenceLatencies.PREPROCESS, startNanos);
         Trace.endSection();
+    }
 
-        // Run the inference call.
-        Trace.beginSection("run");
-        tfLite.runForMultipleInputsOutputs(inputArray, outputMap);
+    /**
+     * Runs detection on the input written by the last call to sampleFrame().
+     */
+    public Recognition recognizeSampledFrame() {
+        recognizeSampledFrame(lastResult);
+        return toRecognition(lastResult);
+    }
+
+    /**
+     * Runs detection on the input written by the last call to sampleFrame() and writes the
+     * detections into {@code result}. Decoding the outputs into {@code result} does not allocate.
+     */
+    public void recognizeSampledFrame(final DetectionResult result) {
+        Trace.beginSection("recognizeSampledFrame");
+        runDetection(result);
         Trace.endSection();
+    }
 
-        // Show the best detections.
-        // after scaling them back to the input size.
-
-        // You need to use the number of detections from the output and not the NUM_DETECTONS variable declared on top
-        // because on some models, they don't always output the same total number of detections
-        // For example, your model's NUM_DETECTIONS = 20, but sometimes it only outputs 16 predictions
-        // If you don't use the output's numDetections, you'll get nonsensical data
-        int numDetectionsOutput = Math.min(NUM_DETECTIONS, (int) numDetections[0]); // cast from float to integer, use min for safety
-
-        float highScore = 0;
-        int point = 0;
-        for (int i = 0; i < numDetectionsOutput; ++i) {
-            if (highScore < outputScores[0][i]) {
-                point = i;
-                highScore = outputScores[0][i];
-            }
-        }
-        final RectF detection =
-                new RectF(
-                        outputLocations[0][point][1] * inputSize,
-                        outputLocations[0][point][0] * inputSize,
-                        outputLocations[0][point][3] * inputSize,
-                        outputLocations[0][point][2] * inputSize);
+    /**
+     * Returns the number of detections the model outputs, the capacity a DetectionResult needs.
+     */
+    public int getMaxDetections() {
+        return NUM_DETECTIONS;
+    }
+
+    /**
+     * Sets the score a detection needs to be reported. Detections are then deduplicated with
+     * non-maximum suppression, so a DetectionResult holds every distinct face above it.
+     */
+    public void setMinimumConfidence(final float minimumConfidence) {
+        this.minimumConfidence = minimumConfidence;
+    }
+
+    /**
+     * Returns the label of a class index reported in a DetectionResult.
+     */
+    public String getLabel(final int classIndex) {
         // SSD Mobilenet V1 Model assumes class 0 is background class
         // in label file and class labels start from 1 to number_of_classes+1,
         // while outputClasses correspond to class index from 0 to number_of_classes
-        int labelOffset = 1;
-        final Recognition recognitions = new Recognition(
-                "" + point,
-                labels.get((int) outputClasses[0][point] + labelOffset),
-                outputScores[0][point],
-                detection);
-        Trace.endSection(); // "recognizeImage"
-        return recognitions;
+        final int labelOffset = 1;
+        return labels.get(classIndex + labelOffset);
+    }
+
+    private void runDetection(final DetectionResult result) {
+        // Run the inference call. The outputs are bound to the pre-allocated arrays.
+        Trace.beginSection("run");
+        long startNanos = System.nanoTime();
+        runModel();
+        startNanos = latencies.recordRun(tfLite, startNanos);
+        Trace.endSection();
+
+        Trace.beginSection("decode");
+        outputs.decode(result, inputSize, minimumConfidence, NMS_IOU_THRESHOLD);
+        latencies.record(InferenceLatencies.POSTPROCESS, startNanos);
+        Trace.endSection();
+    }
+
+    /**
+     * Runs the model once on the current input, so that the first camera frame does not pay for
+     * memory planning and delegate initialization.
+     */
+    @Override
+    public void warmUp() {
+        Trace.beginSection("warmUp");
+        runModel();
+        Trace.endSection();
+    }
+
+    private void runModel() {
+        outputs.rewind();
+        tfLite.runForMultipleInputsOutputs(inputArray, outputMap);
+    }
+
+    /**
+     * Returns whether the model takes uint8 input.
+     */
+    public boolean isQuantized() {
+        return isModelQuantized;
+    }
+
+    // Builds the single best detection as a Recognition, the way callers of the Classifier
+    // interface expect it.
+    private Recognition toRecognition(final DetectionResult result) {
+        final int best = result.getBestIndex();
+        if (best < 0) {
+            return new Recognition("0", null, 0f, new RectF());
+        }
+        result.getLocation(best, lastLocation);
+        return new Recognition(
+                "" + best,
+                getLabel(result.getClassIndex(best)),
+                result.getScore(best),
+                new RectF(lastLocation));
     }
 
+    /**
+     * Turns latency recording on or off; it is on by default. Turning it on starts a new window.
+     */
     @Override
     public void enableStatLogging(final boolean logStats) {
+        latencies.setEnabled(logStats);
     }
 
+    /**
+     * Returns the p50, p90, p99 and max latency of the preprocess, feed, run and postprocess stages,
+     * one stage per line.
+     */
     @Override
     public String getStatString() {
-        return "";
+        return latencies.getStatString();
     }
 
     @Override
     public void close() {
+        if (tfLite != null) {
+            tfLite.close();
+            tfLite = null;
+        }
     }
 
     public void setNumThreads(int num_threads) {
@@ -0,0 +1,116 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Selects the k highest scores of a classifier output straight from the output buffer, into
+ * preallocated index and score arrays. Selecting does not allocate.
+ *
+ * <p>Scores are kept sorted by descending score as they are read, which is cheap for the handful
+ * of results shown; equal scores keep the lower class index first.
+ */
+public class TopKSelector {
+    private final int k;
+    private final int[] indices;
+    private final float[] scores;
+    private int count;
+
+    /**
+     * @param k Maximum number of results to select.
+     */
+    public TopKSelector(final int k) {
+        this.k = k;
+        indices = new int[k];
+        scores = new float[k];
+    }
+
+    /**
+     * Selects from {@code numClasses} float32 scores in native byte order, read with absolute gets.
+     *
+     * @return The number of results selected, at most k.
+     */
+    public int selectFloats(final ByteBuffer output, final int numClasses) {
+        return selectFloats(output, 0, numClasses);
+    }
+
+    /**
+     * Selects from {@code numClasses} float32 scores starting at score {@code offset}, e.g. one
+     * image of a batched output.
+     *
+     * @return The number of results selected, at most k.
+     */
+    public int selectFloats(final ByteBuffer output, final int offset, final int numClasses) {
+        count = 0;
+        for (int i = 0; i < numClasses; ++i) {
+            offer(i, output.getFloat(4 * (offset + i)));
+        }
+        return count;
+    }
+
+    /**
+     * Selects from {@code numClasses} uint8 scores, read with absolute gets. Scores are reported
+     * as the raw 0-255 values.
+     *
+     * @return The number of results selected, at most k.
+     */
+    public int selectBytes(final ByteBuffer output, final int numClasses) {
+        return selectBytes(output, 0, numClasses);
+    }
+
+    /**
+     * Selects from {@code numClasses} uint8 scores starting at score {@code offset}.
+     *
+     * @return The number of results selected, at most k.
+     */
+    public int selectBytes(final ByteBuffer output, final int offset, final int numClasses) {
+        count = 0;
+        for (int i = 0; i < numClasses; ++i) {
+            offer(i, output.get(offset + i) & 0xff);
+        }
+        return count;
+    }
+
+    private void offer(final int index, final float score) {
+        if (count == k && !(score > scores[k - 1])) {
+            return;
+        }
+        int j = count < k ? count++ : k - 1;
+        while (j > 0 && scores[j - 1] < score) {
+            indices[j] = indices[j - 1];
+            scores[j] = scores[j - 1];
+            --j;
+        }
+        indices[j] = index;
+        scores[j] = score;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the class index of the {@code i}-th highest score.
+     */
+    public int getIndex(final int i) {
+        return indices[i];
+    }
+
+    public float getScore(final int i) {
+        return scores[i];
+    }
+}
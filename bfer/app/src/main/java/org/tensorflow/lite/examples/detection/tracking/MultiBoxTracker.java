@@ -114,6 +114,11 @@ public class MultiBoxTracker {
         }
     }
 
+    /**
+     * Replaces the tracked objects with the detections of a frame, in frame coordinates. Every
+     * detection is tracked, up to one per available color. Detections whose id is a number, such as
+     * a SortTracker id, keep the color of that id.
+     */
     public synchronized void trackResults(final List<Recognition> results, final long timestamp) {
         logger.i("Processing %d results from %d", results.size(), timestamp);
         processResults(results);
@@ -196,7 +201,7 @@ public class MultiBoxTracker {
             trackedRecognition.detectionConfidence = potential.first;
             trackedRecognition.location = new RectF(potential.second.getLocation());
             trackedRecognition.title = potential.second.getTitle();
-            trackedRecognition.color = COLORS[trackedObjects.size()];
+            trackedRecognition.color = getColor(potential.second.getId(), trackedObjects.size());
             trackedObjects.add(trackedRecognition);
 
             if (trackedObjects.size() >= COLORS.length) {
@@ -205,6 +210,16 @@ public class MultiBoxTracker {
         }
     }
 
+    // Colors objects by their id when it is a track id, so that a face keeps its color across
+    // frames, and by their position otherwise.
+    private static int getColor(final String id, final int position) {
+        try {
+            return COLORS[Integer.parseInt(id) % COLORS.length];
+        } catch (final NumberFormatException e) {
+            return COLORS[position];
+        }
+    }
+
     private static class TrackedRecognition {
         RectF location;
         float detectionConfidence;
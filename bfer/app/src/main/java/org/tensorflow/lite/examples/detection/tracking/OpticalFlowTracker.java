@@ -0,0 +1,386 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Moves boxes from frame to frame with pyramidal Lucas-Kanade optical flow on grayscale images,
+ * so that the detector only needs to run every few frames.
+ *
+ * <p>When tracking starts, a grid of points with enough texture is picked inside every box. Each
+ * following frame, the points are tracked forward and back again, and those that do not come back
+ * to where they started are dropped. A box moves by the median shift of its remaining points and
+ * scales by the median change of their distances. Once too few points of a box remain, tracking
+ * has lost it and the detector has to run again.
+ *
+ * <p>The pyramids and point buffers are reused across frames, so tracking does not allocate.
+ */
+public class OpticalFlowTracker {
+    // Number of pyramid levels, each half the size of the one below.
+    private static final int LEVELS = 3;
+    // Half the side of the window compared around every point.
+    private static final int WINDOW_RADIUS = 4;
+    private static final int WINDOW_SIZE = (2 * WINDOW_RADIUS + 1) * (2 * WINDOW_RADIUS + 1);
+    private static final int MAX_ITERATIONS = 10;
+    // Update below which the iterations at a level stop, in pixels.
+    private static final float EPSILON = 0.03f;
+    // Points picked per side of a box.
+    private static final int GRID_SIZE = 5;
+    // Smallest eigenvalue of the gradient matrix, per window pixel, for a point to be picked.
+    private static final float MIN_EIGENVALUE = 4.0f;
+    // Smallest eigenvalue, per window pixel, for a point to be tracked at a level.
+    private static final float MIN_TRACKING_EIGENVALUE = 0.01f;
+    // Largest distance, in pixels, between a point and its forward-backward tracked position.
+    private static final float MAX_FORWARD_BACKWARD_ERROR = 1.0f;
+    // Fewest points a box needs to be tracked.
+    static final int MIN_POINTS = 4;
+    // Smallest share of its points a box must keep from one frame to the next.
+    private static final float MIN_TRACKED_RATIO = 0.5f;
+
+    private static class Pyramid {
+        final byte[][] levels = new byte[LEVELS][];
+        final int[] widths = new int[LEVELS];
+        final int[] heights = new int[LEVELS];
+
+        void set(final byte[] image, final int width, final int height) {
+            for (int level = 0; level < LEVELS; ++level) {
+                final int levelWidth = level == 0 ? width : Math.max(2, widths[level - 1] / 2);
+                final int levelHeight = level == 0 ? height : Math.max(2, heights[level - 1] / 2);
+                if (levels[level] == null || levels[level].length != levelWidth * levelHeight) {
+                    levels[level] = new byte[levelWidth * levelHeight];
+                }
+                widths[level] = levelWidth;
+                heights[level] = levelHeight;
+            }
+            System.arraycopy(image, 0, levels[0], 0, width * height);
+            for (int level = 1; level < LEVELS; ++level) {
+                final byte[] src = levels[level - 1];
+                final int srcWidth = widths[level - 1];
+                final int srcHeight = heights[level - 1];
+                final byte[] dst = levels[level];
+                for (int y = 0, k = 0; y < heights[level]; ++y) {
+                    final int row0 = Math.min(2 * y, srcHeight - 1) * srcWidth;
+                    final int row1 = Math.min(2 * y + 1, srcHeight - 1) * srcWidth;
+                    for (int x = 0; x < widths[level]; ++x, ++k) {
+                        final int col0 = Math.min(2 * x, srcWidth - 1);
+                        final int col1 = Math.min(2 * x + 1, srcWidth - 1);
+                        final int sum =
+                                (0xff & src[row0 + col0])
+                                        + (0xff & src[row0 + col1])
+                                        + (0xff & src[row1 + col0])
+                                        + (0xff & src[row1 + col1]);
+                        dst[k] = (byte) ((sum + 2) >> 2);
+                    }
+                }
+            }
+        }
+
+        // Returns the bilinearly interpolated value at (x, y), clamped to the level.
+        float sample(final int level, final float x, final float y) {
+            final int width = widths[level];
+            final int height = heights[level];
+            final float cx = Math.max(0, Math.min(x, width - 1));
+            final float cy = Math.max(0, Math.min(y, height - 1));
+            final int x0 = Math.min((int) cx, width - 2);
+            final int y0 = Math.min((int) cy, height - 2);
+            final float fx = cx - x0;
+            final float fy = cy - y0;
+            final byte[] image = levels[level];
+            final int i = y0 * width + x0;
+            final float top = (0xff & image[i]) * (1 - fx) + (0xff & image[i + 1]) * fx;
+            final float bottom = (0xff & image[i + width]) * (1 - fx) + (0xff & image[i + width + 1]) * fx;
+            return top * (1 - fy) + bottom * fy;
+        }
+    }
+
+    // A tracked box and its points in image coordinates, as x, y pairs.
+    private static class TrackedBox {
+        float left;
+        float top;
+        float right;
+        float bottom;
+        final float[] points = new float[2 * GRID_SIZE * GRID_SIZE];
+        final float[] tracked = new float[2 * GRID_SIZE * GRID_SIZE];
+        int pointCount;
+    }
+
+    private Pyramid previous = new Pyramid();
+    private Pyramid current = new Pyramid();
+    private final List<TrackedBox> boxes = new ArrayList<>();
+    private int boxCount = 0;
+
+    // Scratch buffers for a window and for the medians.
+    private final float[] window = new float[WINDOW_SIZE];
+    private final float[] windowDx = new float[WINDOW_SIZE];
+    private final float[] windowDy = new float[WINDOW_SIZE];
+    // Gradient matrix of the window.
+    private float windowGxx;
+    private float windowGxy;
+    private float windowGyy;
+    private final float[] point = new float[2];
+    private final float[] backPoint = new float[2];
+    private final float[] shiftsX = new float[GRID_SIZE * GRID_SIZE];
+    private final float[] shiftsY = new float[GRID_SIZE * GRID_SIZE];
+    private final float[] scales = new float[GRID_SIZE * GRID_SIZE * (GRID_SIZE * GRID_SIZE - 1) / 2];
+
+    /**
+     * Starts tracking the given boxes from this image on, dropping the previous ones. Boxes without
+     * enough texture to pick {@link #MIN_POINTS} points are kept but will be lost on the next frame.
+     *
+     * @param image Grayscale image, width * height bytes; it is copied.
+     * @param locations Left, top, right and bottom of every box, in image coordinates.
+     * @param count Number of boxes.
+     */
+    public void reset(
+            final byte[] image,
+            final int width,
+            final int height,
+            final float[] locations,
+            final int count) {
+        previous.set(image, width, height);
+        boxCount = 0;
+        for (int i = 0; i < count; ++i) {
+            final TrackedBox box = obtainBox();
+            box.left = locations[4 * i];
+            box.top = locations[4 * i + 1];
+            box.right = locations[4 * i + 2];
+            box.bottom = locations[4 * i + 3];
+            pickPoints(box);
+        }
+    }
+
+    /**
+     * Stops tracking all boxes.
+     */
+    public void clear() {
+        boxCount = 0;
+    }
+
+    /**
+     * Moves the boxes into this image. Returns whether every box was tracked; once false, the
+     * boxes are no longer reliable and tracking should be restarted from new detections.
+     *
+     * @param image Grayscale image of the same size as the previous one; it is copied.
+     */
+    public boolean track(final byte[] image, final int width, final int height) {
+        current.set(image, width, height);
+        boolean trackedAll = true;
+        for (int i = 0; i < boxCount; ++i) {
+            trackedAll &= trackBox(boxes.get(i));
+        }
+        final Pyramid swap = previous;
+        previous = current;
+        current = swap;
+        return trackedAll;
+    }
+
+    /**
+     * Returns the number of boxes being tracked.
+     */
+    public int getCount() {
+        return boxCount;
+    }
+
+    /**
+     * Copies the left, top, right and bottom of box {@code i}, in image coordinates, into
+     * {@code out}.
+     */
+    public void getLocation(final int i, final float[] out) {
+        final TrackedBox box = boxes.get(i);
+        out[0] = box.left;
+        out[1] = box.top;
+        out[2] = box.right;
+        out[3] = box.bottom;
+    }
+
+    private TrackedBox obtainBox() {
+        if (boxCount == boxes.size()) {
+            boxes.add(new TrackedBox());
+        }
+        return boxes.get(boxCount++);
+    }
+
+    private void pickPoints(final TrackedBox box) {
+        box.pointCount = 0;
+        final float width = box.right - box.left;
+        final float height = box.bottom - box.top;
+        for (int row = 0; row < GRID_SIZE; ++row) {
+            final float y = box.top + height * (row + 0.5f) / GRID_SIZE;
+            for (int col = 0; col < GRID_SIZE; ++col) {
+                final float x = box.left + width * (col + 0.5f) / GRID_SIZE;
+                if (x < WINDOW_RADIUS || y < WINDOW_RADIUS
+                        || x > previous.widths[0] - 1 - WINDOW_RADIUS
+                        || y > previous.heights[0] - 1 - WINDOW_RADIUS) {
+                    continue;
+                }
+                if (fillWindow(previous, 0, x, y) / WINDOW_SIZE >= MIN_EIGENVALUE) {
+                    box.points[2 * box.pointCount] = x;
+                    box.points[2 * box.pointCount + 1] = y;
+                    ++box.pointCount;
+                }
+            }
+        }
+    }
+
+    private boolean trackBox(final TrackedBox box) {
+        int count = 0;
+        for (int i = 0; i < box.pointCount; ++i) {
+            final float x = box.points[2 * i];
+            final float y = box.points[2 * i + 1];
+            if (!trackPoint(previous, current, x, y, point)
+                    || !trackPoint(current, previous, point[0], point[1], backPoint)) {
+                continue;
+            }
+            final float errorX = backPoint[0] - x;
+            final float errorY = backPoint[1] - y;
+            if (errorX * errorX + errorY * errorY > MAX_FORWARD_BACKWARD_ERROR * MAX_FORWARD_BACKWARD_ERROR) {
+                continue;
+            }
+            box.points[2 * count] = x;
+            box.points[2 * count + 1] = y;
+            box.tracked[2 * count] = point[0];
+            box.tracked[2 * count + 1] = point[1];
+            ++count;
+        }
+        final boolean lost = count < MIN_POINTS || count < MIN_TRACKED_RATIO * box.pointCount;
+        box.pointCount = count;
+        if (lost) {
+            return false;
+        }
+
+        for (int i = 0; i < count; ++i) {
+            shiftsX[i] = box.tracked[2 * i] - box.points[2 * i];
+            shiftsY[i] = box.tracked[2 * i + 1] - box.points[2 * i + 1];
+        }
+        int scaleCount = 0;
+        for (int i = 0; i < count; ++i) {
+            for (int j = i + 1; j < count; ++j) {
+                final float before = distance(box.points, i, j);
+                if (before >= 1) {
+                    scales[scaleCount++] = distance(box.tracked, i, j) / before;
+                }
+            }
+        }
+        final float shiftX = median(shiftsX, count);
+        final float shiftY = median(shiftsY, count);
+        final float scale = scaleCount > 0 ? median(scales, scaleCount) : 1;
+
+        final float centerX = (box.left + box.right) / 2 + shiftX;
+        final float centerY = (box.top + box.bottom) / 2 + shiftY;
+        final float halfWidth = (box.right - box.left) * scale / 2;
+        final float halfHeight = (box.bottom - box.top) * scale / 2;
+        box.left = centerX - halfWidth;
+        box.top = centerY - halfHeight;
+        box.right = centerX + halfWidth;
+        box.bottom = centerY + halfHeight;
+        System.arraycopy(box.tracked, 0, box.points, 0, 2 * count);
+        return true;
+    }
+
+    private static float distance(final float[] points, final int i, final int j) {
+        final float dx = points[2 * i] - points[2 * j];
+        final float dy = points[2 * i + 1] - points[2 * j + 1];
+        return (float) Math.sqrt(dx * dx + dy * dy);
+    }
+
+    private static float median(final float[] values, final int count) {
+        Arrays.sort(values, 0, count);
+        return count % 2 == 1
+                ? values[count / 2]
+                : (values[count / 2 - 1] + values[count / 2]) / 2;
+    }
+
+    // Fills the window around (x, y) at a level with its values, gradients and gradient matrix, and
+    // returns the smallest eigenvalue of the gradient matrix.
+    private float fillWindow(final Pyramid pyramid, final int level, final float x, final float y) {
+        float gxx = 0;
+        float gxy = 0;
+        float gyy = 0;
+        for (int dy = -WINDOW_RADIUS, k = 0; dy <= WINDOW_RADIUS; ++dy) {
+            for (int dx = -WINDOW_RADIUS; dx <= WINDOW_RADIUS; ++dx, ++k) {
+                final float px = x + dx;
+                final float py = y + dy;
+                window[k] = pyramid.sample(level, px, py);
+                windowDx[k] = (pyramid.sample(level, px + 1, py) - pyramid.sample(level, px - 1, py)) / 2;
+                windowDy[k] = (pyramid.sample(level, px, py + 1) - pyramid.sample(level, px, py - 1)) / 2;
+                gxx += windowDx[k] * windowDx[k];
+                gxy += windowDx[k] * windowDy[k];
+                gyy += windowDy[k] * windowDy[k];
+            }
+        }
+        windowGxx = gxx;
+        windowGxy = gxy;
+        windowGyy = gyy;
+        final float halfTrace = (gxx + gyy) / 2;
+        final float halfDifference = (gxx - gyy) / 2;
+        return halfTrace - (float) Math.sqrt(halfDifference * halfDifference + gxy * gxy);
+    }
+
+    // Tracks the point (x, y) from one pyramid to the other, coarse to fine. Returns false when the
+    // point has too little texture at some level or leaves the image.
+    private boolean trackPoint(
+            final Pyramid from, final Pyramid to, final float x, final float y, final float[] out) {
+        float guessX = 0;
+        float guessY = 0;
+        for (int level = LEVELS - 1; level >= 0; --level) {
+            final float levelScale = 1f / (1 << level);
+            final float px = x * levelScale;
+            final float py = y * levelScale;
+            if (fillWindow(from, level, px, py) / WINDOW_SIZE < MIN_TRACKING_EIGENVALUE) {
+                return false;
+            }
+            final float gxx = windowGxx;
+            final float gxy = windowGxy;
+            final float gyy = windowGyy;
+            final float det = gxx * gyy - gxy * gxy;
+            float flowX = 0;
+            float flowY = 0;
+            for (int iteration = 0; iteration < MAX_ITERATIONS; ++iteration) {
+                float bx = 0;
+                float by = 0;
+                final float qx = px + guessX + flowX;
+                final float qy = py + guessY + flowY;
+                for (int dy = -WINDOW_RADIUS, k = 0; dy <= WINDOW_RADIUS; ++dy) {
+                    for (int dx = -WINDOW_RADIUS; dx <= WINDOW_RADIUS; ++dx, ++k) {
+                        final float difference = window[k] - to.sample(level, qx + dx, qy + dy);
+                        bx += difference * windowDx[k];
+                        by += difference * windowDy[k];
+                    }
+                }
+                final float stepX = (gyy * bx - gxy * by) / det;
+                final float stepY = (gxx * by - gxy * bx) / det;
+                flowX += stepX;
+                flowY += stepY;
+                if (stepX * stepX + stepY * stepY < EPSILON * EPSILON) {
+                    break;
+                }
+            }
+            if (level > 0) {
+                guessX = 2 * (guessX + flowX);
+                guessY = 2 * (guessY + flowY);
+            } else {
+                guessX += flowX;
+                guessY += flowY;
+            }
+        }
+        out[0] = x + guessX;
+        out[1] = y + guessY;
+        return out[0] >= 0 && out[1] >= 0 && out[0] <= to.widths[0] - 1 && out[1] <= to.heights[0] - 1;
+    }
+}
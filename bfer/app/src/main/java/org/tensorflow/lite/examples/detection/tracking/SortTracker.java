@@ -0,0 +1,383 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+import java.util.Arrays;
+
+/**
+ * Gives the faces of consecutive frames stable ids, in the manner of SORT: every track predicts
+ * its box with a constant velocity Kalman filter, and the boxes of a frame are matched to the
+ * predictions greedily by descending intersection over union.
+ *
+ * <p>A track is confirmed once matched in {@link #MIN_HITS} frames in a row and stays confirmed
+ * while alive; it dies once unmatched for more than {@link #MAX_AGE} frames in a row. Boxes that
+ * match no track start a new one with a new id.
+ *
+ * <p>The filter keeps the center, width and height of a box with their velocities. Since they
+ * move independently of each other, it runs as four two-state filters whose noise scales with the
+ * size of the box. Tracks are kept in primitive arrays, so updating does not allocate once they
+ * have grown to the number of faces.
+ */
+public class SortTracker {
+    // Frames in a row a track must be matched in to be confirmed.
+    static final int MIN_HITS = 3;
+    // Frames in a row a track may go unmatched before it dies.
+    static final int MAX_AGE = 5;
+    // Smallest intersection over union of a box and a prediction to match them.
+    private static final float MIN_IOU = 0.3f;
+    // Standard deviations, relative to the box size, of the measured position, of the change of
+    // position and of velocity per frame.
+    private static final float MEASUREMENT_STD = 0.05f;
+    private static final float POSITION_STD = 0.02f;
+    private static final float VELOCITY_STD = 0.02f;
+    // Standard deviation, relative to the box size, of the velocity of a new track.
+    private static final float INITIAL_VELOCITY_STD = 0.2f;
+
+    // Values per track in state: center x, center y, width and height, each followed by its
+    // velocity. Values per track in covariance: the variance of each value, the covariance with its
+    // velocity and the variance of the velocity.
+    private static final int STATE_SIZE = 8;
+    private static final int COVARIANCE_SIZE = 12;
+    private static final int DIMENSIONS = 4;
+
+    private int trackCount = 0;
+    private int nextId = 0;
+    private int[] ids = new int[0];
+    private int[] hitStreaks = new int[0];
+    private int[] misses = new int[0];
+    private boolean[] confirmed = new boolean[0];
+    private float[] states = new float[0];
+    private float[] covariances = new float[0];
+
+    // Per box of the last update: the id and confirmation of its track and the filtered box.
+    private int[] boxIds = new int[0];
+    private boolean[] boxConfirmed = new boolean[0];
+    private float[] boxLocations = new float[0];
+    private int boxCount = 0;
+
+    // Scratch buffers for the association.
+    private float[] ious = new float[0];
+    private int[] boxTracks = new int[0];
+    private boolean[] trackMatched = new boolean[0];
+    private final float[] measurement = new float[DIMENSIONS];
+
+    /**
+     * Matches the boxes of a frame to the tracks and updates them.
+     *
+     * @param boxes Left, top, right and bottom of every box, in frame coordinates.
+     * @param count Number of boxes.
+     */
+    public void update(final float[] boxes, final int count) {
+        for (int t = 0; t < trackCount; ++t) {
+            predict(t);
+        }
+        associate(boxes, count);
+
+        for (int t = 0; t < trackCount; ++t) {
+            trackMatched[t] = false;
+        }
+        for (int b = 0; b < count; ++b) {
+            final int t = boxTracks[b];
+            if (t >= 0) {
+                trackMatched[t] = true;
+                correct(t, boxes, b);
+                ++hitStreaks[t];
+                misses[t] = 0;
+                confirmed[t] |= hitStreaks[t] >= MIN_HITS;
+            }
+        }
+        // Unmatched tracks age and die. Removing swaps the last track in, so go backwards.
+        for (int t = trackCount - 1; t >= 0; --t) {
+            if (!trackMatched[t]) {
+                hitStreaks[t] = 0;
+                if (++misses[t] > MAX_AGE) {
+                    removeTrack(t, boxes, count);
+                }
+            }
+        }
+        for (int b = 0; b < count; ++b) {
+            if (boxTracks[b] < 0) {
+                boxTracks[b] = addTrack(boxes, b);
+            }
+        }
+
+        ensureBoxCapacity(count);
+        boxCount = count;
+        for (int b = 0; b < count; ++b) {
+            final int t = boxTracks[b];
+            boxIds[b] = ids[t];
+            boxConfirmed[b] = confirmed[t];
+            final int s = STATE_SIZE * t;
+            final float halfWidth = states[s + 4] / 2;
+            final float halfHeight = states[s + 6] / 2;
+            boxLocations[4 * b] = states[s] - halfWidth;
+            boxLocations[4 * b + 1] = states[s + 2] - halfHeight;
+            boxLocations[4 * b + 2] = states[s] + halfWidth;
+            boxLocations[4 * b + 3] = states[s + 2] + halfHeight;
+        }
+    }
+
+    /**
+     * Drops all tracks. Ids keep counting up, so they are never reused.
+     */
+    public void reset() {
+        trackCount = 0;
+        boxCount = 0;
+    }
+
+    /**
+     * Returns the id of the track box {@code i} of the last update belongs to.
+     */
+    public int getId(final int i) {
+        checkBox(i);
+        return boxIds[i];
+    }
+
+    /**
+     * Returns whether the track of box {@code i} of the last update is confirmed.
+     */
+    public boolean isConfirmed(final int i) {
+        checkBox(i);
+        return boxConfirmed[i];
+    }
+
+    /**
+     * Copies the left, top, right and bottom of the filtered box {@code i} of the last update, in
+     * frame coordinates, into {@code out}.
+     */
+    public void getLocation(final int i, final float[] out) {
+        checkBox(i);
+        System.arraycopy(boxLocations, 4 * i, out, 0, 4);
+    }
+
+    /**
+     * Returns the number of live tracks, including the ones not matched in the last update.
+     */
+    public int getTrackCount() {
+        return trackCount;
+    }
+
+    /**
+     * Returns the id of live track {@code i}, in 0..getTrackCount().
+     */
+    public int getTrackId(final int i) {
+        if (i < 0 || i >= trackCount) {
+            throw new IndexOutOfBoundsException("Track " + i + " of " + trackCount);
+        }
+        return ids[i];
+    }
+
+    private void checkBox(final int i) {
+        if (i < 0 || i >= boxCount) {
+            throw new IndexOutOfBoundsException("Box " + i + " of " + boxCount);
+        }
+    }
+
+    private float getSize(final int t) {
+        final int s = STATE_SIZE * t;
+        return Math.max(1, (float) Math.sqrt(states[s + 4] * states[s + 6]));
+    }
+
+    private void predict(final int t) {
+        final float size = getSize(t);
+        final float positionVariance = square(POSITION_STD * size);
+        final float velocityVariance = square(VELOCITY_STD * size);
+        for (int d = 0; d < DIMENSIONS; ++d) {
+            final int s = STATE_SIZE * t + 2 * d;
+            final int c = COVARIANCE_SIZE * t + 3 * d;
+            states[s] += states[s + 1];
+            final float p00 = covariances[c];
+            final float p01 = covariances[c + 1];
+            final float p11 = covariances[c + 2];
+            covariances[c] = p00 + 2 * p01 + p11 + positionVariance;
+            covariances[c + 1] = p01 + p11;
+            covariances[c + 2] = p11 + velocityVariance;
+        }
+        // Keep a shrinking box from turning inside out.
+        final int s = STATE_SIZE * t;
+        states[s + 4] = Math.max(1, states[s + 4]);
+        states[s + 6] = Math.max(1, states[s + 6]);
+    }
+
+    private void correct(final int t, final float[] boxes, final int b) {
+        toMeasurement(boxes, b);
+        final float measurementVariance = square(MEASUREMENT_STD * getSize(t));
+        for (int d = 0; d < DIMENSIONS; ++d) {
+            final int s = STATE_SIZE * t + 2 * d;
+            final int c = COVARIANCE_SIZE * t + 3 * d;
+            final float p00 = covariances[c];
+            final float p01 = covariances[c + 1];
+            final float p11 = covariances[c + 2];
+            final float innovationVariance = p00 + measurementVariance;
+            final float gain0 = p00 / innovationVariance;
+            final float gain1 = p01 / innovationVariance;
+            final float innovation = measurement[d] - states[s];
+            states[s] += gain0 * innovation;
+            states[s + 1] += gain1 * innovation;
+            covariances[c] = (1 - gain0) * p00;
+            covariances[c + 1] = (1 - gain0) * p01;
+            covariances[c + 2] = p11 - gain1 * p01;
+        }
+    }
+
+    // Fills measurement with the center x, center y, width and height of box b.
+    private void toMeasurement(final float[] boxes, final int b) {
+        final float left = boxes[4 * b];
+        final float top = boxes[4 * b + 1];
+        final float right = boxes[4 * b + 2];
+        final float bottom = boxes[4 * b + 3];
+        measurement[0] = (left + right) / 2;
+        measurement[1] = (top + bottom) / 2;
+        measurement[2] = right - left;
+        measurement[3] = bottom - top;
+    }
+
+    // Matches every box to the unmatched track whose prediction overlaps it most, best pairs
+    // first, and stores the track of each box in boxTracks, -1 for none.
+    private void associate(final float[] boxes, final int count) {
+        if (boxTracks.length < count) {
+            boxTracks = new int[count];
+        }
+        Arrays.fill(boxTracks, 0, count, -1);
+        if (trackCount == 0 || count == 0) {
+            return;
+        }
+        if (ious.length < trackCount * count) {
+            ious = new float[trackCount * count];
+        }
+        for (int t = 0; t < trackCount; ++t) {
+            final int s = STATE_SIZE * t;
+            final float halfWidth = states[s + 4] / 2;
+            final float halfHeight = states[s + 6] / 2;
+            final float left = states[s] - halfWidth;
+            final float top = states[s + 2] - halfHeight;
+            final float right = states[s] + halfWidth;
+            final float bottom = states[s + 2] + halfHeight;
+            for (int b = 0; b < count; ++b) {
+                ious[t * count + b] = iou(
+                        left, top, right, bottom,
+                        boxes[4 * b], boxes[4 * b + 1], boxes[4 * b + 2], boxes[4 * b + 3]);
+            }
+        }
+        // Each round takes the best remaining pair and rules out its track and box.
+        while (true) {
+            int best = -1;
+            float bestIou = MIN_IOU;
+            for (int i = 0; i < trackCount * count; ++i) {
+                if (ious[i] >= bestIou) {
+                    best = i;
+                    bestIou = ious[i];
+                }
+            }
+            if (best < 0) {
+                return;
+            }
+            final int track = best / count;
+            final int box = best % count;
+            boxTracks[box] = track;
+            for (int b = 0; b < count; ++b) {
+                ious[track * count + b] = -1;
+            }
+            for (int t = 0; t < trackCount; ++t) {
+                ious[t * count + box] = -1;
+            }
+        }
+    }
+
+    static float iou(
+            final float left0, final float top0, final float right0, final float bottom0,
+            final float left1, final float top1, final float right1, final float bottom1) {
+        final float width = Math.min(right0, right1) - Math.max(left0, left1);
+        final float height = Math.min(bottom0, bottom1) - Math.max(top0, top1);
+        if (width <= 0 || height <= 0) {
+            return 0;
+        }
+        final float intersection = width * height;
+        final float union =
+                (right0 - left0) * (bottom0 - top0) + (right1 - left1) * (bottom1 - top1) - intersection;
+        return union > 0 ? intersection / union : 0;
+    }
+
+    private int addTrack(final float[] boxes, final int b) {
+        ensureTrackCapacity(trackCount + 1);
+        final int t = trackCount++;
+        ids[t] = nextId++;
+        hitStreaks[t] = 1;
+        misses[t] = 0;
+        confirmed[t] = MIN_HITS <= 1;
+        toMeasurement(boxes, b);
+        final float size = Math.max(1, (float) Math.sqrt(measurement[2] * measurement[3]));
+        final float measurementVariance = square(MEASUREMENT_STD * size);
+        final float velocityVariance = square(INITIAL_VELOCITY_STD * size);
+        for (int d = 0; d < DIMENSIONS; ++d) {
+            final int s = STATE_SIZE * t + 2 * d;
+            final int c = COVARIANCE_SIZE * t + 3 * d;
+            states[s] = measurement[d];
+            states[s + 1] = 0;
+            covariances[c] = measurementVariance;
+            covariances[c + 1] = 0;
+            covariances[c + 2] = velocityVariance;
+        }
+        return t;
+    }
+
+    // Removes track t by moving the last track into its place, and points the boxes matched to the
+    // last track at its new index.
+    private void removeTrack(final int t, final float[] boxes, final int count) {
+        final int last = --trackCount;
+        if (t != last) {
+            ids[t] = ids[last];
+            hitStreaks[t] = hitStreaks[last];
+            misses[t] = misses[last];
+            confirmed[t] = confirmed[last];
+            trackMatched[t] = trackMatched[last];
+            System.arraycopy(states, STATE_SIZE * last, states, STATE_SIZE * t, STATE_SIZE);
+            System.arraycopy(covariances, COVARIANCE_SIZE * last, covariances, COVARIANCE_SIZE * t, COVARIANCE_SIZE);
+            for (int b = 0; b < count; ++b) {
+                if (boxTracks[b] == last) {
+                    boxTracks[b] = t;
+                }
+            }
+        }
+    }
+
+    private void ensureTrackCapacity(final int capacity) {
+        if (ids.length >= capacity) {
+            return;
+        }
+        final int newCapacity = Math.max(capacity, 2 * ids.length);
+        ids = Arrays.copyOf(ids, newCapacity);
+        hitStreaks = Arrays.copyOf(hitStreaks, newCapacity);
+        misses = Arrays.copyOf(misses, newCapacity);
+        confirmed = Arrays.copyOf(confirmed, newCapacity);
+        trackMatched = Arrays.copyOf(trackMatched, newCapacity);
+        states = Arrays.copyOf(states, STATE_SIZE * newCapacity);
+        covariances = Arrays.copyOf(covariances, COVARIANCE_SIZE * newCapacity);
+    }
+
+    private void ensureBoxCapacity(final int capacity) {
+        if (boxIds.length >= capacity) {
+            return;
+        }
+        boxIds = new int[capacity];
+        boxConfirmed = new boolean[capacity];
+        boxLocations = new float[4 * capacity];
+    }
+
+    private static float square(final float value) {
+        return value * value;
+    }
+}
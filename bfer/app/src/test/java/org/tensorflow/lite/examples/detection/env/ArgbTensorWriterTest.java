@@ -0,0 +1,87 @@
+/*
+ * Copyright 2020 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.detection.env;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Host-side tests checking ArgbTensorWriter against per-channel puts.
+ */
+public class ArgbTensorWriterTest {
+
+    private static final int NUM_PIXELS = 37 * 23;
+    private static final float MEAN = 128.0f;
+    private static final float STD = 128.0f;
+
+    private static int[] randomPixels() {
+        final int[] pixels = new int[NUM_PIXELS];
+        final Random random = new Random(42);
+        for (int i = 0; i < NUM_PIXELS; ++i) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+
+    private static ByteBuffer allocate(final int size) {
+        return ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+    }
+
+    @Test
+    public void floatOutputMatchesPerChannelPuts() {
+        final int[] pixels = randomPixels();
+        final ByteBuffer expected = allocate(NUM_PIXELS * 3 * 4);
+        for (final int pixel : pixels) {
+            expected.putFloat((((pixel >> 16) & 0xFF) - MEAN) / STD);
+            expected.putFloat((((pixel >> 8) & 0xFF) - MEAN) / STD);
+            expected.putFloat(((pixel & 0xFF) - MEAN) / STD);
+        }
+        expected.rewind();
+
+        final ByteBuffer actual = allocate(NUM_PIXELS * 3 * 4);
+        final ArgbTensorWriter writer = new ArgbTensorWriter(NUM_PIXELS, false, MEAN, STD);
+        writer.write(pixels, actual);
+        assertEquals(0, actual.position());
+        assertEquals(expected, actual);
+
+        // A second frame through the cached float view.
+        pixels[0] = 0xff000000;
+        writer.write(pixels, actual);
+        assertEquals(-1f, actual.getFloat(0), 0f);
+    }
+
+    @Test
+    public void quantizedOutputMatchesPerChannelPuts() {
+        final int[] pixels = randomPixels();
+        final ByteBuffer expected = allocate(NUM_PIXELS * 3);
+        for (final int pixel : pixels) {
+            expected.put((byte) ((pixel >> 16) & 0xFF));
+            expected.put((byte) ((pixel >> 8) & 0xFF));
+            expected.put((byte) (pixel & 0xFF));
+        }
+        expected.rewind();
+
+        final ByteBuffer actual = allocate(NUM_PIXELS * 3);
+        new ArgbTensorWriter(NUM_PIXELS, true, MEAN, STD).write(pixels, actual);
+        assertEquals(expected, actual);
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2020 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.detection.env;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Host-side tests checking CenterCropTensorWriter against the crop, resize, rotate and normalize
+ * steps applied one after the other.
+ */
+public class CenterCropTensorWriterTest {
+
+    private static final int OUTPUT_SIZE = 24;
+    private static final float MEAN = 127.5f;
+    private static final float STD = 127.5f;
+
+    private static int[] randomPixels(final int size) {
+        final int[] pixels = new int[size];
+        final Random random = new Random(42);
+        for (int i = 0; i < size; ++i) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+
+    private static ByteBuffer allocate(final int size) {
+        return ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+    }
+
+    // Center crop, nearest neighbour resize and counter-clockwise rotation, one step at a time.
+    private static int[] transform(
+            final int[] pixels, final int width, final int height, final int rowStride,
+            final int rotation) {
+        final int cropSize = Math.min(width, height);
+        final int cropLeft = (width - cropSize) / 2;
+        final int cropTop = (height - cropSize) / 2;
+        final int[] cropped = new int[cropSize * cropSize];
+        for (int y = 0; y < cropSize; ++y) {
+            for (int x = 0; x < cropSize; ++x) {
+                cropped[y * cropSize + x] = pixels[(cropTop + y) * rowStride + cropLeft + x];
+            }
+        }
+
+        int[] image = new int[OUTPUT_SIZE * OUTPUT_SIZE];
+        for (int y = 0; y < OUTPUT_SIZE; ++y) {
+            for (int x = 0; x < OUTPUT_SIZE; ++x) {
+                final int sx = (int) ((x + 0.5f) * cropSize / OUTPUT_SIZE);
+                final int sy = (int) ((y + 0.5f) * cropSize / OUTPUT_SIZE);
+                image[y * OUTPUT_SIZE + x] = cropped[sy * cropSize + sx];
+            }
+        }
+
+        for (int turn = 0; turn < ((rotation / 90) % 4 + 4) % 4; ++turn) {
+            final int[] rotated = new int[image.length];
+            for (int y = 0; y < OUTPUT_SIZE; ++y) {
+                for (int x = 0; x < OUTPUT_SIZE; ++x) {
+                    // A counter-clockwise quarter turn moves (x, y) to (y, size - 1 - x).
+                    rotated[(OUTPUT_SIZE - 1 - x) * OUTPUT_SIZE + y] = image[y * OUTPUT_SIZE + x];
+                }
+            }
+            image = rotated;
+        }
+        return image;
+    }
+
+    @Test
+    public void floatOutputMatchesStepByStepTransform() {
+        final int[][] layouts = {{64, 48, 64}, {48, 64, 50}, {100, 100, 100}, {17, 31, 17}};
+        for (final int[] layout : layouts) {
+            final int width = layout[0];
+            final int height = layout[1];
+            final int rowStride = layout[2];
+            final int[] pixels = randomPixels(rowStride * height);
+            final CenterCropTensorWriter writer =
+                    new CenterCropTensorWriter(OUTPUT_SIZE, OUTPUT_SIZE, false, MEAN, STD);
+            for (final int rotation : new int[] {0, 90, 180, 270, -90}) {
+                final int[] expected = transform(pixels, width, height, rowStride, rotation);
+                final ByteBuffer actual = allocate(expected.length * 3 * 4);
+                writer.writeArgb(pixels, width, height, rowStride, rotation, actual);
+                for (int i = 0; i < expected.length; ++i) {
+                    assertEquals((((expected[i] >> 16) & 0xff) - MEAN) / STD, actual.getFloat(), 0f);
+                    assertEquals((((expected[i] >> 8) & 0xff) - MEAN) / STD, actual.getFloat(), 0f);
+                    assertEquals(((expected[i] & 0xff) - MEAN) / STD, actual.getFloat(), 0f);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void quantizedOutputMatchesStepByStepTransform() {
+        final int[] pixels = randomPixels(64 * 48);
+        final int[] expected = transform(pixels, 64, 48, 64, 90);
+        final ByteBuffer actual = allocate(expected.length * 3);
+        new CenterCropTensorWriter(OUTPUT_SIZE, OUTPUT_SIZE, true, MEAN, STD)
+                .writeArgb(pixels, 64, 48, 64, 90, actual);
+        for (final int pixel : expected) {
+            assertEquals((byte) (pixel >> 16), actual.get());
+            assertEquals((byte) (pixel >> 8), actual.get());
+            assertEquals((byte) pixel, actual.get());
+        }
+    }
+
+    @Test
+    public void luminanceMatchesGrayArgb() {
+        final int width = 64;
+        final int height = 48;
+        final int rowStride = 72;
+        final ByteBuffer plane = ByteBuffer.allocateDirect(rowStride * height);
+        final int[] gray = new int[rowStride * height];
+        final Random random = new Random(42);
+        for (int i = 0; i < gray.length; ++i) {
+            final int value = random.nextInt(256);
+            plane.put(i, (byte) value);
+            gray[i] = 0xff000000 | (value << 16) | (value << 8) | value;
+        }
+
+        final CenterCropTensorWriter writer =
+                new CenterCropTensorWriter(OUTPUT_SIZE, OUTPUT_SIZE, false, MEAN, STD);
+        final ByteBuffer expected = allocate(OUTPUT_SIZE * OUTPUT_SIZE * 3 * 4);
+        final ByteBuffer actual = allocate(OUTPUT_SIZE * OUTPUT_SIZE * 3 * 4);
+        writer.writeArgb(gray, width, height, rowStride, 270, expected);
+        writer.writeLuminance(plane, width, height, rowStride, 270, actual);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void cachesCompiledLayouts() {
+        final CenterCropTensorWriter writer =
+                new CenterCropTensorWriter(OUTPUT_SIZE, OUTPUT_SIZE, false, MEAN, STD);
+        final int[] portrait = writer.getIndex(640, 480, 640, 90);
+        final int[] landscape = writer.getIndex(640, 480, 640, 0);
+        assertNotSame(portrait, landscape);
+        assertSame(portrait, writer.getIndex(640, 480, 640, 90));
+        assertSame(landscape, writer.getIndex(640, 480, 640, 0));
+        assertNotSame(portrait, writer.getIndex(640, 480, 704, 90));
+    }
+
+    private static ByteBuffer randomPlane(final int size) {
+        final byte[] bytes = new byte[size];
+        new Random(42).nextBytes(bytes);
+        final ByteBuffer plane = ByteBuffer.allocateDirect(size);
+        plane.put(bytes);
+        return plane;
+    }
+
+    @Test
+    public void centerRegionMatchesCenterCrop() {
+        final int width = 64;
+        final int height = 48;
+        final int rowStride = 72;
+        final ByteBuffer plane = randomPlane(rowStride * height);
+        final CenterCropTensorWriter writer =
+                new CenterCropTensorWriter(OUTPUT_SIZE, OUTPUT_SIZE, false, MEAN, STD);
+        for (final int rotation : new int[] {0, 90, 180, 270}) {
+            final ByteBuffer expected = allocate(OUTPUT_SIZE * OUTPUT_SIZE * 3 * 4);
+            final ByteBuffer actual = allocate(OUTPUT_SIZE * OUTPUT_SIZE * 3 * 4);
+            writer.writeLuminance(plane, width, height, rowStride, rotation, expected);
+            writer.writeLuminanceRegion(plane, width, height, rowStride, 8, 0, 48, rotation, actual);
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void regionPastTheBorderRepeatsEdgePixels() {
+        final int width = 32;
+        final int height = 32;
+        final ByteBuffer plane = randomPlane(width * height);
+        final ByteBuffer actual = allocate(OUTPUT_SIZE * OUTPUT_SIZE * 3);
+        // Twice the output size, so output pixel (x, y) samples source pixel (left + 2x, top + 2y).
+        new CenterCropTensorWriter(OUTPUT_SIZE, OUTPUT_SIZE, true, MEAN, STD)
+                .writeLuminanceRegion(plane, width, height, width, -10, 20, 2 * OUTPUT_SIZE, 0, actual);
+        for (int y = 0; y < OUTPUT_SIZE; ++y) {
+            for (int x = 0; x < OUTPUT_SIZE; ++x) {
+                final int sx = Math.max(0, Math.min(-10 + 2 * x + 1, width - 1));
+                final int sy = Math.max(0, Math.min(20 + 2 * y + 1, height - 1));
+                final byte expected = plane.get(sy * width + sx);
+                assertEquals(expected, actual.get());
+                assertEquals(expected, actual.get());
+                assertEquals(expected, actual.get());
+            }
+        }
+    }
+}
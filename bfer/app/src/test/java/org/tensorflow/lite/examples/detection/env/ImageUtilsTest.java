@@ -0,0 +1,130 @@
+/*
+ * Copyright 2020 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.detection.env;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Host-side tests for the YUV to ARGB converters.
+ */
+public class ImageUtilsTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    @Test
+    public void tableConversionMatchesReferenceForAllTriples() {
+        for (int y = 0; y < 256; ++y) {
+            for (int u = 0; u < 256; ++u) {
+                for (int v = 0; v < 256; ++v) {
+                    final int expected = ImageUtils.YUV2RGB(y, u, v);
+                    final int actual = ImageUtils.YUV2RGBTable(y, u, v);
+                    if (expected != actual) {
+                        fail(String.format("YUV(%d, %d, %d): expected %08x but was %08x",
+                                y, u, v, expected, actual));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void convertYUV420SPMatchesReference() {
+        final byte[] input = randomBytes(ImageUtils.getYUVByteSize(WIDTH, HEIGHT));
+        final int[] actual = new int[WIDTH * HEIGHT];
+        ImageUtils.convertYUV420SPToARGB8888(input, WIDTH, HEIGHT, actual);
+
+        final int[] expected = new int[WIDTH * HEIGHT];
+        final int frameSize = WIDTH * HEIGHT;
+        for (int j = 0; j < HEIGHT; j++) {
+            for (int i = 0; i < WIDTH; i++) {
+                final int uvp = frameSize + (j >> 1) * WIDTH + (i & ~1);
+                expected[j * WIDTH + i] = ImageUtils.YUV2RGB(
+                        0xff & input[j * WIDTH + i], 0xff & input[uvp + 1], 0xff & input[uvp]);
+            }
+        }
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void convertYUV420MatchesReference() {
+        final int yRowStride = WIDTH + 16;
+        final int uvRowStride = WIDTH + 16;
+        final int uvPixelStride = 2;
+        final byte[] yData = randomBytes(yRowStride * HEIGHT);
+        final byte[] uData = randomBytes(uvRowStride * HEIGHT / 2);
+        final byte[] vData = randomBytes(uvRowStride * HEIGHT / 2);
+        final int[] actual = new int[WIDTH * HEIGHT];
+        ImageUtils.convertYUV420ToARGB8888(
+                yData, uData, vData, WIDTH, HEIGHT, yRowStride, uvRowStride, uvPixelStride, actual);
+
+        final int[] expected = new int[WIDTH * HEIGHT];
+        for (int j = 0; j < HEIGHT; j++) {
+            for (int i = 0; i < WIDTH; i++) {
+                final int uvOffset = uvRowStride * (j >> 1) + (i >> 1) * uvPixelStride;
+                expected[j * WIDTH + i] = ImageUtils.YUV2RGB(
+                        0xff & yData[yRowStride * j + i], 0xff & uData[uvOffset], 0xff & vData[uvOffset]);
+            }
+        }
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void convertYUV420FromBuffersMatchesArrays() {
+        final int yRowStride = WIDTH + 16;
+        final int uvRowStride = WIDTH + 16;
+        final int uvPixelStride = 2;
+        final byte[] yData = randomBytes(yRowStride * HEIGHT);
+        final byte[] uData = randomBytes(uvRowStride * HEIGHT / 2);
+        final byte[] vData = randomBytes(uvRowStride * HEIGHT / 2);
+        final int[] expected = new int[WIDTH * HEIGHT];
+        ImageUtils.convertYUV420ToARGB8888(
+                yData, uData, vData, WIDTH, HEIGHT, yRowStride, uvRowStride, uvPixelStride, expected);
+
+        final int[] actual = new int[WIDTH * HEIGHT];
+        ImageUtils.convertYUV420ToARGB8888(
+                toDirectBuffer(yData),
+                toDirectBuffer(uData),
+                toDirectBuffer(vData),
+                WIDTH,
+                HEIGHT,
+                yRowStride,
+                uvRowStride,
+                uvPixelStride,
+                actual);
+        assertArrayEquals(expected, actual);
+    }
+
+    private static ByteBuffer toDirectBuffer(final byte[] bytes) {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        // Conversion must not depend on the buffer position.
+        return buffer;
+    }
+
+    private static byte[] randomBytes(final int size) {
+        final byte[] bytes = new byte[size];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2020 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.detection.env;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Host-side tests checking LatencyHistogram percentiles against exact ones.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverEveryValueOnce() {
+        long expectedLower = 0;
+        for (int i = 0; LatencyHistogram.getUpperBound(i) < (1L << 26); ++i) {
+            final long upper = LatencyHistogram.getUpperBound(i);
+            assertEquals(i, LatencyHistogram.getBucket(expectedLower));
+            assertEquals(i, LatencyHistogram.getBucket(upper));
+            expectedLower = upper + 1;
+        }
+    }
+
+    @Test
+    public void percentilesAreWithinBucketPrecision() {
+        final Random random = new Random(42);
+        final long[] micros = new long[10000];
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < micros.length; ++i) {
+            // Log-normal-ish frame times around 10 ms with a long tail.
+            micros[i] = (long) (10000 * Math.exp(random.nextGaussian() * 0.5));
+            histogram.recordNanos(micros[i] * 1000);
+        }
+        Arrays.sort(micros);
+
+        for (final double fraction : new double[] {0.5, 0.9, 0.99, 1.0}) {
+            final long exact = micros[(int) Math.ceil(fraction * micros.length) - 1];
+            final long estimate = histogram.getPercentileMicros(fraction);
+            assertTrue(fraction + ": " + estimate + " vs " + exact, estimate >= exact);
+            assertTrue(fraction + ": " + estimate + " vs " + exact, estimate <= exact * 1.125);
+        }
+        assertEquals(micros[micros.length - 1], histogram.getMaxMicros());
+        assertEquals(micros.length, histogram.getCount());
+    }
+
+    @Test
+    public void resetClearsSamples() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordNanos(5000000);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileMicros(0.99));
+
+        histogram.recordNanos(2000);
+        assertEquals(2, histogram.getPercentileMicros(0.5));
+    }
+
+    @Test
+    public void stageLatenciesListRecordedStages() {
+        final StageLatencies latencies = new StageLatencies("model", "first", "second");
+        latencies.recordNanos(1, 3000000);
+        assertEquals("model second p50 3.0 p90 3.0 p99 3.0 max 3.0 ms (1)", latencies.getStatString());
+
+        latencies.setEnabled(false);
+        latencies.recordNanos(0, 1000000);
+        latencies.setEnabled(true);
+        assertEquals("", latencies.getStatString());
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2020 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.detection.env;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Host-side tests for the frame differencing motion gate.
+ */
+public class MotionGateTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int STRIDE = 72;
+
+    private static ByteBuffer frame(final int value) {
+        final byte[] data = new byte[STRIDE * HEIGHT];
+        Arrays.fill(data, (byte) value);
+        return ByteBuffer.wrap(data);
+    }
+
+    @Test
+    public void firstFrameIsProcessed() {
+        final MotionGate gate = new MotionGate(5, 1000);
+        assertTrue(gate.update(frame(100), WIDTH, HEIGHT, STRIDE, 0));
+    }
+
+    @Test
+    public void stillFramesAreSkippedUntilTheRefresh() {
+        final MotionGate gate = new MotionGate(5, 1000);
+        gate.update(frame(100), WIDTH, HEIGHT, STRIDE, 0);
+        assertFalse(gate.update(frame(102), WIDTH, HEIGHT, STRIDE, 100));
+        assertFalse(gate.update(frame(100), WIDTH, HEIGHT, STRIDE, 999));
+        assertTrue(gate.update(frame(100), WIDTH, HEIGHT, STRIDE, 1000));
+        assertEquals(0.5f, gate.getSkipRatio(), 1e-6f);
+    }
+
+    @Test
+    public void motionPastTheThresholdIsProcessed() {
+        final MotionGate gate = new MotionGate(5, 1000);
+        gate.update(frame(100), WIDTH, HEIGHT, STRIDE, 0);
+        assertTrue(gate.update(frame(110), WIDTH, HEIGHT, STRIDE, 100));
+        assertEquals(10f, gate.getLastDifference(), 1e-6f);
+    }
+
+    @Test
+    public void slowDriftAddsUpAgainstTheLastProcessedFrame() {
+        final MotionGate gate = new MotionGate(5, 1000);
+        gate.update(frame(100), WIDTH, HEIGHT, STRIDE, 0);
+        assertFalse(gate.update(frame(102), WIDTH, HEIGHT, STRIDE, 10));
+        assertFalse(gate.update(frame(104), WIDTH, HEIGHT, STRIDE, 20));
+        assertTrue(gate.update(frame(106), WIDTH, HEIGHT, STRIDE, 30));
+        assertFalse(gate.update(frame(108), WIDTH, HEIGHT, STRIDE, 40));
+    }
+
+    @Test
+    public void paddingPastTheWidthIsIgnored() {
+        final MotionGate gate = new MotionGate(5, 1000);
+        final ByteBuffer first = frame(100);
+        final ByteBuffer second = frame(100);
+        for (int row = 0; row < HEIGHT; ++row) {
+            for (int col = WIDTH; col < STRIDE; ++col) {
+                second.put(row * STRIDE + col, (byte) 0);
+            }
+        }
+        gate.update(first, WIDTH, HEIGHT, STRIDE, 0);
+        assertFalse(gate.update(second, WIDTH, HEIGHT, STRIDE, 10));
+    }
+
+    @Test
+    public void resetAndSizeChangeProcessTheNextFrame() {
+        final MotionGate gate = new MotionGate(5, 1000);
+        gate.update(frame(100), WIDTH, HEIGHT, STRIDE, 0);
+        gate.reset();
+        assertTrue(gate.update(frame(100), WIDTH, HEIGHT, STRIDE, 10));
+        assertTrue(gate.update(frame(100), WIDTH / 2, HEIGHT / 2, STRIDE, 20));
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2020 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.detection.env;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Host-side tests checking that band-split conversion matches the single-threaded converters.
+ */
+public class ParallelImageConverterTest {
+
+    private static final int WIDTH = 640;
+    private static final int[] HEIGHTS = {480, 241, 17, 2};
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+
+    @Test
+    public void yuv420spBandsMatchSingleThreaded() {
+        for (final int height : HEIGHTS) {
+            final byte[] input = randomBytes(ImageUtils.getYUVByteSize(WIDTH, height));
+            final int[] expected = new int[WIDTH * height];
+            ImageUtils.convertYUV420SPToARGB8888(input, WIDTH, height, expected);
+
+            for (final int threads : THREAD_COUNTS) {
+                final ParallelImageConverter converter = new ParallelImageConverter(threads);
+                final int[] actual = new int[WIDTH * height];
+                converter.convertYUV420SPToARGB8888(input, WIDTH, height, actual);
+                converter.close();
+                assertArrayEquals(expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void yuv420BandsMatchSingleThreaded() {
+        for (final int height : HEIGHTS) {
+            final int rowStride = WIDTH + 32;
+            final byte[] yData = randomBytes(rowStride * height);
+            final byte[] uData = randomBytes(rowStride * ((height + 1) / 2));
+            final byte[] vData = randomBytes(rowStride * ((height + 1) / 2));
+            final int[] expected = new int[WIDTH * height];
+            ImageUtils.convertYUV420ToARGB8888(
+                    yData, uData, vData, WIDTH, height, rowStride, rowStride, 2, expected);
+
+            for (final int threads : THREAD_COUNTS) {
+                final ParallelImageConverter converter = new ParallelImageConverter(threads);
+                final int[] actual = new int[WIDTH * height];
+                converter.convertYUV420ToARGB8888(
+                        yData, uData, vData, WIDTH, height, rowStride, rowStride, 2, actual);
+                converter.close();
+                assertArrayEquals(expected, actual);
+            }
+        }
+    }
+
+    private static byte[] randomBytes(final int size) {
+        final byte[] bytes = new byte[size];
+        new Random(7).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2020 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.detection.env;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Host-side tests for the latest-wins handoff between pipeline stages.
+ */
+public class PipelineStageTest {
+
+    private final List<Integer> processed = Collections.synchronizedList(new ArrayList<>());
+    private final List<Integer> recycled = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    public void processesOfferedItems() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(2);
+        final PipelineStage<Integer> stage =
+                new PipelineStage<>(
+                        "test",
+                        item -> {
+                            processed.add(item);
+                            done.countDown();
+                        },
+                        recycled::add);
+        stage.start();
+        stage.offer(1);
+        assertTrue(awaitProcessed(stage, 1));
+        stage.offer(2);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        stage.stop();
+
+        assertEquals(Arrays.asList(1, 2), processed);
+        assertEquals(2, stage.getProcessedCount());
+        assertEquals(0, stage.getDroppedCount());
+        assertTrue(recycled.isEmpty());
+    }
+
+    @Test
+    public void latestItemWinsWhileBusy() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final PipelineStage<Integer> stage =
+                new PipelineStage<>(
+                        "test",
+                        item -> {
+                            started.countDown();
+                            try {
+                                release.await();
+                            } catch (final InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                            processed.add(item);
+                        },
+                        recycled::add);
+        stage.start();
+        stage.offer(1);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        // The worker is busy with 1; each offer replaces the waiting one.
+        stage.offer(2);
+        stage.offer(3);
+        stage.offer(4);
+        release.countDown();
+        assertTrue(awaitProcessed(stage, 2));
+        stage.stop();
+
+        assertEquals(Arrays.asList(1, 4), processed);
+        assertEquals(Arrays.asList(2, 3), recycled);
+        assertEquals(2, stage.getDroppedCount());
+    }
+
+    @Test
+    public void stopRecyclesWaitingAndLaterItems() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final PipelineStage<Integer> stage =
+                new PipelineStage<>(
+                        "test",
+                        item -> {
+                            started.countDown();
+                            try {
+                                release.await();
+                            } catch (final InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                            processed.add(item);
+                        },
+                        recycled::add);
+        stage.start();
+        stage.offer(1);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        stage.offer(2);
+        // stop() recycles the waiting item right away and does not wait for the worker.
+        stage.stop();
+        assertEquals(Collections.singletonList(2), recycled);
+        release.countDown();
+        stage.awaitStopped();
+        stage.offer(3);
+
+        assertEquals(Collections.singletonList(1), processed);
+        assertEquals(Arrays.asList(2, 3), recycled);
+        assertEquals(0, stage.getDroppedCount());
+
+        // The stage can be restarted.
+        stage.start();
+        stage.offer(5);
+        assertTrue(awaitProcessed(stage, 2));
+        stage.stop();
+        stage.awaitStopped();
+    }
+
+    @Test
+    public void restartKeepsFinishingWorker() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Thread> workers = Collections.synchronizedList(new ArrayList<>());
+        final PipelineStage<Integer> stage =
+                new PipelineStage<>(
+                        "test",
+                        item -> {
+                            workers.add(Thread.currentThread());
+                            started.countDown();
+                            try {
+                                release.await();
+                            } catch (final InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                            processed.add(item);
+                        },
+                        recycled::add);
+        stage.start();
+        stage.offer(1);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        // Stopped and started again while the worker is still busy with 1.
+        stage.stop();
+        stage.start();
+        stage.offer(2);
+        release.countDown();
+        assertTrue(awaitProcessed(stage, 2));
+        stage.stop();
+        stage.awaitStopped();
+
+        assertEquals(Arrays.asList(1, 2), processed);
+        assertEquals(workers.get(0), workers.get(1));
+        assertTrue(recycled.isEmpty());
+    }
+
+    private static boolean awaitProcessed(final PipelineStage<?> stage, final long count)
+            throws InterruptedException {
+        for (int i = 0; i < 5000 && stage.getProcessedCount() < count; ++i) {
+            Thread.sleep(1);
+        }
+        return stage.getProcessedCount() >= count;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2020 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.detection.env;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Host-side tests for the per-frame caches and release tracking of YuvFrame.
+ */
+public class YuvFrameTest {
+
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 4;
+
+    @Test
+    public void derivedImagesAreComputedOncePerGeneration() {
+        final YuvFrame frame = new YuvFrame(new ParallelImageConverter(1));
+        final byte[] data = new byte[ImageUtils.getYUVByteSize(WIDTH, HEIGHT)];
+        Arrays.fill(data, (byte) 100);
+        frame.setYUV420SP(data, WIDTH, HEIGHT);
+
+        final int[] argb = frame.getArgb();
+        final int first = argb[0];
+        // Changing the planes within a generation must not trigger a second conversion.
+        Arrays.fill(data, (byte) 200);
+        assertSame(argb, frame.getArgb());
+        assertEquals(first, frame.getArgb()[0]);
+
+        frame.release();
+        frame.setYUV420SP(data, WIDTH, HEIGHT);
+        assertTrue(first != frame.getArgb()[0]);
+    }
+
+    @Test
+    public void grayscaleImagesFollowLuminance() {
+        final YuvFrame frame = new YuvFrame(new ParallelImageConverter(1));
+        final byte[] data = new byte[ImageUtils.getYUVByteSize(WIDTH, HEIGHT)];
+        for (int i = 0; i < WIDTH * HEIGHT; ++i) {
+            data[i] = (byte) ((i % WIDTH) * 10);
+        }
+        frame.setYUV420SP(data, WIDTH, HEIGHT);
+
+        assertArrayEquals(Arrays.copyOf(data, WIDTH * HEIGHT), frame.getGrayscale());
+        assertArrayEquals(
+                new byte[]{5, 25, 45, 65, 5, 25, 45, 65}, frame.getDownscaledGrayscale());
+    }
+
+    @Test
+    public void copyToYUV420SPPacksPlanarFrames() {
+        final byte[] expected = new byte[ImageUtils.getYUVByteSize(WIDTH, HEIGHT)];
+        for (int i = 0; i < expected.length; ++i) {
+            expected[i] = (byte) (i * 7);
+        }
+        // The same frame as padded planes, as camera2 delivers it.
+        final int yRowStride = WIDTH + 4;
+        final int uvRowStride = WIDTH + 2;
+        final ByteBuffer y = ByteBuffer.allocate(yRowStride * HEIGHT);
+        final ByteBuffer u = ByteBuffer.allocate(uvRowStride * HEIGHT / 2);
+        final ByteBuffer v = ByteBuffer.allocate(uvRowStride * HEIGHT / 2);
+        for (int row = 0; row < HEIGHT; ++row) {
+            for (int col = 0; col < WIDTH; ++col) {
+                y.put(row * yRowStride + col, expected[row * WIDTH + col]);
+            }
+        }
+        for (int row = 0; row < HEIGHT / 2; ++row) {
+            for (int col = 0; col < WIDTH / 2; ++col) {
+                final int nv21 = WIDTH * HEIGHT + row * WIDTH + 2 * col;
+                v.put(row * uvRowStride + 2 * col, expected[nv21]);
+                u.put(row * uvRowStride + 2 * col, expected[nv21 + 1]);
+            }
+        }
+
+        final YuvFrame frame = new YuvFrame(new ParallelImageConverter(1));
+        frame.setYUV420(y, u, v, WIDTH, HEIGHT, yRowStride, uvRowStride, 2);
+        final byte[] actual = new byte[expected.length];
+        frame.copyToYUV420SP(actual);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void copyToYUV420SPPacksTightPlanes() {
+        final byte[] expected = new byte[ImageUtils.getYUVByteSize(WIDTH, HEIGHT)];
+        for (int i = 0; i < expected.length; ++i) {
+            expected[i] = (byte) (i * 5);
+        }
+        // Unpadded planes with a pixel stride of 1, each ending right after its last sample.
+        final ByteBuffer y = ByteBuffer.wrap(Arrays.copyOf(expected, WIDTH * HEIGHT));
+        final ByteBuffer u = ByteBuffer.allocate(WIDTH / 2 * HEIGHT / 2);
+        final ByteBuffer v = ByteBuffer.allocate(WIDTH / 2 * HEIGHT / 2);
+        for (int i = 0; i < WIDTH / 2 * HEIGHT / 2; ++i) {
+            v.put(i, expected[WIDTH * HEIGHT + 2 * i]);
+            u.put(i, expected[WIDTH * HEIGHT + 2 * i + 1]);
+        }
+
+        final YuvFrame frame = new YuvFrame(new ParallelImageConverter(1));
+        frame.setYUV420(y, u, v, WIDTH, HEIGHT, WIDTH, WIDTH / 2, 1);
+        final byte[] actual = new byte[expected.length];
+        frame.copyToYUV420SP(actual);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void copyToYUV420SPKeepsNv21Frames() {
+        final byte[] data = new byte[ImageUtils.getYUVByteSize(WIDTH, HEIGHT)];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = (byte) (i * 3);
+        }
+        final YuvFrame frame = new YuvFrame(new ParallelImageConverter(1));
+        frame.setYUV420SP(data, WIDTH, HEIGHT);
+        final byte[] actual = new byte[data.length];
+        frame.copyToYUV420SP(actual);
+        assertArrayEquals(data, actual);
+    }
+
+    @Test
+    public void readingReleasedFrameIsDetected() {
+        final YuvFrame frame = new YuvFrame(new ParallelImageConverter(1));
+        frame.setYUV420SP(new byte[ImageUtils.getYUVByteSize(WIDTH, HEIGHT)], WIDTH, HEIGHT);
+        final long generation = frame.getGeneration();
+        assertTrue(frame.isValid(generation));
+
+        frame.release();
+        assertFalse(frame.isValid(generation));
+        try {
+            frame.getArgb();
+            fail("Expected IllegalStateException");
+        } catch (final IllegalStateException expected) {
+            // Expected.
+        }
+
+        frame.setYUV420SP(new byte[ImageUtils.getYUVByteSize(WIDTH, HEIGHT)], WIDTH, HEIGHT);
+        assertFalse(frame.isValid(generation));
+        assertTrue(frame.isValid(frame.getGeneration()));
+    }
+}
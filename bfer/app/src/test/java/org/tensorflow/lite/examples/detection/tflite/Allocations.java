@@ -0,0 +1,49 @@
+/*
+ * Copyright 2020 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the heap allocations of code under test on the current thread, for host tests of the
+ * allocation-free paths.
+ */
+final class Allocations {
+    private Allocations() {
+    }
+
+    /**
+     * Runs {@code body} {@code runs} times to warm it up, then {@code runs} times more, and returns
+     * the bytes allocated by the second round.
+     */
+    static long measure(final int runs, final Runnable body) {
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < runs; ++i) {
+            body.run();
+        }
+        // Whatever reading the counter costs by itself is subtracted from the measurement.
+        final long start = threads.getThreadAllocatedBytes(threadId);
+        final long overhead = threads.getThreadAllocatedBytes(threadId) - start;
+        final long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < runs; ++i) {
+            body.run();
+        }
+        return threads.getThreadAllocatedBytes(threadId) - before - overhead;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2020 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Host-side tests for the batch size controller.
+ */
+public class BatchSizeControllerTest {
+
+    private static final long BUDGET_MICROS = 50_000;
+
+    // Runs batches of the chosen size against a latency model until the size settles.
+    private static int settle(
+            final BatchSizeController controller, final long fixedMicros, final long perImageMicros) {
+        for (int i = 0; i < 100; ++i) {
+            final int batchSize = controller.getBatchSize();
+            controller.update(batchSize, fixedMicros + perImageMicros * batchSize);
+        }
+        return controller.getBatchSize();
+    }
+
+    @Test
+    public void startsWithSingleImages() {
+        assertEquals(1, new BatchSizeController(4, BUDGET_MICROS).getBatchSize());
+    }
+
+    @Test
+    public void growsWhileBatchesFitTheBudget() {
+        final BatchSizeController controller = new BatchSizeController(8, BUDGET_MICROS);
+        // 10 + 8n fits up to n = 5; growing from 4 estimates 5 * 42 / 4 = 52.5 ms though.
+        assertEquals(4, settle(controller, 10_000, 8_000));
+    }
+
+    @Test
+    public void isCappedByMaxBatchSize() {
+        final BatchSizeController controller = new BatchSizeController(4, BUDGET_MICROS);
+        assertEquals(4, settle(controller, 1_000, 1_000));
+    }
+
+    @Test
+    public void staysAtOneWhenASingleImageIsOverBudget() {
+        final BatchSizeController controller = new BatchSizeController(4, BUDGET_MICROS);
+        assertEquals(1, settle(controller, 10_000, 60_000));
+    }
+
+    @Test
+    public void shrinksWhenBatchesSlowDown() {
+        final BatchSizeController controller = new BatchSizeController(4, BUDGET_MICROS);
+        assertEquals(4, settle(controller, 1_000, 1_000));
+
+        // E.g. thermal throttling: batches of 4 now take 60 ms.
+        for (int i = 0; i < 20; ++i) {
+            controller.update(4, 60_000);
+        }
+        assertEquals(3, controller.getBatchSize());
+    }
+
+    @Test
+    public void retriesLargerBatchesAfterASlowSpell() {
+        final BatchSizeController controller = new BatchSizeController(4, BUDGET_MICROS);
+        settle(controller, 1_000, 1_000);
+        for (int i = 0; i < 20; ++i) {
+            controller.update(4, 60_000);
+        }
+        assertEquals(3, controller.getBatchSize());
+
+        // Batches of 3 stay fast, so 4 is tried again and sticks once it is fast again as well.
+        assertEquals(4, settle(controller, 1_000, 1_000));
+    }
+}
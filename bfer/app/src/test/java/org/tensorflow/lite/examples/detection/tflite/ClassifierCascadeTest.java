@@ -0,0 +1,199 @@
+/*
+ * Copyright 2020 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Host-side tests for the escalation rule of the classifier cascade.
+ */
+public class ClassifierCascadeTest {
+
+    private static final List<String> LABELS = Arrays.asList("Crying", "Happy", "Normal");
+    private static final float THRESHOLD = 0.1f;
+
+    // Answers every region with the results set for its left edge, and keeps the regions it saw.
+    private static class FakeClassifier implements ExpressionClassifier {
+        private final List<String> labels;
+        private final Map<Integer, List<Classifier2.Recognition>> resultsByLeft = new HashMap<>();
+        private final List<List<Classifier2.Recognition>> results = new ArrayList<>();
+        final List<Integer> seenLefts = new ArrayList<>();
+
+        FakeClassifier(final List<String> labels) {
+            this.labels = labels;
+        }
+
+        void answer(final int left, final Classifier2.Recognition... recognitions) {
+            resultsByLeft.put(left, Arrays.asList(recognitions));
+        }
+
+        @Override
+        public List<List<Classifier2.Recognition>> recognizeLuminance(
+                final ByteBuffer luminance,
+                final int width,
+                final int height,
+                final int rowStride,
+                final int[] regions,
+                final int count,
+                final int sensorOrientation) {
+            results.clear();
+            for (int i = 0; i < count; ++i) {
+                seenLefts.add(regions[3 * i]);
+                results.add(resultsByLeft.get(regions[3 * i]));
+            }
+            return results;
+        }
+
+        @Override
+        public List<String> getLabels() {
+            return labels;
+        }
+
+        @Override
+        public void enableStatLogging(final boolean logStats) {
+        }
+
+        @Override
+        public String getStatString() {
+            return "";
+        }
+
+        @Override
+        public void warmUp() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private final FakeClassifier small = new FakeClassifier(LABELS);
+    private final FakeClassifier full = new FakeClassifier(LABELS);
+
+    private static Classifier2.Recognition recognition(final String title, final float confidence) {
+        return new Classifier2.Recognition(title, title, confidence, null);
+    }
+
+    @Test
+    public void marginIsTheLeadOverTheRunnerUp() {
+        assertEquals(
+                0.5f,
+                ClassifierCascade.getMargin(
+                        Arrays.asList(
+                                recognition("Crying", 0.7f),
+                                recognition("Normal", 0.2f),
+                                recognition("Happy", 0.1f))),
+                1e-6f);
+        assertEquals(
+                0.02f,
+                ClassifierCascade.getMargin(
+                        Arrays.asList(recognition("Crying", 0.45f), recognition("Normal", 0.43f))),
+                1e-6f);
+    }
+
+    @Test
+    public void marginOfFewResults() {
+        assertEquals(
+                0.6f,
+                ClassifierCascade.getMargin(Collections.singletonList(recognition("Crying", 0.6f))),
+                0f);
+        assertEquals(0f, ClassifierCascade.getMargin(Collections.emptyList()), 0f);
+    }
+
+    @Test
+    public void onlyUnsureRegionsReachTheFullModel() {
+        small.answer(0, recognition("Crying", 0.45f), recognition("Normal", 0.43f));
+        small.answer(10, recognition("Happy", 0.9f), recognition("Normal", 0.05f));
+        small.answer(20, recognition("Normal", 0.5f), recognition("Happy", 0.45f));
+        full.answer(0, recognition("Crying", 0.8f), recognition("Normal", 0.1f));
+        full.answer(20, recognition("Normal", 0.7f), recognition("Happy", 0.2f));
+        final ClassifierCascade cascade = new ClassifierCascade(small, full, THRESHOLD);
+
+        final int[] regions = {0, 0, 8, 10, 0, 8, 20, 0, 8};
+        final List<List<Classifier2.Recognition>> results =
+                cascade.recognizeLuminance(null, 32, 8, 32, regions, 3, 0);
+
+        assertEquals(Arrays.asList(0, 10, 20), small.seenLefts);
+        assertEquals(Arrays.asList(0, 20), full.seenLefts);
+        // Escalated results go back to the position of their region.
+        assertEquals(3, results.size());
+        assertEquals(0.8f, results.get(0).get(0).getConfidence(), 0f);
+        assertSame(small.resultsByLeft.get(10), results.get(1));
+        assertEquals(0.7f, results.get(2).get(0).getConfidence(), 0f);
+    }
+
+    @Test
+    public void confidentRegionsSkipTheFullModel() {
+        small.answer(0, recognition("Happy", 0.9f), recognition("Normal", 0.05f));
+        final ClassifierCascade cascade = new ClassifierCascade(small, full, THRESHOLD);
+
+        final List<List<Classifier2.Recognition>> results =
+                cascade.recognizeLuminance(null, 8, 8, 8, new int[] {0, 0, 8}, 1, 0);
+
+        assertEquals(Collections.emptyList(), full.seenLefts);
+        assertSame(small.resultsByLeft.get(0), results.get(0));
+        assertEquals(0f, cascade.getEscalationRate(), 0f);
+        assertEquals(0f, cascade.getSavedMicrosPerFace(), 0f);
+    }
+
+    @Test
+    public void escalationRateCountsEveryFace() {
+        small.answer(0, recognition("Crying", 0.45f), recognition("Normal", 0.43f));
+        small.answer(10, recognition("Happy", 0.9f), recognition("Normal", 0.05f));
+        full.answer(0, recognition("Crying", 0.8f), recognition("Normal", 0.1f));
+        final ClassifierCascade cascade = new ClassifierCascade(small, full, THRESHOLD);
+
+        final int[] regions = {0, 0, 8, 10, 0, 8};
+        cascade.recognizeLuminance(null, 32, 8, 32, regions, 2, 0);
+        cascade.recognizeLuminance(null, 32, 8, 32, regions, 2, 0);
+
+        assertEquals(0.5f, cascade.getEscalationRate(), 1e-6f);
+    }
+
+    @Test
+    public void savedLatencyComparesTheFullModelPerFace() {
+        final ClassifierCascade cascade = new ClassifierCascade(small, full, THRESHOLD);
+        // 4 faces in 4 ms on the small model, 1 of them in 2 ms on the full one: 2 ms per face for
+        // the full model against 1.5 ms per face for the cascade.
+        cascade.record(4, 1, 4_000_000L, 2_000_000L);
+
+        assertEquals(0.25f, cascade.getEscalationRate(), 1e-6f);
+        assertEquals(500f, cascade.getSavedMicrosPerFace(), 1e-3f);
+    }
+
+    @Test
+    public void modelsMustShareTheirLabels() {
+        try {
+            new ClassifierCascade(small, new FakeClassifier(Arrays.asList("Crying", "Normal")), THRESHOLD);
+            fail("Expected IllegalArgumentException");
+        } catch (final IllegalArgumentException expected) {
+            // The labels differ.
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2020 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Host-side tests for decoding detector outputs into a DetectionResult.
+ */
+public class DetectionResultTest {
+
+    private static final int NUM_DETECTIONS = 10;
+    private static final int INPUT_SIZE = 300;
+
+    private final float[][][] outputLocations = new float[1][NUM_DETECTIONS][4];
+    private final float[][] outputClasses = new float[1][NUM_DETECTIONS];
+    private final float[][] outputScores = new float[1][NUM_DETECTIONS];
+    private final float[] numDetections = new float[1];
+
+    private void setDetection(
+            final int i, final float top, final float left, final float bottom, final float right,
+            final float score, final int classIndex) {
+        outputLocations[0][i] = new float[]{top, left, bottom, right};
+        outputScores[0][i] = score;
+        outputClasses[0][i] = classIndex;
+    }
+
+    @Test
+    public void decodesBoxesInInputCoordinates() {
+        setDetection(0, 0.1f, 0.2f, 0.5f, 0.6f, 0.4f, 0);
+        setDetection(1, 0.0f, 0.5f, 1.0f, 1.0f, 0.9f, 2);
+        setDetection(2, 0.3f, 0.3f, 0.4f, 0.4f, 0.95f, 1);
+        numDetections[0] = 2;
+
+        final DetectionResult result = new DetectionResult(NUM_DETECTIONS);
+        result.set(outputLocations, outputClasses, outputScores, numDetections, INPUT_SIZE);
+
+        // Only the reported detections count, even if later slots hold higher scores.
+        assertEquals(2, result.getCount());
+        assertEquals(1, result.getBestIndex());
+        assertEquals(2, result.getClassIndex(1));
+        assertEquals(0.9f, result.getScore(1), 0f);
+        assertEquals(150f, result.getLeft(1), 1e-4f);
+        assertEquals(0f, result.getTop(1), 1e-4f);
+        assertEquals(300f, result.getRight(1), 1e-4f);
+        assertEquals(300f, result.getBottom(1), 1e-4f);
+        assertEquals(60f, result.getLeft(0), 1e-4f);
+        assertEquals(30f, result.getTop(0), 1e-4f);
+    }
+
+    @Test
+    public void clampsCountToCapacity() {
+        numDetections[0] = 25;
+        final DetectionResult result = new DetectionResult(4);
+        result.set(outputLocations, outputClasses, outputScores, numDetections, INPUT_SIZE);
+        assertEquals(4, result.getCount());
+
+        numDetections[0] = 0;
+        result.set(outputLocations, outputClasses, outputScores, numDetections, INPUT_SIZE);
+        assertEquals(0, result.getCount());
+        assertEquals(-1, result.getBestIndex());
+    }
+
+    @Test
+    public void suppressKeepsDistinctFacesInScoreOrder() {
+        // Two faces, each detected twice with slightly shifted boxes, plus a weak detection.
+        setDetection(0, 0.10f, 0.10f, 0.40f, 0.40f, 0.70f, 0);
+        setDetection(1, 0.50f, 0.50f, 0.90f, 0.90f, 0.80f, 0);
+        setDetection(2, 0.11f, 0.12f, 0.41f, 0.42f, 0.90f, 0);
+        setDetection(3, 0.52f, 0.50f, 0.92f, 0.90f, 0.60f, 0);
+        setDetection(4, 0.00f, 0.60f, 0.20f, 0.80f, 0.30f, 0);
+        numDetections[0] = 5;
+
+        final DetectionResult result = new DetectionResult(NUM_DETECTIONS);
+        result.set(outputLocations, outputClasses, outputScores, numDetections, INPUT_SIZE);
+        result.suppress(0.5f, 0.5f);
+
+        assertEquals(2, result.getCount());
+        assertEquals(0.9f, result.getScore(0), 0f);
+        assertEquals(0.8f, result.getScore(1), 0f);
+        assertEquals(36f, result.getLeft(0), 1e-4f);
+        assertEquals(150f, result.getLeft(1), 1e-4f);
+        assertEquals(0, result.getBestIndex());
+    }
+
+    @Test
+    public void suppressKeepsTouchingBoxes() {
+        setDetection(0, 0.0f, 0.0f, 0.5f, 0.5f, 0.6f, 0);
+        setDetection(1, 0.0f, 0.5f, 0.5f, 1.0f, 0.9f, 0);
+        numDetections[0] = 2;
+
+        final DetectionResult result = new DetectionResult(NUM_DETECTIONS);
+        result.set(outputLocations, outputClasses, outputScores, numDetections, INPUT_SIZE);
+        result.suppress(0f, 0.5f);
+
+        assertEquals(2, result.getCount());
+        assertEquals(150f, result.getLeft(0), 1e-4f);
+        assertEquals(0f, result.getLeft(1), 1e-4f);
+    }
+
+    @Test
+    public void repeatedDecodingDoesNotAllocate() {
+        setDetection(3, 0.1f, 0.1f, 0.2f, 0.2f, 0.7f, 0);
+        numDetections[0] = NUM_DETECTIONS;
+        final DetectionResult result = new DetectionResult(NUM_DETECTIONS);
+
+        assertEquals(0, Allocations.measure(10000, () -> {
+            result.set(outputLocations, outputClasses, outputScores, numDetections, INPUT_SIZE);
+            result.suppress(0.5f, 0.5f);
+            result.getBestIndex();
+        }));
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2020 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Host-side tests for dequantizing and decoding the detector outputs.
+ */
+public class DetectorOutputsTest {
+
+    private static final int NUM_DETECTIONS = 10;
+    private static final int INPUT_SIZE = 300;
+    // Dequantizes q to q / 100.
+    private static final float[] TABLE = DetectorOutputs.dequantizationTable(0, 0.01f);
+
+    private final DetectorOutputs outputs = new DetectorOutputs(NUM_DETECTIONS);
+    private final DetectionResult result = new DetectionResult(NUM_DETECTIONS);
+
+    private void setDetection(
+            final int i, final float top, final float left, final float bottom, final float right,
+            final float score) {
+        final float[] location = outputs.locations[0][i];
+        location[0] = top;
+        location[1] = left;
+        location[2] = bottom;
+        location[3] = right;
+        outputs.scores[0][i] = score;
+    }
+
+    @Test
+    public void decodesFloatOutputs() {
+        setDetection(0, 0.1f, 0.2f, 0.5f, 0.6f, 0.4f);
+        setDetection(1, 0.0f, 0.5f, 1.0f, 1.0f, 0.9f);
+        setDetection(2, 0.1f, 0.2f, 0.5f, 0.6f, 0.2f);
+        outputs.count[0] = 3;
+
+        outputs.decode(result, INPUT_SIZE, 0.3f, 0.5f);
+
+        // Sorted by score, without the detection below the minimum confidence.
+        assertEquals(2, result.getCount());
+        assertEquals(0.9f, result.getScore(0), 0f);
+        assertEquals(150f, result.getLeft(0), 1e-4f);
+        assertEquals(0.4f, result.getScore(1), 0f);
+        assertEquals(30f, result.getTop(1), 1e-4f);
+    }
+
+    @Test
+    public void dequantizesQuantizedOutputs() {
+        final ByteBuffer locations = ByteBuffer.allocate(NUM_DETECTIONS * 4);
+        locations.put(0, (byte) 10).put(1, (byte) 20).put(2, (byte) 50).put(3, (byte) 60);
+        final ByteBuffer scores = ByteBuffer.allocate(NUM_DETECTIONS);
+        scores.put(0, (byte) 200);
+        final ByteBuffer count = ByteBuffer.allocate(1);
+        count.put(0, (byte) 100);
+        outputs.setQuantized(DetectorOutputs.LOCATIONS, locations, TABLE);
+        outputs.setQuantized(DetectorOutputs.SCORES, scores, TABLE);
+        outputs.setQuantized(DetectorOutputs.COUNT, count, TABLE);
+        assertSame(scores, outputs.get(DetectorOutputs.SCORES));
+        assertSame(outputs.classes, outputs.get(DetectorOutputs.CLASSES));
+
+        outputs.decode(result, INPUT_SIZE, 0.5f, 0.5f);
+
+        assertEquals(1, result.getCount());
+        // 200 is above 127, so it must not be read as a negative byte.
+        assertEquals(2f, result.getScore(0), 1e-6f);
+        assertEquals(60f, result.getLeft(0), 1e-4f);
+        assertEquals(30f, result.getTop(0), 1e-4f);
+        assertEquals(180f, result.getRight(0), 1e-4f);
+        assertEquals(150f, result.getBottom(0), 1e-4f);
+    }
+
+    @Test
+    public void repeatedDecodingDoesNotAllocate() {
+        setDetection(3, 0.1f, 0.1f, 0.2f, 0.2f, 0.7f);
+        outputs.count[0] = NUM_DETECTIONS;
+        assertEquals(0, Allocations.measure(10000, () -> {
+            outputs.decode(result, INPUT_SIZE, 0.5f, 0.5f);
+            result.getBestIndex();
+        }));
+
+        final ByteBuffer scores = ByteBuffer.allocateDirect(NUM_DETECTIONS);
+        scores.put(3, (byte) 70);
+        outputs.setQuantized(DetectorOutputs.SCORES, scores, TABLE);
+        assertEquals(0, Allocations.measure(10000, () -> {
+            outputs.rewind();
+            outputs.decode(result, INPUT_SIZE, 0.5f, 0.5f);
+            result.getBestIndex();
+        }));
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2020 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Host-side tests for the expression smoothing and skipping.
+ */
+public class ExpressionSmootherTest {
+
+    private static final List<String> LABELS = Arrays.asList("Crying", "Happy", "Normal");
+    private static final float[] FACE = {100, 100, 200, 200};
+
+    private static List<Classifier2.Recognition> results(
+            final float crying, final float happy, final float normal) {
+        return Arrays.asList(
+                new Classifier2.Recognition("Crying", "Crying", crying, null),
+                new Classifier2.Recognition("Happy", "Happy", happy, null),
+                new Classifier2.Recognition("Normal", "Normal", normal, null));
+    }
+
+    private static void update(
+            final ExpressionSmoother smoother, final List<Classifier2.Recognition> results, final float[] box) {
+        smoother.update(results, box[0], box[1], box[2], box[3]);
+    }
+
+    private static boolean canSkip(final ExpressionSmoother smoother, final float[] box) {
+        return smoother.canSkip(box[0], box[1], box[2], box[3]);
+    }
+
+    @Test
+    public void averagesProbabilitiesBestFirst() {
+        final ExpressionSmoother smoother = new ExpressionSmoother(LABELS);
+        update(smoother, results(0.2f, 0.1f, 0.7f), FACE);
+        update(smoother, results(0.9f, 0.05f, 0.05f), FACE);
+
+        final List<Classifier2.Recognition> smoothed = smoother.getRecognitions();
+        // 0.7 * 0.2 + 0.3 * 0.9 and 0.7 * 0.7 + 0.3 * 0.05.
+        assertEquals("Normal", smoothed.get(0).getTitle());
+        assertEquals(0.505f, smoothed.get(0).getConfidence(), 1e-5f);
+        assertEquals("Crying", smoothed.get(1).getTitle());
+        assertEquals(0.41f, smoothed.get(1).getConfidence(), 1e-5f);
+        assertEquals("Happy", smoothed.get(2).getTitle());
+    }
+
+    @Test
+    public void skipsWhileStableUpToTheMaximum() {
+        final ExpressionSmoother smoother = new ExpressionSmoother(LABELS);
+        for (int i = 0; i < 4; ++i) {
+            update(smoother, results(0.1f, 0.1f, 0.8f), FACE);
+            assertFalse(canSkip(smoother, FACE));
+        }
+        update(smoother, results(0.1f, 0.1f, 0.8f), FACE);
+
+        final float[] jittered = {105, 95, 203, 198};
+        for (int i = 0; i < ExpressionSmoother.MAX_SKIPPED_FRAMES; ++i) {
+            assertTrue(canSkip(smoother, jittered));
+            smoother.skip();
+        }
+        assertFalse(canSkip(smoother, jittered));
+        update(smoother, results(0.1f, 0.1f, 0.8f), jittered);
+        assertTrue(canSkip(smoother, jittered));
+    }
+
+    @Test
+    public void classifiesAgainWhenTheFaceMoves() {
+        final ExpressionSmoother smoother = new ExpressionSmoother(LABELS);
+        for (int i = 0; i < 5; ++i) {
+            update(smoother, results(0.1f, 0.1f, 0.8f), FACE);
+        }
+        assertTrue(canSkip(smoother, FACE));
+        assertFalse(canSkip(smoother, new float[] {120, 100, 220, 200}));
+        assertFalse(canSkip(smoother, new float[] {100, 100, 230, 230}));
+    }
+
+    @Test
+    public void classifiesAgainWhileProbabilitiesChange() {
+        final ExpressionSmoother smoother = new ExpressionSmoother(LABELS);
+        for (int i = 0; i < 5; ++i) {
+            update(smoother, results(0.1f, 0.1f, 0.8f), FACE);
+        }
+        update(smoother, results(0.9f, 0.05f, 0.05f), FACE);
+        assertFalse(canSkip(smoother, FACE));
+    }
+
+    @Test
+    public void restartsForADifferentFace() {
+        final ExpressionSmoother smoother = new ExpressionSmoother(LABELS);
+        for (int i = 0; i < 5; ++i) {
+            update(smoother, results(0.1f, 0.1f, 0.8f), FACE);
+        }
+        update(smoother, results(0.9f, 0.05f, 0.05f), new float[] {300, 100, 400, 200});
+        assertEquals("Crying", smoother.getRecognitions().get(0).getTitle());
+        assertEquals(0.9f, smoother.getRecognitions().get(0).getConfidence(), 1e-6f);
+        assertFalse(canSkip(smoother, new float[] {300, 100, 400, 200}));
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2020 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Host-side tests for the detector input size ladder.
+ */
+public class InputSizeControllerTest {
+
+    private static final int[] SIZES = {512, 384, 320, 256};
+
+    // Feeds frames until the size changes, returning how many frames it took.
+    private static int framesUntilChange(
+            final InputSizeController controller, final float score, final float faceSide) {
+        for (int i = 1; i <= 100; ++i) {
+            if (controller.update(score, faceSide)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void stepsDownWhileLargeFacesAreConfident() {
+        final InputSizeController controller = new InputSizeController(SIZES);
+        assertEquals(512, controller.getInputSize());
+
+        assertEquals(10, framesUntilChange(controller, 0.9f, 200));
+        assertEquals(384, controller.getInputSize());
+        // The same face is smaller in input pixels at the smaller size.
+        assertEquals(10, framesUntilChange(controller, 0.9f, 150));
+        assertEquals(320, controller.getInputSize());
+        assertEquals(10, framesUntilChange(controller, 0.9f, 125));
+        assertEquals(256, controller.getInputSize());
+        // Already at the smallest size.
+        assertEquals(-1, framesUntilChange(controller, 0.9f, 100));
+        assertEquals(256, controller.getInputSize());
+    }
+
+    @Test
+    public void keepsSizeForSmallOrUncertainFaces() {
+        final InputSizeController controller = new InputSizeController(SIZES);
+        // Would shrink below the minimum face size at 384.
+        assertEquals(-1, framesUntilChange(controller, 0.9f, 80));
+        // Detected, but not confidently enough to give up resolution.
+        assertEquals(-1, framesUntilChange(controller, 0.7f, 200));
+        assertEquals(512, controller.getInputSize());
+    }
+
+    @Test
+    public void stepsUpWhenConfidenceDrops() {
+        final InputSizeController controller = new InputSizeController(SIZES);
+        framesUntilChange(controller, 0.9f, 200);
+        framesUntilChange(controller, 0.9f, 150);
+        assertEquals(320, controller.getInputSize());
+
+        assertFalse(controller.update(0.5f, 100));
+        assertTrue(controller.update(0f, 0));
+        assertEquals(384, controller.getInputSize());
+        assertEquals(2, framesUntilChange(controller, 0f, 0));
+        assertEquals(512, controller.getInputSize());
+        assertEquals(-1, framesUntilChange(controller, 0f, 0));
+    }
+
+    @Test
+    public void interruptedStreaksStartOver() {
+        final InputSizeController controller = new InputSizeController(SIZES);
+        for (int i = 0; i < 9; ++i) {
+            assertFalse(controller.update(0.9f, 200));
+        }
+        assertFalse(controller.update(0.7f, 200));
+        assertEquals(10, framesUntilChange(controller, 0.9f, 200));
+    }
+}
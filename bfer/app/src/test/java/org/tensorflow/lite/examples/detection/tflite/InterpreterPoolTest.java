@@ -0,0 +1,172 @@
+/*
+ * Copyright 2020 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Host-side tests for InterpreterPool leasing, using plain objects in place of model wrappers.
+ */
+public class InterpreterPoolTest {
+
+    private final AtomicInteger created = new AtomicInteger();
+    private final List<Object> closed = new ArrayList<>();
+
+    private InterpreterPool<Object> newPool(final int size) {
+        return new InterpreterPool<>(
+                null,
+                size,
+                model -> {
+                    created.incrementAndGet();
+                    return new Object();
+                },
+                instance -> {
+                    synchronized (closed) {
+                        closed.add(instance);
+                    }
+                });
+    }
+
+    @Test
+    public void createsInstancesLazilyUpToSize() throws Exception {
+        final InterpreterPool<Object> pool = newPool(2);
+        assertEquals(0, created.get());
+
+        final Object a = pool.tryAcquire();
+        final Object b = pool.tryAcquire();
+        assertNotSame(a, b);
+        assertNull(pool.tryAcquire());
+        assertNull(pool.tryAcquire(10, TimeUnit.MILLISECONDS));
+        assertEquals(2, created.get());
+
+        pool.release(a);
+        assertSame(a, pool.tryAcquire());
+        assertEquals(2, created.get());
+    }
+
+    @Test
+    public void acquireWaitsForRelease() throws Exception {
+        final InterpreterPool<Object> pool = newPool(1);
+        final Object instance = pool.acquire();
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final Object[] leased = new Object[1];
+        final Thread waiter = new Thread(() -> {
+            try {
+                leased[0] = pool.acquire();
+                acquired.countDown();
+            } catch (final Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        waiter.start();
+        assertFalse(acquired.await(50, TimeUnit.MILLISECONDS));
+
+        pool.release(instance);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        waiter.join();
+        assertSame(instance, leased[0]);
+    }
+
+    @Test
+    public void neverLeasesAnInstanceTwice() throws Exception {
+        final int size = 3;
+        final InterpreterPool<Object> pool = newPool(size);
+        final Set<Object> inUse = new HashSet<>();
+        final AtomicInteger maxInUse = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 2000; ++i) {
+            executor.execute(() -> {
+                try {
+                    final Object instance = pool.acquire();
+                    synchronized (inUse) {
+                        if (!inUse.add(instance)) {
+                            failures.incrementAndGet();
+                        }
+                        maxInUse.set(Math.max(maxInUse.get(), inUse.size()));
+                    }
+                    synchronized (inUse) {
+                        inUse.remove(instance);
+                    }
+                    pool.release(instance);
+                } catch (final Exception e) {
+                    failures.incrementAndGet();
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        assertEquals(0, failures.get());
+        assertTrue(maxInUse.get() <= size);
+        assertTrue(created.get() <= size);
+    }
+
+    @Test
+    public void closeClosesIdleAndLaterReleasedInstances() throws Exception {
+        final InterpreterPool<Object> pool = newPool(2);
+        final Object idle = pool.tryAcquire();
+        final Object leased = pool.tryAcquire();
+        pool.release(idle);
+
+        pool.close();
+        assertEquals(1, closed.size());
+        assertSame(idle, closed.get(0));
+
+        pool.release(leased);
+        assertEquals(2, closed.size());
+        assertSame(leased, closed.get(1));
+    }
+
+    @Test
+    public void closeWakesWaitingAcquire() throws Exception {
+        final InterpreterPool<Object> pool = newPool(1);
+        pool.tryAcquire();
+        final AtomicReference<Throwable> thrown = new AtomicReference<>();
+        final Thread waiter = new Thread(() -> {
+            try {
+                pool.acquire();
+            } catch (final Throwable t) {
+                thrown.set(t);
+            }
+        });
+        waiter.start();
+        Thread.sleep(50);
+
+        pool.close();
+        waiter.join(1000);
+        assertFalse(waiter.isAlive());
+        assertTrue(thrown.get() instanceof IllegalStateException);
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2020 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.content.SharedPreferences;
+
+import org.junit.Test;
+import org.tensorflow.lite.examples.detection.tflite.Classifier2.Device;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Host-side tests for InterpreterTuner, timing fake models that spin for a set time per run.
+ */
+public class InterpreterTunerTest {
+
+    private static final InterpreterConfig SLOW = new InterpreterConfig(Device.CPU, 1, false);
+    private static final InterpreterConfig FAST = new InterpreterConfig(Device.CPU, 2, false);
+    private static final InterpreterConfig BROKEN = new InterpreterConfig(Device.NNAPI, 1, false);
+
+    /**
+     * Spins for a fixed time per run, by config.
+     */
+    private static class FakeModel implements InterpreterTuner.Tunable {
+        final InterpreterConfig config;
+        boolean closed;
+
+        FakeModel(final InterpreterConfig config) {
+            this.config = config;
+        }
+
+        @Override
+        public void warmUp() {
+            if (config.equals(BROKEN)) {
+                throw new IllegalStateException("Delegate failed");
+            }
+            final long nanos = config.equals(FAST) ? 100000 : 1000000;
+            final long end = System.nanoTime() + nanos;
+            while (System.nanoTime() < end) {
+                // Spin.
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static class RecordingFactory implements InterpreterTuner.Factory<FakeModel> {
+        final List<FakeModel> created = new ArrayList<>();
+
+        @Override
+        public FakeModel create(final InterpreterConfig config) {
+            final FakeModel model = new FakeModel(config);
+            created.add(model);
+            return model;
+        }
+    }
+
+    @Test
+    public void picksFastestAndClosesTheOthers() throws IOException {
+        final RecordingFactory factory = new RecordingFactory();
+        final InterpreterTuner.Choice<FakeModel> choice =
+                InterpreterTuner.tune(Arrays.asList(SLOW, BROKEN, FAST), factory);
+
+        assertEquals(FAST, choice.config);
+        assertFalse(choice.instance.closed);
+        for (final FakeModel model : factory.created) {
+            assertEquals(model != choice.instance, model.closed);
+        }
+    }
+
+    @Test
+    public void failsWhenNoCandidateRuns() {
+        try {
+            InterpreterTuner.tune(Arrays.asList(BROKEN), new RecordingFactory());
+            fail("Expected IOException");
+        } catch (final IOException expected) {
+            assertTrue(expected.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void reusesChoiceUntilModelOrDeviceChanges() throws IOException {
+        final FakePreferences preferences = new FakePreferences();
+        final List<InterpreterConfig> candidates = Arrays.asList(SLOW, FAST);
+        final ByteBuffer model = ByteBuffer.wrap(new byte[] {1, 2, 3});
+
+        final RecordingFactory first = new RecordingFactory();
+        new InterpreterTuner(preferences, "device", false).createTuned("model", model, candidates, first);
+        assertEquals(2, first.created.size());
+
+        final RecordingFactory second = new RecordingFactory();
+        final FakeModel reused =
+                new InterpreterTuner(preferences, "device", false)
+                        .createTuned("model", model, candidates, second);
+        assertEquals(1, second.created.size());
+        assertEquals(FAST, reused.config);
+
+        final RecordingFactory updatedModel = new RecordingFactory();
+        new InterpreterTuner(preferences, "device", false)
+                .createTuned("model", ByteBuffer.wrap(new byte[] {1, 2, 4}), candidates, updatedModel);
+        assertEquals(2, updatedModel.created.size());
+
+        final RecordingFactory otherDevice = new RecordingFactory();
+        new InterpreterTuner(preferences, "other device", false)
+                .createTuned("model", model, candidates, otherDevice);
+        assertEquals(2, otherDevice.created.size());
+    }
+
+    @Test
+    public void rejectsGpuCandidates() throws IOException {
+        final RecordingFactory factory = new RecordingFactory();
+        try {
+            new InterpreterTuner(new FakePreferences(), "device", false).createTuned(
+                    "model",
+                    ByteBuffer.wrap(new byte[] {1}),
+                    Arrays.asList(FAST, new InterpreterConfig(Device.GPU, 1, false)),
+                    factory);
+            fail("Expected IllegalArgumentException");
+        } catch (final IllegalArgumentException expected) {
+            assertTrue(factory.created.isEmpty());
+        }
+    }
+
+    @Test
+    public void checksumLeavesModelPositionAlone() {
+        final ByteBuffer model = ByteBuffer.wrap(new byte[] {1, 2, 3, 4});
+        final long checksum = InterpreterTuner.checksum(model);
+        assertEquals(0, model.position());
+        assertEquals(checksum, InterpreterTuner.checksum(model));
+        assertNotEquals(checksum, InterpreterTuner.checksum(ByteBuffer.wrap(new byte[] {1, 2, 3, 5})));
+    }
+
+    @Test
+    public void configsRoundTripThroughEncode() {
+        final InterpreterConfig config = new InterpreterConfig(Device.GPU, 3, true);
+        assertEquals(config, InterpreterConfig.decode(config.encode()));
+        assertNull(InterpreterConfig.decode("TPU,1,false"));
+        assertNull(InterpreterConfig.decode("CPU,0,false"));
+        assertNull(InterpreterConfig.decode(null));
+    }
+
+    /**
+     * In-memory SharedPreferences.
+     */
+    private static class FakePreferences implements SharedPreferences {
+        final Map<String, Object> values = new HashMap<>();
+
+        @Override
+        public Map<String, ?> getAll() {
+            return values;
+        }
+
+        @Override
+        public String getString(final String key, final String defValue) {
+            return values.containsKey(key) ? (String) values.get(key) : defValue;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Set<String> getStringSet(final String key, final Set<String> defValues) {
+            return values.containsKey(key) ? (Set<String>) values.get(key) : defValues;
+        }
+
+        @Override
+        public int getInt(final String key, final int defValue) {
+            return values.containsKey(key) ? (Integer) values.get(key) : defValue;
+        }
+
+        @Override
+        public long getLong(final String key, final long defValue) {
+            return values.containsKey(key) ? (Long) values.get(key) : defValue;
+        }
+
+        @Override
+        public float getFloat(final String key, final float defValue) {
+            return values.containsKey(key) ? (Float) values.get(key) : defValue;
+        }
+
+        @Override
+        public boolean getBoolean(final String key, final boolean defValue) {
+            return values.containsKey(key) ? (Boolean) values.get(key) : defValue;
+        }
+
+        @Override
+        public boolean contains(final String key) {
+            return values.containsKey(key);
+        }
+
+        @Override
+        public Editor edit() {
+            return new FakeEditor();
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(
+                final OnSharedPreferenceChangeListener listener) {
+        }
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(
+                final OnSharedPreferenceChangeListener listener) {
+        }
+
+        private class FakeEditor implements Editor {
+            final Map<String, Object> pending = new HashMap<>();
+
+            private Editor put(final String key, final Object value) {
+                pending.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putString(final String key, final String value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putStringSet(final String key, final Set<String> values) {
+                return put(key, values);
+            }
+
+            @Override
+            public Editor putInt(final String key, final int value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putLong(final String key, final long value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putFloat(final String key, final float value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putBoolean(final String key, final boolean value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor remove(final String key) {
+                return put(key, null);
+            }
+
+            @Override
+            public Editor clear() {
+                values.clear();
+                return this;
+            }
+
+            @Override
+            public boolean commit() {
+                apply();
+                return true;
+            }
+
+            @Override
+            public void apply() {
+                for (final Map.Entry<String, Object> entry : pending.entrySet()) {
+                    if (entry.getValue() == null) {
+                        values.remove(entry.getKey());
+                    } else {
+                        values.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+        }
+    }
+}
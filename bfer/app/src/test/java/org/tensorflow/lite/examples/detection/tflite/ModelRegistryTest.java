@@ -0,0 +1,104 @@
+/*
+ * Copyright 2020 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Host-side tests for ModelRegistry, using plain objects in place of models.
+ */
+public class ModelRegistryTest {
+
+    @Test
+    public void loadsEachModelOnce() throws Exception {
+        final ModelRegistry registry = new ModelRegistry();
+        final AtomicInteger loads = new AtomicInteger();
+        final ModelRegistry.Loader<Object> loader = () -> {
+            loads.incrementAndGet();
+            return new Object();
+        };
+
+        final Future<Object> first = registry.load("model", loader);
+        final Future<Object> second = registry.load("model", loader);
+        assertSame(first, second);
+        assertSame(first.get(), registry.getIfReady("model"));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void loadsModelsInParallel() throws Exception {
+        final ModelRegistry registry = new ModelRegistry();
+        // Each loader only finishes once both have started.
+        final CountDownLatch started = new CountDownLatch(2);
+        final ModelRegistry.Loader<String> loader = () -> {
+            started.countDown();
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            return "loaded";
+        };
+
+        final Future<String> detector = registry.load("detector", loader);
+        final Future<String> classifier = registry.load("classifier", loader);
+        assertEquals("loaded", detector.get(5, TimeUnit.SECONDS));
+        assertEquals("loaded", classifier.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void getIfReadyDoesNotBlock() throws Exception {
+        final ModelRegistry registry = new ModelRegistry();
+        assertNull(registry.getIfReady("missing"));
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final Future<String> future = registry.load("slow", () -> {
+            release.await();
+            return "ready";
+        });
+        assertNull(registry.getIfReady("slow"));
+
+        release.countDown();
+        future.get(5, TimeUnit.SECONDS);
+        assertEquals("ready", registry.getIfReady("slow"));
+    }
+
+    @Test
+    public void failedLoadsAreReported() throws Exception {
+        final ModelRegistry registry = new ModelRegistry();
+        final Future<Object> future = registry.load("broken", () -> {
+            throw new IOException("no such asset");
+        });
+        while (!future.isDone()) {
+            Thread.sleep(1);
+        }
+        try {
+            registry.getIfReady("broken");
+            fail("Expected IllegalStateException");
+        } catch (final IllegalStateException expected) {
+            assertTrue(expected.getCause() instanceof IOException);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2020 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Host-side tests checking TopKSelector against a full sort.
+ */
+public class TopKSelectorTest {
+
+    private static final int K = 3;
+
+    private static ByteBuffer floats(final float... values) {
+        final ByteBuffer buffer =
+                ByteBuffer.allocateDirect(values.length * 4).order(ByteOrder.nativeOrder());
+        buffer.asFloatBuffer().put(values);
+        return buffer;
+    }
+
+    @Test
+    public void selectsHighestFloatsInOrder() {
+        final Random random = new Random(42);
+        final float[] values = new float[1001];
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = random.nextFloat();
+        }
+        final Integer[] order = new Integer[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing((Integer i) -> -values[i]));
+
+        final TopKSelector selector = new TopKSelector(K);
+        assertEquals(K, selector.selectFloats(floats(values), values.length));
+        for (int i = 0; i < K; ++i) {
+            assertEquals((int) order[i], selector.getIndex(i));
+            assertEquals(values[order[i]], selector.getScore(i), 0f);
+        }
+    }
+
+    @Test
+    public void selectsHighestBytesAsUnsigned() {
+        final ByteBuffer output = ByteBuffer.wrap(new byte[] {10, (byte) 200, 127, (byte) 128, 0});
+        final TopKSelector selector = new TopKSelector(K);
+        assertEquals(K, selector.selectBytes(output, 5));
+        assertEquals(1, selector.getIndex(0));
+        assertEquals(200f, selector.getScore(0), 0f);
+        assertEquals(3, selector.getIndex(1));
+        assertEquals(2, selector.getIndex(2));
+    }
+
+    @Test
+    public void keepsLowerIndexFirstOnTies() {
+        final TopKSelector selector = new TopKSelector(K);
+        selector.selectFloats(floats(0.5f, 0.9f, 0.5f, 0.5f), 4);
+        assertEquals(1, selector.getIndex(0));
+        assertEquals(0, selector.getIndex(1));
+        assertEquals(2, selector.getIndex(2));
+    }
+
+    @Test
+    public void selectsAllOfFewerClasses() {
+        final TopKSelector selector = new TopKSelector(K);
+        assertEquals(2, selector.selectFloats(floats(0.2f, 0.8f), 2));
+        assertEquals(1, selector.getIndex(0));
+        assertEquals(0, selector.getIndex(1));
+        assertEquals(2, selector.getCount());
+    }
+
+    @Test
+    public void selectsWithinOneImageOfABatch() {
+        final ByteBuffer output = floats(0.9f, 0.1f, 0.0f, 0.2f, 0.7f, 0.1f);
+        final TopKSelector selector = new TopKSelector(K);
+        assertEquals(K, selector.selectFloats(output, 3, 3));
+        assertEquals(1, selector.getIndex(0));
+        assertEquals(0.7f, selector.getScore(0), 0f);
+        assertEquals(0, selector.getIndex(1));
+        assertEquals(2, selector.getIndex(2));
+
+        final ByteBuffer bytes = ByteBuffer.wrap(new byte[] {(byte) 250, 1, 3, 2});
+        assertEquals(2, selector.selectBytes(bytes, 2, 2));
+        assertEquals(0, selector.getIndex(0));
+        assertEquals(3f, selector.getScore(0), 0f);
+    }
+
+    @Test
+    public void repeatedSelectionDoesNotAllocate() {
+        final ByteBuffer output = floats(0.1f, 0.7f, 0.2f, 0.9f, 0.4f);
+        final TopKSelector selector = new TopKSelector(K);
+
+        assertEquals(0, Allocations.measure(10000, () -> selector.selectFloats(output, 5)));
+    }
+}
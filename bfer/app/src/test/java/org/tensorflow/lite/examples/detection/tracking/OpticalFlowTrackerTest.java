@@ -0,0 +1,123 @@
+/*
+ * Copyright 2020 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Host-side tests for the optical flow box tracking.
+ */
+public class OpticalFlowTrackerTest {
+
+    private static final int WIDTH = 160;
+    private static final int HEIGHT = 120;
+    private static final float[] FACE = {50, 30, 110, 90};
+
+    // Smooth texture, shifted by (shiftX, shiftY) and scaled by scale around the image center.
+    private static byte[] image(final float shiftX, final float shiftY, final float scale) {
+        final byte[] image = new byte[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                final double u = (x - shiftX - WIDTH / 2.0) / scale + WIDTH / 2.0;
+                final double v = (y - shiftY - HEIGHT / 2.0) / scale + HEIGHT / 2.0;
+                final double value = 128
+                        + 50 * Math.sin(u * 0.31) * Math.cos(v * 0.23)
+                        + 30 * Math.sin((u + 2 * v) * 0.13);
+                image[y * WIDTH + x] = (byte) Math.round(value);
+            }
+        }
+        return image;
+    }
+
+    private static void assertBox(
+            final float left, final float top, final float right, final float bottom, final float[] actual) {
+        assertEquals(left, actual[0], 0.5f);
+        assertEquals(top, actual[1], 0.5f);
+        assertEquals(right, actual[2], 0.5f);
+        assertEquals(bottom, actual[3], 0.5f);
+    }
+
+    @Test
+    public void boxFollowsTheShift() {
+        final OpticalFlowTracker tracker = new OpticalFlowTracker();
+        tracker.reset(image(0, 0, 1), WIDTH, HEIGHT, FACE, 1);
+        assertTrue(tracker.track(image(3, -2, 1), WIDTH, HEIGHT));
+        assertTrue(tracker.track(image(9, -4, 1), WIDTH, HEIGHT));
+
+        final float[] location = new float[4];
+        tracker.getLocation(0, location);
+        assertBox(59, 26, 119, 86, location);
+    }
+
+    @Test
+    public void boxFollowsTheScale() {
+        final OpticalFlowTracker tracker = new OpticalFlowTracker();
+        final float[] centered = {50, 30, 110, 90};
+        tracker.reset(image(0, 0, 1), WIDTH, HEIGHT, centered, 1);
+        assertTrue(tracker.track(image(0, 0, 1.1f), WIDTH, HEIGHT));
+
+        final float[] location = new float[4];
+        tracker.getLocation(0, location);
+        assertBox(47, 27, 113, 93, location);
+    }
+
+    @Test
+    public void flatImageLosesTheBox() {
+        final OpticalFlowTracker tracker = new OpticalFlowTracker();
+        tracker.reset(image(0, 0, 1), WIDTH, HEIGHT, FACE, 1);
+        final byte[] flat = new byte[WIDTH * HEIGHT];
+        Arrays.fill(flat, (byte) 128);
+        assertFalse(tracker.track(flat, WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void boxWithoutTextureIsLost() {
+        final byte[] flat = new byte[WIDTH * HEIGHT];
+        Arrays.fill(flat, (byte) 128);
+        final OpticalFlowTracker tracker = new OpticalFlowTracker();
+        tracker.reset(flat, WIDTH, HEIGHT, FACE, 1);
+        assertFalse(tracker.track(flat, WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void everyBoxIsTracked() {
+        final OpticalFlowTracker tracker = new OpticalFlowTracker();
+        tracker.reset(
+                image(0, 0, 1),
+                WIDTH,
+                HEIGHT,
+                new float[] {10, 10, 60, 60, 90, 50, 140, 100},
+                2);
+        assertEquals(2, tracker.getCount());
+        assertTrue(tracker.track(image(-2, 3, 1), WIDTH, HEIGHT));
+
+        final float[] location = new float[4];
+        tracker.getLocation(0, location);
+        assertBox(8, 13, 58, 63, location);
+        tracker.getLocation(1, location);
+        assertBox(88, 53, 138, 103, location);
+
+        tracker.clear();
+        assertEquals(0, tracker.getCount());
+    }
+}
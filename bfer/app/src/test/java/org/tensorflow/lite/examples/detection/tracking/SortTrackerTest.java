@@ -0,0 +1,117 @@
+/*
+ * Copyright 2020 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Host-side tests for the Kalman filter and IoU face tracking.
+ */
+public class SortTrackerTest {
+
+    private static float[] box(final float left, final float top, final float side) {
+        return new float[] {left, top, left + side, top + side};
+    }
+
+    private static float[] boxes(final float[]... boxes) {
+        final float[] packed = new float[4 * boxes.length];
+        for (int i = 0; i < boxes.length; ++i) {
+            System.arraycopy(boxes[i], 0, packed, 4 * i, 4);
+        }
+        return packed;
+    }
+
+    @Test
+    public void movingBoxKeepsItsIdAndIsConfirmed() {
+        final SortTracker tracker = new SortTracker();
+        tracker.update(box(100, 100, 60), 1);
+        final int id = tracker.getId(0);
+        assertFalse(tracker.isConfirmed(0));
+        for (int frame = 1; frame < SortTracker.MIN_HITS; ++frame) {
+            tracker.update(box(100 + 5 * frame, 100, 60), 1);
+            assertEquals(id, tracker.getId(0));
+        }
+        assertTrue(tracker.isConfirmed(0));
+    }
+
+    @Test
+    public void facesKeepTheirIdsWhenTheirOrderChanges() {
+        final SortTracker tracker = new SortTracker();
+        tracker.update(boxes(box(0, 0, 50), box(200, 200, 80)), 2);
+        final int first = tracker.getId(0);
+        final int second = tracker.getId(1);
+        assertNotEquals(first, second);
+
+        tracker.update(boxes(box(205, 200, 80), box(3, 0, 50)), 2);
+        assertEquals(second, tracker.getId(0));
+        assertEquals(first, tracker.getId(1));
+        assertEquals(2, tracker.getTrackCount());
+    }
+
+    @Test
+    public void trackSurvivesMissedFramesUntilMaxAge() {
+        final SortTracker tracker = new SortTracker();
+        tracker.update(box(100, 100, 60), 1);
+        final int id = tracker.getId(0);
+        for (int frame = 0; frame < SortTracker.MAX_AGE; ++frame) {
+            tracker.update(new float[0], 0);
+        }
+        assertEquals(1, tracker.getTrackCount());
+        tracker.update(box(100, 100, 60), 1);
+        assertEquals(id, tracker.getId(0));
+
+        for (int frame = 0; frame <= SortTracker.MAX_AGE; ++frame) {
+            tracker.update(new float[0], 0);
+        }
+        assertEquals(0, tracker.getTrackCount());
+        tracker.update(box(100, 100, 60), 1);
+        assertNotEquals(id, tracker.getId(0));
+    }
+
+    @Test
+    public void predictionBridgesAMissedFrameOfAFastFace() {
+        final SortTracker tracker = new SortTracker();
+        float left = 0;
+        for (int frame = 0; frame < 10; ++frame, left += 20) {
+            tracker.update(box(left, 100, 60), 1);
+        }
+        final int id = tracker.getId(0);
+        final float[] location = new float[4];
+        tracker.getLocation(0, location);
+        assertEquals(left - 20, location[0], 2);
+        assertEquals(left + 40, location[2], 2);
+
+        // Skip a frame: the last box barely overlaps the next one, but the prediction does.
+        tracker.update(new float[0], 0);
+        left += 20;
+        assertTrue(SortTracker.iou(left - 40, 100, left + 20, 160, left, 100, left + 60, 160) < 0.3f);
+        tracker.update(box(left, 100, 60), 1);
+        assertEquals(id, tracker.getId(0));
+    }
+
+    @Test
+    public void iouOfOverlappingAndDisjointBoxes() {
+        assertEquals(1f, SortTracker.iou(0, 0, 10, 10, 0, 0, 10, 10), 1e-6f);
+        assertEquals(1f / 3, SortTracker.iou(0, 0, 10, 10, 5, 0, 15, 10), 1e-6f);
+        assertEquals(0f, SortTracker.iou(0, 0, 10, 10, 10, 0, 20, 10), 1e-6f);
+    }
+}